@@ -0,0 +1,27 @@
+#!/bin/bash
+set -e
+
+PROGNAME=$(basename "$0")
+
+die() {
+    echo "$PROGNAME: $*" >&2
+    exit 1
+}
+
+[ $# -eq 2 ] || die "usage: $PROGNAME <baseline.json> <current.json>"
+command -v jq > /dev/null || die "jq is required"
+
+# one line per benchmark and parameters: name, score, unit
+scores() {
+    jq -r '.[] | [.benchmark + ((.params // {}) | to_entries | map(" " + .key + "=" + .value) | join("")),
+                  .primaryMetric.score, .primaryMetric.scoreUnit] | @tsv' "$1" | sort
+}
+
+join -t $'\t' <(scores "$1") <(scores "$2") |
+    awk -F '\t' 'BEGIN {
+        printf "%-90s %12s %12s %-8s %8s\n", "Benchmark", "Baseline", "Current", "Units", "Change"
+    }
+    {
+        change = $2 == 0 ? 0 : ($4 - $2) * 100 / $2
+        printf "%-90s %12.3f %12.3f %-8s %+7.1f%%\n", $1, $2, $4, $3, change
+    }'
@@ -0,0 +1,158 @@
+package com.wire.lithium.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.wire.lithium.Broadcaster;
+import com.wire.lithium.ClientRepo;
+import com.wire.lithium.Configuration;
+import com.wire.lithium.StreamingClientBuilder;
+import com.wire.xenon.Const;
+import com.wire.xenon.assets.MessageText;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.NewBot;
+import io.dropwizard.jackson.Jackson;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.client.Client;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversations per second when broadcasting one message to 10k bots, against a stub backend on localhost.
+ * Crypto box and bot states are replaced with in-memory fakes so only the http path and the fan-out are measured.
+ * Bots are loaded through the cached {@link ClientRepo}, the way the server runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class BroadcastBenchmark {
+    private static final int TARGETS = 10_000;
+    private static final byte[] DEVICES = "{}".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"1", "8", "64"})
+    public int concurrency;
+
+    @Param({"2"})
+    public int backendLatencyMs;
+
+    private Server server;
+    private ExecutorService executor;
+    private Client client;
+    private Broadcaster broadcaster;
+    private List<UUID> botIds;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setHost("localhost");
+        server.addConnector(connector);
+        server.setHandler(new StubBackend(backendLatencyMs));
+        server.start();
+
+        executor = Executors.newFixedThreadPool(concurrency);
+        client = new StreamingClientBuilder(new MetricRegistry())
+                .using(new Configuration._JerseyClientConfiguration())
+                .using(executor, Jackson.newObjectMapper())
+                .withProvider(JacksonJsonProvider.class)
+                .build("BroadcastBenchmark");
+
+        System.setProperty(Const.WIRE_BOTS_SDK_API, "http://localhost:" + connector.getLocalPort());
+        ClientRepo repo = new ClientRepo(client,
+                botId -> new NoopCrypto(),
+                BroadcastBenchmark::state,
+                new Configuration.ClientCache(),
+                new MetricRegistry());
+        broadcaster = new Broadcaster(repo, executor, concurrency, new MetricRegistry());
+
+        botIds = new ArrayList<>(TARGETS);
+        for (int i = 0; i < TARGETS; i++)
+            botIds.add(UUID.randomUUID());
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        client.close();
+        executor.shutdown();
+        server.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TARGETS)
+    public int broadcast() throws InterruptedException {
+        Broadcaster.Report report = broadcaster.broadcast(new MessageText("Hello"), botIds);
+        if (report.getFailed() > 0)
+            throw new IllegalStateException("Failed sends: " + report.getFailed());
+        return report.getDelivered();
+    }
+
+    /**
+     * Accepts every message: no missing devices
+     */
+    private static class StubBackend extends AbstractHandler {
+        private final int latencyMs;
+
+        StubBackend(int latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public void handle(String target, Request base, HttpServletRequest request, HttpServletResponse response)
+                throws IOException {
+            request.getInputStream().readAllBytes();
+            try {
+                if (latencyMs > 0)
+                    Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            response.setStatus(201);
+            response.setContentType("application/json");
+            response.setContentLength(DEVICES.length);
+            response.getOutputStream().write(DEVICES);
+            base.setHandled(true);
+        }
+    }
+
+    private static com.wire.xenon.state.State state(UUID botId) {
+        NewBot bot = new NewBot();
+        bot.id = botId;
+        bot.client = "bot";
+        bot.token = "token";
+        bot.conversation = new Conversation();
+        bot.conversation.id = botId;
+
+        return new com.wire.xenon.state.State() {
+            @Override
+            public boolean saveState(NewBot newBot) {
+                return true;
+            }
+
+            @Override
+            public NewBot getState() {
+                return bot;
+            }
+
+            @Override
+            public boolean removeState() {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,141 @@
+package com.wire.lithium.benchmarks;
+
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.bots.cryptobox.PreKey;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.crypto.CryptoDatabase;
+import com.wire.xenon.crypto.CryptoFile;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.PreKeys;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Decrypt of a message on an established session, through {@link CryptoFile} or {@link CryptoDatabase} over storage
+ * kept in memory. Every operation also encrypts the message on the sender's box: a cipher can only be decrypted
+ * once. Needs native cryptobox on {@code java.library.path}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class DecryptBenchmark {
+    private static final byte[] CONTENT = "Hello Bob, this is Alice".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"file", "database"})
+    public String box;
+
+    private final UUID aliceId = UUID.randomUUID();
+    private final UUID bobId = UUID.randomUUID();
+    private final String aliceClient = "alice-client";
+    private final String bobClient = "bob-client";
+    private final Missing bobDevices = new Missing();
+    private Path dir;
+    private Crypto alice;
+    private Crypto bob;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("decrypt-benchmark");
+        alice = open(aliceId);
+        bob = open(bobId);
+
+        // session established with bob's prekey
+        ArrayList<com.wire.xenon.models.otr.PreKey> preKeys = bob.newPreKeys(0, 1);
+        String cipher = alice.encrypt(new PreKeys(preKeys, bobClient, bobId), CONTENT).get(bobId, bobClient);
+        bob.decrypt(aliceId, aliceClient, cipher);
+        bobDevices.add(bobId, bobClient);
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        alice.close();
+        bob.close();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public String decrypt() throws Exception {
+        String cipher = alice.encrypt(bobDevices, CONTENT).get(bobId, bobClient);
+        return bob.decrypt(aliceId, aliceClient, cipher);
+    }
+
+    private Crypto open(UUID botId) throws Exception {
+        if (box.equals("file"))
+            return new CryptoFile(dir.toString(), botId);
+        return new CryptoDatabase(botId, new MemoryStorage(), dir.resolve(botId.toString()).toString());
+    }
+
+    private static class MemoryStorage implements IStorage {
+        private final Map<String, byte[]> sessions = new ConcurrentHashMap<>();
+        private final Map<String, byte[]> identities = new ConcurrentHashMap<>();
+        private final Map<String, Map<Integer, byte[]>> prekeys = new ConcurrentHashMap<>();
+
+        @Override
+        public IRecord fetchSession(String id, String sid) {
+            String key = id + '/' + sid;
+            byte[] data = sessions.get(key);
+            return new IRecord() {
+                @Override
+                public byte[] getData() {
+                    return data;
+                }
+
+                @Override
+                public void persist(byte[] update) {
+                    if (update != null)
+                        sessions.put(key, update);
+                }
+            };
+        }
+
+        @Override
+        public byte[] fetchIdentity(String id) {
+            return identities.get(id);
+        }
+
+        @Override
+        public void insertIdentity(String id, byte[] data) {
+            identities.put(id, data);
+        }
+
+        @Override
+        public PreKey[] fetchPrekeys(String id) {
+            Map<Integer, byte[]> keys = prekeys.get(id);
+            if (keys == null)
+                return null;
+            return keys.entrySet().stream()
+                    .map(e -> new PreKey(e.getKey(), e.getValue()))
+                    .toArray(PreKey[]::new);
+        }
+
+        @Override
+        public void insertPrekey(String id, int kid, byte[] data) {
+            prekeys.computeIfAbsent(id, k -> new ConcurrentHashMap<>()).put(kid, data);
+        }
+
+        @Override
+        public void purge(String id) {
+            String prefix = id + '/';
+            sessions.keySet().removeIf(key -> key.startsWith(prefix));
+            identities.remove(id);
+            prekeys.remove(id);
+        }
+    }
+}
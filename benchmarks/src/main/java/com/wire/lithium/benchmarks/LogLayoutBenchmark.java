@@ -0,0 +1,75 @@
+package com.wire.lithium.benchmarks;
+
+import ch.qos.logback.access.spi.IAccessEvent;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.wire.lithium.server.monitoring.AccessEventJsonLayout;
+import com.wire.lithium.server.monitoring.LoggingEventJsonLayout;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON layouts every log line and access log line of the service goes through
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class LogLayoutBenchmark {
+    @Param({"false", "true"})
+    public boolean exception;
+
+    private final LoggingEventJsonLayout loggingLayout = new LoggingEventJsonLayout(List.of());
+    private final AccessEventJsonLayout accessLayout = new AccessEventJsonLayout(List.of());
+    private LoggingEvent loggingEvent;
+    private IAccessEvent accessEvent;
+
+    @Setup
+    public void setup() {
+        Logger logger = new LoggerContext().getLogger("com.wire.lithium.benchmarks");
+        loggingEvent = new LoggingEvent(Logger.class.getName(), logger, Level.INFO, "newMessage: %s %s",
+                exception ? new IllegalStateException("failed") : null,
+                new Object[]{UUID.randomUUID(), "conversation.otr-message-add"});
+
+        long timestamp = System.currentTimeMillis();
+        String uri = "/bots/" + UUID.randomUUID() + "/messages";
+        accessEvent = (IAccessEvent) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{IAccessEvent.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getTimeStamp":
+                            return timestamp;
+                        case "getElapsedTime":
+                            return 3L;
+                        case "getRequestURI":
+                            return uri;
+                        case "getQueryString":
+                            return "id=" + UUID.randomUUID();
+                        case "getRemoteHost":
+                        case "getRemoteAddr":
+                            return "10.0.0.1";
+                        case "getMethod":
+                            return "POST";
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    @Benchmark
+    public String loggingEvent() {
+        return loggingLayout.doLayout(loggingEvent);
+    }
+
+    @Benchmark
+    public String accessEvent() {
+        return accessLayout.doLayout(accessEvent);
+    }
+}
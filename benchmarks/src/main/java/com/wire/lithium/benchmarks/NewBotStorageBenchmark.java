@@ -0,0 +1,127 @@
+package com.wire.lithium.benchmarks;
+
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.lithium.crypto.JdbiCryptoStorage;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.crypto.storage.JdbiStorage;
+import com.wire.xenon.models.otr.PreKey;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Database work of {@code BotsResource.newBot} with the Postgres backend: identity, last prekey and 50 prekeys
+ * written by {@link JdbiStorage} one statement at a time, or by {@link JdbiCryptoStorage} in one batch.
+ * Native cryptobox is left out: the box only persists random key material through the storage.
+ * Needs a Postgres database, set with {@code -p url=jdbc:postgresql://host/db -p user=... -p password=...}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class NewBotStorageBenchmark {
+    private static final int PREKEYS = 50;
+
+    @Param({"jdbc:postgresql://localhost/lithium"})
+    public String url;
+
+    @Param({"postgres"})
+    public String user;
+
+    @Param({""})
+    public String password;
+
+    @Param({"single", "batched"})
+    public String storage;
+
+    private Jdbi jdbi;
+    private final List<String> bots = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        jdbi = Jdbi.create(url, user, password).installPlugin(new SqlObjectPlugin());
+        jdbi.useHandle(handle -> {
+            handle.execute("CREATE TABLE IF NOT EXISTS Identities (id VARCHAR PRIMARY KEY, data BYTEA NOT NULL)");
+            handle.execute("CREATE TABLE IF NOT EXISTS Prekeys (id VARCHAR, kid INTEGER, data BYTEA NOT NULL, PRIMARY KEY (id, kid))");
+            handle.execute("CREATE TABLE IF NOT EXISTS Sessions (id VARCHAR, sid VARCHAR, data BYTEA NOT NULL, PRIMARY KEY (id, sid))");
+        });
+    }
+
+    @TearDown(Level.Iteration)
+    public void purge() throws Exception {
+        IStorage purger = new JdbiStorage(jdbi);
+        for (String id : bots)
+            purger.purge(id);
+        bots.clear();
+    }
+
+    @Benchmark
+    public Object newBot() throws Exception {
+        String id = UUID.randomUUID().toString();
+        bots.add(id);
+
+        IStorage storage;
+        Crypto crypto;
+        if (this.storage.equals("batched")) {
+            JdbiCryptoStorage batched = new JdbiCryptoStorage(jdbi);
+            storage = batched;
+            crypto = batched.wrap(new PersistingCrypto(id, batched));
+        } else {
+            storage = new JdbiStorage(jdbi);
+            crypto = new PersistingCrypto(id, storage);
+        }
+
+        storage.insertIdentity(id, random(32));
+        crypto.newLastPreKey();
+        return crypto.newPreKeys(0, PREKEYS);
+    }
+
+    private static byte[] random(int size) {
+        byte[] ret = new byte[size];
+        ThreadLocalRandom.current().nextBytes(ret);
+        return ret;
+    }
+
+    // writes every new prekey to the storage, like CryptoDb does
+    private static class PersistingCrypto extends NoopCrypto {
+        private final String id;
+        private final IStorage storage;
+
+        PersistingCrypto(String id, IStorage storage) {
+            this.id = id;
+            this.storage = storage;
+        }
+
+        @Override
+        public PreKey newLastPreKey() {
+            return persist(0xFFFF);
+        }
+
+        @Override
+        public ArrayList<PreKey> newPreKeys(int from, int count) {
+            ArrayList<PreKey> ret = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                ret.add(persist(from + i));
+            return ret;
+        }
+
+        private PreKey persist(int kid) {
+            PreKey preKey = new PreKey();
+            preKey.id = kid;
+            try {
+                storage.insertPrekey(id, kid, random(64));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return preKey;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.wire.lithium.benchmarks;
+
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.models.otr.Recipients;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * Crypto that produces no ciphers. Keeps native cryptobox out of benchmarks that measure the http path
+ */
+class NoopCrypto implements Crypto {
+    @Override
+    public byte[] getIdentity() {
+        return new byte[0];
+    }
+
+    @Override
+    public byte[] getLocalFingerprint() {
+        return new byte[0];
+    }
+
+    @Override
+    public PreKey newLastPreKey() {
+        return null;
+    }
+
+    @Override
+    public ArrayList<PreKey> newPreKeys(int from, int count) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public Recipients encrypt(PreKeys preKeys, byte[] content) {
+        return new Recipients();
+    }
+
+    @Override
+    public Recipients encrypt(Missing missing, byte[] content) {
+        return new Recipients();
+    }
+
+    @Override
+    public String decrypt(UUID userId, String clientId, String cypher) {
+        return cypher;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return false;
+    }
+
+    @Override
+    public void purge() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,124 @@
+package com.wire.lithium.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.wire.lithium.API;
+import com.wire.lithium.Configuration;
+import com.wire.lithium.StreamingClientBuilder;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.Recipients;
+import io.dropwizard.jackson.Jackson;
+import org.glassfish.jersey.client.ClientRequest;
+import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.client.spi.ConnectorProvider;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side cost of {@link API#sendMessage}: request building and JSON serialization of the message.
+ * The connector answers in memory, so no network is involved. Run with {@code -prof gc} and compare
+ * {@code gc.alloc.rate.norm} (bytes/op).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class SendMessageBenchmark {
+    private static final byte[] DEVICES = "{}".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"1", "20"})
+    public int recipients;
+
+    private ExecutorService executor;
+    private Client client;
+    private API api;
+    private OtrMessage message;
+
+    @Setup
+    public void setup() {
+        executor = Executors.newSingleThreadExecutor();
+        client = new StreamingClientBuilder(new MetricRegistry())
+                .using(new Configuration._JerseyClientConfiguration())
+                .using(executor, Jackson.newObjectMapper())
+                .using((ConnectorProvider) (client, runtimeConfig) -> new InMemoryConnector())
+                .withProvider(JacksonJsonProvider.class)
+                .build("SendMessageBenchmark");
+        api = new API(client, UUID.randomUUID().toString(), "https://localhost");
+
+        Recipients rcps = new Recipients();
+        for (int i = 0; i < recipients; i++)
+            rcps.add(UUID.randomUUID(), Long.toHexString(i), "b".repeat(200));
+        message = new OtrMessage("bot", rcps);
+    }
+
+    @TearDown
+    public void teardown() {
+        client.close();
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public Devices sendMessage() throws Exception {
+        return api.sendMessage(message, false);
+    }
+
+    /**
+     * Serializes the entity into nothing and accepts the message
+     */
+    private static class InMemoryConnector implements Connector {
+        @Override
+        public ClientResponse apply(ClientRequest request) {
+            if (request.getHeaderString(HttpHeaders.AUTHORIZATION) == null)
+                throw new IllegalStateException("No authorization");
+
+            try {
+                if (request.getEntity() != null) {
+                    request.setStreamProvider(contentLength -> OutputStream.nullOutputStream());
+                    request.writeEntity();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+
+            ClientResponse response = new ClientResponse(Response.Status.CREATED, request);
+            response.getHeaders().putSingle(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+            response.setEntityStream(new ByteArrayInputStream(DEVICES));
+            return response;
+        }
+
+        @Override
+        public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+            ClientResponse response = apply(request);
+            callback.response(response);
+            return CompletableFuture.completedFuture(response);
+        }
+
+        @Override
+        public String getName() {
+            return "in-memory";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.wire.lithium.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.Configuration;
+import com.wire.lithium.storage.CachingStorageFactory;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.factories.StorageFactory;
+import com.wire.xenon.state.FileState;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * State lookup done for every incoming message, {@code sf.create(botId).getState()}, over the {@code fs} backend
+ * with and without the state cache. {@code storageReads} counts the lookups that reached the storage, out of
+ * {@code lookups}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class StateCacheBenchmark {
+    private static final int BOTS = 1_000;
+
+    @Param({"false", "true"})
+    public boolean cache;
+
+    private final UUID[] bots = new UUID[BOTS];
+    private final AtomicLong reads = new AtomicLong();
+    private Path dir;
+    private StorageFactory sf;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("state-benchmark");
+        StorageFactory counting = botId -> new FileState(dir.toString(), botId) {
+            @Override
+            public NewBot getState() throws IOException {
+                reads.incrementAndGet();
+                return super.getState();
+            }
+        };
+        sf = cache
+                ? new CachingStorageFactory(counting, new Configuration.StateCache(), new MetricRegistry())
+                : counting;
+
+        for (int i = 0; i < BOTS; i++) {
+            bots[i] = UUID.randomUUID();
+            NewBot bot = new NewBot();
+            bot.id = bots[i];
+            bot.client = "client";
+            bot.token = UUID.randomUUID().toString();
+            sf.create(bots[i]).saveState(bot);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public NewBot getState(Reads counter) throws IOException {
+        NewBot ret = sf.create(bots[ThreadLocalRandom.current().nextInt(BOTS)]).getState();
+        counter.lookups++;
+        return ret;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Reads {
+        public long lookups;
+        private long start;
+        private StateCacheBenchmark benchmark;
+
+        @Setup(Level.Iteration)
+        public void setup(StateCacheBenchmark benchmark) {
+            this.benchmark = benchmark;
+            lookups = 0;
+            start = benchmark.reads.get();
+        }
+
+        public long storageReads() {
+            return benchmark.reads.get() - start;
+        }
+    }
+}
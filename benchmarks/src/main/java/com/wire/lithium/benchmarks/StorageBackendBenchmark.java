@@ -0,0 +1,166 @@
+package com.wire.lithium.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.lithium.crypto.SegmentCryptoStorage;
+import com.wire.lithium.storage.SegmentState;
+import com.wire.lithium.storage.SegmentStore;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.crypto.storage.JdbiStorage;
+import com.wire.xenon.state.FileState;
+import com.wire.xenon.state.JdbiState;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Reads and writes of bot state and crypto sessions with the {@code fs}, {@code segments} and Postgres backends.
+ * The {@code fs} sessions are plain files, the way the native box keeps them. The {@code postgres} backend needs a
+ * database, set with {@code -p url=jdbc:postgresql://host/db -p user=... -p password=...}; without one run
+ * {@code -p backend=fs,segments}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class StorageBackendBenchmark {
+    private static final int BOTS = 1_000;
+    private static final int SESSION_SIZE = 2 * 1024;
+
+    @Param({"fs", "segments", "postgres"})
+    public String backend;
+
+    @Param({"jdbc:postgresql://localhost/lithium"})
+    public String url;
+
+    @Param({"postgres"})
+    public String user;
+
+    @Param({""})
+    public String password;
+
+    private final UUID[] bots = new UUID[BOTS];
+    private final com.wire.xenon.state.State[] states = new com.wire.xenon.state.State[BOTS];
+    private Path dir;
+    private SegmentStore store;
+    private IStorage storage;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("storage-benchmark");
+        Jdbi jdbi = null;
+        switch (backend) {
+            case "segments":
+                store = new SegmentStore(dir, 64 * 1024 * 1024, 0.5, 32 * 1024 * 1024, new MetricRegistry());
+                storage = new SegmentCryptoStorage(store, dir.resolve("boxes"));
+                break;
+            case "postgres":
+                jdbi = Jdbi.create(url, user, password).installPlugin(new SqlObjectPlugin());
+                jdbi.useHandle(handle -> {
+                    handle.execute("CREATE TABLE IF NOT EXISTS States (botId UUID PRIMARY KEY, bot JSON NOT NULL)");
+                    handle.execute("CREATE TABLE IF NOT EXISTS Sessions (id VARCHAR, sid VARCHAR, data BYTEA NOT NULL, PRIMARY KEY (id, sid))");
+                });
+                storage = new JdbiStorage(jdbi);
+                break;
+            default:
+                storage = null;
+        }
+
+        for (int i = 0; i < BOTS; i++) {
+            bots[i] = UUID.randomUUID();
+            states[i] = state(bots[i], jdbi);
+            states[i].saveState(bot(bots[i]));
+            writeSession(bots[i], random(SESSION_SIZE));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (com.wire.xenon.state.State state : states)
+            state.removeState();
+        if (storage != null && store == null) {
+            for (UUID botId : bots)
+                storage.purge(botId.toString());
+        }
+        if (store != null)
+            store.close();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public NewBot state() throws Exception {
+        int i = ThreadLocalRandom.current().nextInt(BOTS);
+        states[i].saveState(bot(bots[i]));
+        return states[i].getState();
+    }
+
+    // what decrypting a message does: the session is read, updated and written back
+    @Benchmark
+    public byte[] session() throws Exception {
+        UUID botId = bots[ThreadLocalRandom.current().nextInt(BOTS)];
+        byte[] data = readSession(botId).clone();
+        data[0]++;
+        writeSession(botId, data);
+        return data;
+    }
+
+    private com.wire.xenon.state.State state(UUID botId, Jdbi jdbi) {
+        switch (backend) {
+            case "segments":
+                return new SegmentState(store, botId);
+            case "postgres":
+                return new JdbiState(botId, jdbi);
+            default:
+                return new FileState(dir.toString(), botId);
+        }
+    }
+
+    private byte[] readSession(UUID botId) throws Exception {
+        if (storage == null)
+            return Files.readAllBytes(sessionFile(botId));
+        return storage.fetchSession(botId.toString(), "user_client").getData();
+    }
+
+    private void writeSession(UUID botId, byte[] data) throws Exception {
+        if (storage == null) {
+            Path file = sessionFile(botId);
+            Files.createDirectories(file.getParent());
+            Files.write(file, data);
+            return;
+        }
+        IRecord record = storage.fetchSession(botId.toString(), "user_client");
+        record.persist(data);
+    }
+
+    private Path sessionFile(UUID botId) {
+        return dir.resolve("sessions").resolve(botId.toString()).resolve("user_client");
+    }
+
+    private static NewBot bot(UUID botId) {
+        NewBot ret = new NewBot();
+        ret.id = botId;
+        ret.client = "client";
+        ret.token = UUID.randomUUID().toString();
+        return ret;
+    }
+
+    private static byte[] random(int size) {
+        byte[] ret = new byte[size];
+        ThreadLocalRandom.current().nextBytes(ret);
+        return ret;
+    }
+}
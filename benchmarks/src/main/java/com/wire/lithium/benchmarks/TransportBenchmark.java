@@ -0,0 +1,150 @@
+package com.wire.lithium.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.wire.lithium.API;
+import com.wire.lithium.Configuration;
+import com.wire.lithium.Http2ConnectorProvider;
+import com.wire.lithium.StreamingClientBuilder;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.Recipients;
+import io.dropwizard.client.JerseyClientBuilder;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.util.Duration;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.client.Client;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second of {@link API#sendMessage} over the Apache HTTP/1.1 connector and the JDK HTTP/2 connector,
+ * against a stub backend on localhost that speaks both (h2c upgrade).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class TransportBenchmark {
+    private static final int REQUESTS = 1_000;
+    private static final byte[] DEVICES = "{}".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"http1", "http2"})
+    public String transport;
+
+    @Param({"16", "128"})
+    public int concurrency;
+
+    @Param({"2"})
+    public int backendLatencyMs;
+
+    private Server server;
+    private ExecutorService executor;
+    private ExecutorService httpExecutor;
+    private Client client;
+    private API api;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new Server(new QueuedThreadPool(512));
+        HttpConfiguration config = new HttpConfiguration();
+        ServerConnector connector = new ServerConnector(server,
+                new HttpConnectionFactory(config),
+                new HTTP2CServerConnectionFactory(config));
+        connector.setHost("localhost");
+        server.addConnector(connector);
+        server.setHandler(new StubBackend(backendLatencyMs));
+        server.start();
+
+        Configuration._JerseyClientConfiguration jersey = new Configuration._JerseyClientConfiguration();
+        jersey.setTimeout(Duration.seconds(10));
+        jersey.setConnectionRequestTimeout(Duration.seconds(10));
+
+        executor = Executors.newFixedThreadPool(concurrency);
+        httpExecutor = Executors.newFixedThreadPool(4);
+        JerseyClientBuilder builder = new StreamingClientBuilder(new MetricRegistry())
+                .using(jersey)
+                .using(executor, Jackson.newObjectMapper())
+                .withProvider(JacksonJsonProvider.class);
+
+        if (transport.equals("http2")) {
+            Configuration.Http2 http2 = new Configuration.Http2();
+            http2.enabled = true;
+            http2.maxStreamsPerRoute = concurrency;
+            builder.using(new Http2ConnectorProvider(http2, jersey, httpExecutor, new MetricRegistry()));
+        }
+
+        client = builder.build("TransportBenchmark");
+        String host = "http://localhost:" + connector.getLocalPort();
+        api = new API(client, "token", host);
+
+        // the JDK client only upgrades plain text connections to h2c on requests without a body
+        client.target(host).request().get().close();
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        client.close();
+        executor.shutdown();
+        httpExecutor.shutdown();
+        server.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public int send() throws Exception {
+        List<Future<?>> sends = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++)
+            sends.add(executor.submit(() -> api.sendMessage(new OtrMessage("bot", new Recipients()))));
+        for (Future<?> send : sends)
+            send.get();
+        return sends.size();
+    }
+
+    /**
+     * Accepts every message: no missing devices
+     */
+    private static class StubBackend extends AbstractHandler {
+        private final int latencyMs;
+
+        StubBackend(int latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public void handle(String target, Request base, HttpServletRequest request, HttpServletResponse response)
+                throws IOException {
+            request.getInputStream().readAllBytes();
+            try {
+                if (latencyMs > 0)
+                    Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            response.setStatus(201);
+            response.setContentType("application/json");
+            response.setContentLength(DEVICES.length);
+            response.getOutputStream().write(DEVICES);
+            base.setHandled(true);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.wire.lithium.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.waz.model.Messages;
+import com.wire.lithium.ClientRepo;
+import com.wire.lithium.Configuration;
+import com.wire.lithium.server.resources.MessageResource;
+import com.wire.xenon.MessageHandlerBase;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.backend.models.Payload;
+import io.dropwizard.jackson.Jackson;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steps of an incoming webhook, without network and native cryptobox: {@link Payload} deserialization,
+ * {@link ClientRepo#getClient} and {@link MessageResource#newMessage} of a text message to a handler doing nothing.
+ * State is kept in memory and decrypt returns the cipher as is, see {@link DecryptBenchmark} for the crypto part.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class WebhookBenchmark {
+    private static final int BOTS = 1_000;
+
+    @Param({"0", "10000"})
+    public long clientCache;
+
+    private final ObjectMapper mapper = Jackson.newObjectMapper();
+    private final UUID[] bots = new UUID[BOTS];
+    private Client client;
+    private ClientRepo repo;
+    private MessageResource resource;
+    private byte[] json;
+    private Payload payload;
+
+    @Setup
+    public void setup() throws Exception {
+        Map<UUID, NewBot> states = new ConcurrentHashMap<>();
+        for (int i = 0; i < BOTS; i++) {
+            bots[i] = UUID.randomUUID();
+            NewBot bot = new NewBot();
+            bot.id = bots[i];
+            bot.client = "client";
+            bot.token = UUID.randomUUID().toString();
+            states.put(bots[i], bot);
+        }
+
+        Configuration.ClientCache cache = new Configuration.ClientCache();
+        cache.maxSize = clientCache;
+        client = ClientBuilder.newClient();
+        repo = new ClientRepo(client, botId -> new NoopCrypto(), botId -> state(states, botId), cache,
+                new MetricRegistry());
+        resource = new MessageResource(new MessageHandlerBase() {
+        }, repo);
+
+        Messages.GenericMessage message = Messages.GenericMessage.newBuilder()
+                .setMessageId(UUID.randomUUID().toString())
+                .setText(Messages.Text.newBuilder().setContent("Hello from the benchmark"))
+                .build();
+        json = ("{" +
+                "\"type\":\"conversation.otr-message-add\"," +
+                "\"conversation\":\"" + UUID.randomUUID() + "\"," +
+                "\"from\":\"" + UUID.randomUUID() + "\"," +
+                "\"time\":\"2021-05-04T10:20:30.123Z\"," +
+                "\"data\":{" +
+                "\"sender\":\"4f2a7b3c9d1e6f80\"," +
+                "\"recipient\":\"client\"," +
+                "\"text\":\"" + Base64.getEncoder().encodeToString(message.toByteArray()) + "\"" +
+                "}}").getBytes(StandardCharsets.UTF_8);
+        payload = mapper.readValue(json, Payload.class);
+    }
+
+    @TearDown
+    public void teardown() {
+        client.close();
+    }
+
+    @Benchmark
+    public Payload deserializePayload() throws Exception {
+        return mapper.readValue(json, Payload.class);
+    }
+
+    @Benchmark
+    public UUID getClient() throws Exception {
+        try (WireClient wireClient = repo.getClient(bot())) {
+            return wireClient.getId();
+        }
+    }
+
+    @Benchmark
+    public int newMessage() throws Exception {
+        Response response = resource.newMessage(bot(), UUID.randomUUID(), payload);
+        if (response.getStatus() != 200)
+            throw new IllegalStateException("newMessage: " + response.getStatus() + " " + response.getEntity());
+        return response.getStatus();
+    }
+
+    private UUID bot() {
+        return bots[ThreadLocalRandom.current().nextInt(BOTS)];
+    }
+
+    private static com.wire.xenon.state.State state(Map<UUID, NewBot> states, UUID botId) {
+        return new com.wire.xenon.state.State() {
+            @Override
+            public boolean saveState(NewBot newBot) {
+                states.put(botId, newBot);
+                return true;
+            }
+
+            @Override
+            public NewBot getState() {
+                return states.get(botId);
+            }
+
+            @Override
+            public boolean removeState() {
+                return states.remove(botId) != null;
+            }
+        };
+    }
+}
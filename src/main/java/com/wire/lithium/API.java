@@ -19,6 +19,9 @@
 package com.wire.lithium;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.wire.lithium.models.NewBotResponseModel;
 import com.wire.xenon.Const;
 import com.wire.xenon.WireAPI;
@@ -37,31 +40,41 @@ import org.glassfish.jersey.media.multipart.MultiPart;
 
 import javax.annotation.Nullable;
 import javax.ws.rs.NotSupportedException;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.*;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.logging.Level;
 
 public class API implements WireAPI {
+    private static final ObjectReader DEVICES_READER = new ObjectMapper().readerFor(Devices.class);
+
     private final String wireHost;
 
     private final WebTarget messages;
+    private final WebTarget messagesIgnoreMissing;
+    private final WebTarget messagesReportMissing;
     private final WebTarget assets;
     private final WebTarget client;
     private final WebTarget prekeys;
     private final WebTarget users;
     private final WebTarget conversation;
     private final WebTarget bot;
+    private final WebTarget self;
 
     private final Client httpClient;
-    private final String token;
+    private final String authorization;     // Authorization header value, computed once per bot
 
     public API(Client httpClient, String token) {
         this(httpClient, token, deriveHost());
@@ -69,15 +82,21 @@ public class API implements WireAPI {
 
     public API(Client httpClient, String token, String wireHost) {
         this.httpClient = httpClient;
-        this.token = token;
+        this.authorization = "Bearer " + token;
 
         this.wireHost = wireHost;
 
         bot = httpClient
                 .target(wireHost)
                 .path("bot");
+        self = bot
+                .path("self");
         messages = bot
                 .path("messages");
+        messagesIgnoreMissing = messages
+                .queryParam("ignore_missing", true);
+        messagesReportMissing = messages
+                .queryParam("ignore_missing", false);
         assets = bot
                 .path("assets");
         users = bot
@@ -123,62 +142,60 @@ public class API implements WireAPI {
      */
     @Override
     public Devices sendMessage(OtrMessage msg, Object... ignoreMissing) throws HttpException {
-        Response response = messages
-                .queryParam("ignore_missing", ignoreMissing)
-                .request(MediaType.APPLICATION_JSON)
-                .header(HttpHeaders.AUTHORIZATION, bearer())
-                .post(Entity.entity(msg, MediaType.APPLICATION_JSON));
+        Response response = messages(ignoreMissing)
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.AUTHORIZATION, authorization)
+                .post(Entity.entity(msg, MediaType.APPLICATION_JSON_TYPE));
 
         int statusCode = response.getStatus();
         if (statusCode == 412) {
             // This message was not sent due to missing clients. Parse those missing clients so the caller can add them
-            return response.readEntity(Devices.class);
+            return readDevices(response);
         }
 
         if (statusCode >= 400) {
             throw new HttpException(response.readEntity(String.class), statusCode);
         }
 
-        return response.readEntity(Devices.class);
+        return readDevices(response);
     }
 
     @Override
     public Devices sendPartialMessage(OtrMessage msg, UUID userId) throws HttpException {
         Response response = messages
                 .queryParam("report_missing", userId)
-                .request(MediaType.APPLICATION_JSON)
-                .header(HttpHeaders.AUTHORIZATION, bearer())
-                .post(Entity.entity(msg, MediaType.APPLICATION_JSON));
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.AUTHORIZATION, authorization)
+                .post(Entity.entity(msg, MediaType.APPLICATION_JSON_TYPE));
 
         int statusCode = response.getStatus();
         if (statusCode == 412) {
             // This message was not sent due to missing clients. Parse those missing clients so the caller can add them
-            return response.readEntity(Devices.class);
+            return readDevices(response);
         }
 
         if (statusCode >= 400) {
             throw new HttpException(response.readEntity(String.class), statusCode);
         }
 
-        return response.readEntity(Devices.class);
+        return readDevices(response);
     }
 
     @Override
     public Collection<User> getUsers(Collection<UUID> ids) {
         return users
                 .queryParam("ids", ids.toArray())
-                .request(MediaType.APPLICATION_JSON)
-                .header(HttpHeaders.AUTHORIZATION, bearer())
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.AUTHORIZATION, authorization)
                 .get(new GenericType<ArrayList<User>>() {
                 });
     }
 
     @Override
     public User getSelf() {
-        return bot
-                .path("self")
-                .request(MediaType.APPLICATION_JSON)
-                .header(HttpHeaders.AUTHORIZATION, bearer())
+        return self
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.AUTHORIZATION, authorization)
                 .get(User.class);
     }
 
@@ -186,26 +203,26 @@ public class API implements WireAPI {
     public Conversation getConversation() {
         return conversation
                 .request()
-                .header(HttpHeaders.AUTHORIZATION, bearer())
-                .accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, authorization)
+                .accept(MediaType.APPLICATION_JSON_TYPE)
                 .get(Conversation.class);
     }
 
     @Override
     public PreKeys getPreKeys(Missing missing) {
         return prekeys
-                .request(MediaType.APPLICATION_JSON)
-                .header(HttpHeaders.AUTHORIZATION, bearer())
-                .accept(MediaType.APPLICATION_JSON)
-                .post(Entity.entity(missing, MediaType.APPLICATION_JSON), PreKeys.class);
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.AUTHORIZATION, authorization)
+                .accept(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(missing, MediaType.APPLICATION_JSON_TYPE), PreKeys.class);
     }
 
     @Override
     public ArrayList<Integer> getAvailablePrekeys(@Nullable String clientId) {
         return client
                 .request()
-                .header(HttpHeaders.AUTHORIZATION, bearer())
-                .accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, authorization)
+                .accept(MediaType.APPLICATION_JSON_TYPE)
                 .get(new GenericType<>() {
                 });
     }
@@ -216,10 +233,10 @@ public class API implements WireAPI {
         model.preKeys = preKeys;
 
         Response res = client
-                .request(MediaType.APPLICATION_JSON)
-                .header(HttpHeaders.AUTHORIZATION, bearer())
-                .accept(MediaType.APPLICATION_JSON)
-                .post(Entity.entity(model, MediaType.APPLICATION_JSON));
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.AUTHORIZATION, authorization)
+                .accept(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(model, MediaType.APPLICATION_JSON_TYPE));
 
         int statusCode = res.getStatus();
         if (statusCode >= 400) {
@@ -229,42 +246,37 @@ public class API implements WireAPI {
 
     @Override
     public AssetKey uploadAsset(IAsset asset) throws Exception {
-        StringBuilder sb = new StringBuilder();
-
-        // Part 1
-        String strMetadata = String.format("{\"public\": %s, \"retention\": \"%s\"}",
+        final byte[] data = asset.getEncryptedData();
+        return uploadAsset(asset.getMimeType(),
                 asset.isPublic(),
-                asset.getRetention());
-        sb.append("--frontier\r\n");
-        sb.append("Content-Type: application/json; charset=utf-8\r\n");
-        sb.append("Content-Length: ")
-                .append(strMetadata.length())
-                .append("\r\n\r\n");
-        sb.append(strMetadata)
-                .append("\r\n");
-
-        // Part 2
-        sb.append("--frontier\r\n");
-        sb.append("Content-Type: ")
-                .append(asset.getMimeType())
-                .append("\r\n");
-        sb.append("Content-Length: ")
-                .append(asset.getEncryptedData().length)
-                .append("\r\n");
-        sb.append("Content-MD5: ")
-                .append(Util.calcMd5(asset.getEncryptedData()))
-                .append("\r\n\r\n");
-
-        // Complete
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        os.write(sb.toString().getBytes(StandardCharsets.UTF_8));
-        os.write(asset.getEncryptedData());
-        os.write("\r\n--frontier--\r\n".getBytes(StandardCharsets.UTF_8));
+                asset.getRetention(),
+                data.length,
+                Util.calcMd5(data),
+                new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Uploads already encrypted asset. The data is streamed from the source to the backend and never buffered
+     * as a whole, so the memory used does not depend on the size of the asset.
+     *
+     * @param mimeType  Mime type of the asset
+     * @param isPublic  Public asset
+     * @param retention Retention: `eternal`, `persistent`, `volatile`...
+     * @param length    Length of the encrypted data
+     * @param md5       Base64 encoded MD5 of the encrypted data
+     * @param data      Encrypted data. The stream is closed after the upload
+     * @return Asset key and token
+     * @throws HttpException Http Exception is thrown when status {@literal >}= 400
+     */
+    public AssetKey uploadAsset(String mimeType, boolean isPublic, String retention, long length, String md5, InputStream data)
+            throws HttpException {
+        MultipartAsset multipart = new MultipartAsset(mimeType, isPublic, retention, length, md5, data);
 
         Response response = assets
                 .request(MediaType.APPLICATION_JSON_TYPE)
-                .header(HttpHeaders.AUTHORIZATION, bearer())
-                .post(Entity.entity(os.toByteArray(), "multipart/mixed; boundary=frontier"));
+                .property(StreamingApacheConnector.CONTENT_LENGTH, multipart.getContentLength())
+                .header(HttpHeaders.AUTHORIZATION, authorization)
+                .post(Entity.entity(multipart, MultipartAsset.MEDIA_TYPE));
 
         if (response.getStatus() >= 400) {
             throw new HttpException(response.readEntity(String.class), response.getStatus());
@@ -292,11 +304,76 @@ public class API implements WireAPI {
 
     @Override
     public byte[] downloadAsset(String assetKey, String assetToken) throws HttpException {
+        Response response = openAsset(assetKey, assetToken);
+        return response.readEntity(byte[].class);
+    }
+
+    /**
+     * Downloads the asset and writes it into the output as it arrives. The asset is not decrypted
+     *
+     * @param assetKey   Asset key
+     * @param assetToken Asset token, can be null
+     * @param output     Where the cipher text is written to
+     * @throws HttpException Http Exception is thrown when status {@literal >}= 400
+     * @throws IOException   When writing fails
+     */
+    public void downloadAsset(String assetKey, String assetToken, OutputStream output) throws HttpException, IOException {
+        Response response = openAsset(assetKey, assetToken);
+        try (InputStream input = response.readEntity(InputStream.class)) {
+            input.transferTo(output);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Downloads the asset and decrypts it on the fly. Memory used does not depend on the size of the asset.
+     * SHA-256 can only be verified once the whole asset has been read: when this method throws
+     * the content written to {@code output} must be discarded.
+     *
+     * @param assetKey        Asset key
+     * @param assetToken      Asset token, can be null
+     * @param sha256Challenge Expected SHA-256 of the cipher text
+     * @param otrKey          Asset key used to decrypt
+     * @param output          Where the plain text is written to
+     * @throws Exception when download or decryption fails or sha256 does not match
+     */
+    public void downloadAsset(String assetKey, String assetToken, byte[] sha256Challenge, byte[] otrKey, OutputStream output)
+            throws Exception {
+        Response response = openAsset(assetKey, assetToken);
+        try (InputStream input = response.readEntity(InputStream.class)) {
+            AssetCrypto.decrypt(input, otrKey, sha256Challenge, output);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Downloads and decrypts the asset straight into the file. The file is deleted if the download fails
+     *
+     * @param assetKey        Asset key
+     * @param assetToken      Asset token, can be null
+     * @param sha256Challenge Expected SHA-256 of the cipher text
+     * @param otrKey          Asset key used to decrypt
+     * @param destination     File the plain text is written to
+     * @throws Exception when download or decryption fails or sha256 does not match
+     */
+    public void downloadAsset(String assetKey, String assetToken, byte[] sha256Challenge, byte[] otrKey, Path destination)
+            throws Exception {
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(destination), AssetCrypto.BUFFER_SIZE)) {
+            downloadAsset(assetKey, assetToken, sha256Challenge, otrKey, output);
+        } catch (Exception e) {
+            Files.deleteIfExists(destination);
+            throw e;
+        }
+    }
+
+    private Response openAsset(String assetKey, String assetToken) throws HttpException {
         Invocation.Builder req = assets
                 .path(assetKey)
                 .request()
                 .property(ClientProperties.FOLLOW_REDIRECTS, Boolean.FALSE)
-                .header(HttpHeaders.AUTHORIZATION, bearer());
+                .header(HttpHeaders.AUTHORIZATION, authorization);
 
         if (assetToken != null)
             req.header("Asset-Token", assetToken);
@@ -319,7 +396,7 @@ public class API implements WireAPI {
             throw new HttpException(response.readEntity(String.class), response.getStatus());
         }
 
-        return response.readEntity(byte[].class);
+        return response;
     }
 
     @Override
@@ -385,8 +462,26 @@ public class API implements WireAPI {
         throw new NotSupportedException();
     }
 
-    private String bearer() {
-        return String.format("Bearer %s", token);
+    // parser is closed so Jackson recycles its read buffer, the JAX-RS provider allocates a new one for every response
+    @Nullable
+    private static Devices readDevices(Response response) {
+        try (InputStream input = response.readEntity(InputStream.class);
+             JsonParser parser = DEVICES_READER.createParser(input)) {
+            return parser.nextToken() != null ? DEVICES_READER.readValue(parser) : null;
+        } catch (IOException e) {
+            throw new ProcessingException(e);
+        }
+    }
+
+    // the backend is called with ignore_missing true or false on every send: those targets are built once
+    private WebTarget messages(Object... ignoreMissing) {
+        if (ignoreMissing.length == 0)
+            return messages;
+        if (ignoreMissing.length == 1 && Boolean.TRUE.equals(ignoreMissing[0]))
+            return messagesIgnoreMissing;
+        if (ignoreMissing.length == 1 && Boolean.FALSE.equals(ignoreMissing[0]))
+            return messagesReportMissing;
+        return messages.queryParam("ignore_missing", ignoreMissing);
     }
 
     public static class MetaData {
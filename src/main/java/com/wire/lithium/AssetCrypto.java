@@ -0,0 +1,147 @@
+package com.wire.lithium;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.security.DigestInputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Chunked variant of the asset encryption used by Wire: AES-256-CBC with PKCS5 padding and the IV prepended
+ * to the cipher text. Works on streams so assets never have to be held in memory as a whole.
+ */
+class AssetCrypto {
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final int IV_SIZE = 16;
+    private static final int KEY_SIZE = 32;
+    private static final SecureRandom random = new SecureRandom();
+
+    static byte[] newKey() {
+        byte[] key = new byte[KEY_SIZE];
+        random.nextBytes(key);
+        return key;
+    }
+
+    static byte[] newIv() {
+        byte[] iv = new byte[IV_SIZE];
+        random.nextBytes(iv);
+        return iv;
+    }
+
+    /**
+     * Encrypts the asset chunk by chunk, computing the digests of the cipher text in the same pass.
+     * Encryption is deterministic for the same key and IV, so the output can be discarded and the cipher text
+     * reproduced later with {@link #encrypting(InputStream, byte[], byte[])}.
+     *
+     * @param input  Plain text
+     * @param otrKey Asset key
+     * @param iv     Initialization vector
+     * @param output Cipher text: IV followed by the encrypted data
+     * @return Lengths and digests of the cipher text
+     */
+    static Digest encrypt(InputStream input, byte[] otrKey, byte[] iv, OutputStream output) throws IOException, GeneralSecurityException {
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        Cipher cipher = cipher(otrKey, iv);
+
+        output.write(iv);
+        sha256.update(iv);
+        md5.update(iv);
+        long length = iv.length;
+        long plainLength = 0;
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] encrypted = new byte[cipher.getOutputSize(BUFFER_SIZE)];
+        int read;
+        int len;
+        while ((read = input.read(buffer)) != -1) {
+            plainLength += read;
+            len = cipher.update(buffer, 0, read, encrypted);
+            output.write(encrypted, 0, len);
+            sha256.update(encrypted, 0, len);
+            md5.update(encrypted, 0, len);
+            length += len;
+        }
+
+        len = cipher.doFinal(encrypted, 0);
+        output.write(encrypted, 0, len);
+        sha256.update(encrypted, 0, len);
+        md5.update(encrypted, 0, len);
+        length += len;
+
+        return new Digest(plainLength, length, sha256.digest(), Base64.getEncoder().encodeToString(md5.digest()));
+    }
+
+    /**
+     * @param input  Plain text. Closed when the returned stream is closed
+     * @param otrKey Asset key
+     * @param iv     Initialization vector
+     * @return Cipher text, IV followed by the encrypted data, produced while it is being read
+     */
+    static InputStream encrypting(InputStream input, byte[] otrKey, byte[] iv) throws GeneralSecurityException {
+        return new SequenceInputStream(new ByteArrayInputStream(iv), new CipherInputStream(input, cipher(otrKey, iv)));
+    }
+
+    /**
+     * Decrypts the asset while it is being read and checks its SHA-256 once the whole cipher text has been read.
+     * Plain text is written to {@code output} before the check completes: discard it when this method throws.
+     *
+     * @param input  Cipher text: IV followed by the encrypted data
+     * @param otrKey Asset key
+     * @param sha256 Expected SHA-256 of the cipher text
+     * @param output Plain text
+     */
+    static void decrypt(InputStream input, byte[] otrKey, byte[] sha256, OutputStream output) throws IOException, GeneralSecurityException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        DigestInputStream cipherText = new DigestInputStream(input, digest);
+
+        byte[] iv = cipherText.readNBytes(IV_SIZE);
+        if (iv.length != IV_SIZE)
+            throw new IOException("Asset is too short");
+
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(otrKey, "AES"), new IvParameterSpec(iv));
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] plain = new byte[cipher.getOutputSize(BUFFER_SIZE)];
+        int read;
+        while ((read = cipherText.read(buffer)) != -1) {
+            int len = cipher.update(buffer, 0, read, plain);
+            output.write(plain, 0, len);
+        }
+
+        if (!MessageDigest.isEqual(digest.digest(), sha256))
+            throw new IOException("Failed sha256 check");
+
+        output.write(cipher.doFinal());
+    }
+
+    private static Cipher cipher(byte[] otrKey, byte[] iv) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(otrKey, "AES"), new IvParameterSpec(iv));
+        return cipher;
+    }
+
+    static class Digest {
+        final long plainLength;
+        final long length;
+        final byte[] sha256;
+        final String md5;
+
+        Digest(long plainLength, long length, byte[] sha256, String md5) {
+            this.plainLength = plainLength;
+            this.length = length;
+            this.sha256 = sha256;
+            this.md5 = md5;
+        }
+    }
+}
@@ -24,18 +24,90 @@ import com.wire.xenon.assets.*;
 import com.wire.xenon.backend.models.NewBot;
 import com.wire.xenon.crypto.Crypto;
 import com.wire.xenon.models.AssetKey;
+import com.wire.xenon.tools.Logger;
 import com.wire.xenon.tools.Util;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
 
 /**
  *
  */
 public class BotClient extends WireClientBase {
+    private final KnownDevices knownDevices;
+    private final MessageSender sender;
+
+    // pipelined sends still using the crypto box, which is closed once the last one completes
+    private int pendingSends;
+    private boolean closeRequested;
 
     public BotClient(WireAPI api, Crypto crypto, NewBot state) {
+        this(api, crypto, state, new KnownDevices(), MessageSender.shared());
+    }
+
+    /**
+     * @param knownDevices Conversation devices, shared by the clients of this bot
+     * @param sender       Send engine
+     */
+    public BotClient(WireAPI api, Crypto crypto, NewBot state, KnownDevices knownDevices, MessageSender sender) {
         super(api, crypto, state);
+        this.knownDevices = knownDevices;
+        this.sender = sender;
+    }
+
+    /**
+     * Creates sessions with the devices of users that joined the conversation
+     *
+     * @param userIds New members
+     * @return Number of sessions created
+     * @throws Exception when prekeys could not be fetched or used
+     */
+    public int warmUpSessions(Collection<UUID> userIds) throws Exception {
+        return sender.warmUp(api, crypto, getDeviceId(), knownDevices, userIds);
+    }
+
+    /**
+     * @param userIds Users that left the conversation
+     */
+    public void forgetDevices(Collection<UUID> userIds) {
+        knownDevices.remove(userIds);
+    }
+
+    /**
+     * Closes the crypto box. When pipelined sends are still running, it is closed once the last of them completes
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closeRequested = true;
+            if (pendingSends > 0)
+                return;
+        }
+        super.close();
+    }
+
+    @Override
+    protected void postGenericMessage(IGeneric generic) throws Exception {
+        sender.send(api, crypto, getDeviceId(), knownDevices, generic.createGenericMsg().toByteArray(), null);
+    }
+
+    @Override
+    protected void postGenericMessage(IGeneric generic, UUID userId) throws Exception {
+        sender.send(api, crypto, getDeviceId(), knownDevices, generic.createGenericMsg().toByteArray(), userId);
     }
 
     public UUID sendTextWithMention(String txt, UUID mentionUserId) throws Exception {
@@ -108,4 +180,346 @@ public class BotClient extends WireClientBase {
         return asset.getMessageId();
     }
 
+    /**
+     * Sends the image without loading it into memory. Only the image header is read to get its dimensions.
+     *
+     * @param file     Image
+     * @param mimeType Mime type of the image
+     * @return Message ID
+     * @throws Exception when the image cannot be read, or the upload or the message fails
+     */
+    public UUID sendPicture(Path file, String mimeType) throws Exception {
+        Picture image = new Picture(UUID.randomUUID(), mimeType);
+        readDimensions(file, image);
+
+        try (EncryptedAsset encrypted = EncryptedAsset.fromFile(file)) {
+            image.setSize((int) encrypted.digest.plainLength);
+            setRemoteData(image, encrypted, uploadAsset(encrypted, mimeType));
+        }
+
+        postGenericMessage(image);
+        return image.getMessageId();
+    }
+
+    /**
+     * Sends the audio file, encrypted in chunks and streamed to the backend
+     *
+     * @param file     Audio file
+     * @param name     File name shown to the recipients
+     * @param mimeType Mime type
+     * @param duration Duration in milliseconds
+     * @return Message ID
+     * @throws Exception when the file cannot be read, or the upload or the message fails
+     */
+    public UUID sendAudio(Path file, String name, String mimeType, long duration) throws Exception {
+        try (EncryptedAsset encrypted = EncryptedAsset.fromFile(file)) {
+            return sendAudio(encrypted, name, mimeType, duration);
+        }
+    }
+
+    /**
+     * Same as {@link #sendAudio(Path, String, String, long)}. The encrypted data is spooled into a temp file first
+     *
+     * @param data Audio. Not closed by this method
+     */
+    public UUID sendAudio(InputStream data, String name, String mimeType, long duration) throws Exception {
+        try (EncryptedAsset encrypted = EncryptedAsset.fromStream(data)) {
+            return sendAudio(encrypted, name, mimeType, duration);
+        }
+    }
+
+    /**
+     * Sends the video file, encrypted in chunks and streamed to the backend
+     *
+     * @param file     Video file
+     * @param name     File name shown to the recipients
+     * @param mimeType Mime type
+     * @param duration Duration in milliseconds
+     * @param h        Height
+     * @param w        Width
+     * @return Message ID
+     * @throws Exception when the file cannot be read, or the upload or the message fails
+     */
+    public UUID sendVideo(Path file, String name, String mimeType, long duration, int h, int w) throws Exception {
+        try (EncryptedAsset encrypted = EncryptedAsset.fromFile(file)) {
+            return sendVideo(encrypted, name, mimeType, duration, h, w);
+        }
+    }
+
+    /**
+     * Same as {@link #sendVideo(Path, String, String, long, int, int)}. The encrypted data is spooled into a temp file first
+     *
+     * @param data Video. Not closed by this method
+     */
+    public UUID sendVideo(InputStream data, String name, String mimeType, long duration, int h, int w) throws Exception {
+        try (EncryptedAsset encrypted = EncryptedAsset.fromStream(data)) {
+            return sendVideo(encrypted, name, mimeType, duration, h, w);
+        }
+    }
+
+    /**
+     * Sends the file, encrypted in chunks and streamed to the backend
+     *
+     * @param file File
+     * @param mime Mime type
+     * @return Message ID
+     * @throws Exception when the file cannot be read, or the upload or the message fails
+     */
+    public UUID sendFile(Path file, String mime) throws Exception {
+        try (EncryptedAsset encrypted = EncryptedAsset.fromFile(file)) {
+            return sendFile(encrypted, file.getFileName().toString(), mime);
+        }
+    }
+
+    /**
+     * Same as {@link #sendFile(Path, String)}. The encrypted data is spooled into a temp file first
+     *
+     * @param data File content. Not closed by this method
+     * @param name File name shown to the recipients
+     */
+    public UUID sendFile(InputStream data, String name, String mime) throws Exception {
+        try (EncryptedAsset encrypted = EncryptedAsset.fromStream(data)) {
+            return sendFile(encrypted, name, mime);
+        }
+    }
+
+    /**
+     * Pipelined variant of {@link #sendAudio(Path, String, String, long)}: the file is encrypted and uploaded while
+     * the preview message is being sent. The remote asset message is sent once both are done.
+     * Closing this client before the returned future completes keeps the crypto box open until it does.
+     *
+     * @param executor Executor running the preview, the upload and the remote asset message
+     * @return Message ID, once the remote asset message is sent
+     */
+    public CompletableFuture<UUID> sendAudioAsync(Path file, String name, String mimeType, long duration, Executor executor)
+            throws IOException {
+        AudioPreview preview = new AudioPreview(name, mimeType, duration, (int) Files.size(file));
+        return sendPipelined(preview, file, mimeType, (encrypted, assetKey) -> {
+            AudioAsset asset = new AudioAsset(preview.getMessageId(), mimeType);
+            setRemoteData(asset, encrypted, assetKey);
+            return asset;
+        }, executor);
+    }
+
+    /**
+     * Pipelined variant of {@link #sendVideo(Path, String, String, long, int, int)}.
+     * See {@link #sendAudioAsync(Path, String, String, long, Executor)}
+     */
+    public CompletableFuture<UUID> sendVideoAsync(Path file, String name, String mimeType, long duration, int h, int w,
+                                                  Executor executor) throws IOException {
+        UUID messageId = UUID.randomUUID();
+        VideoPreview preview = new VideoPreview(name, mimeType, duration, h, w, (int) Files.size(file), messageId);
+        return sendPipelined(preview, file, mimeType, (encrypted, assetKey) -> remoteAsset(encrypted, assetKey, messageId),
+                executor);
+    }
+
+    /**
+     * Pipelined variant of {@link #sendFile(Path, String)}.
+     * See {@link #sendAudioAsync(Path, String, String, long, Executor)}
+     */
+    public CompletableFuture<UUID> sendFileAsync(Path file, String mime, Executor executor) throws IOException {
+        UUID messageId = UUID.randomUUID();
+        FileAssetPreview preview = new FileAssetPreview(file.getFileName().toString(), mime, Files.size(file), messageId);
+        return sendPipelined(preview, file, mime, (encrypted, assetKey) -> remoteAsset(encrypted, assetKey, messageId),
+                executor);
+    }
+
+    /**
+     * Downloads and decrypts the asset into the output without holding the whole asset in memory
+     *
+     * @param assetKey        Asset key
+     * @param assetToken      Asset token, can be null
+     * @param sha256Challenge Expected SHA-256 of the cipher text
+     * @param otrKey          Asset key used to decrypt
+     * @param output          Plain text. Must be discarded if this method throws
+     * @throws Exception when download or decryption fails or sha256 does not match
+     */
+    public void downloadAsset(String assetKey, String assetToken, byte[] sha256Challenge, byte[] otrKey, OutputStream output)
+            throws Exception {
+        if (api instanceof API) {
+            ((API) api).downloadAsset(assetKey, assetToken, sha256Challenge, otrKey, output);
+            return;
+        }
+
+        output.write(downloadAsset(assetKey, assetToken, sha256Challenge, otrKey));
+    }
+
+    /**
+     * Downloads and decrypts the asset into the file without holding the whole asset in memory
+     *
+     * @param assetKey        Asset key
+     * @param assetToken      Asset token, can be null
+     * @param sha256Challenge Expected SHA-256 of the cipher text
+     * @param otrKey          Asset key used to decrypt
+     * @param destination     File the plain text is written to. Deleted if the download fails
+     * @throws Exception when download or decryption fails or sha256 does not match
+     */
+    public void downloadAsset(String assetKey, String assetToken, byte[] sha256Challenge, byte[] otrKey, Path destination)
+            throws Exception {
+        if (api instanceof API) {
+            ((API) api).downloadAsset(assetKey, assetToken, sha256Challenge, otrKey, destination);
+            return;
+        }
+
+        Files.write(destination, downloadAsset(assetKey, assetToken, sha256Challenge, otrKey));
+    }
+
+    private UUID sendAudio(EncryptedAsset encrypted, String name, String mimeType, long duration) throws Exception {
+        AudioPreview preview = new AudioPreview(name, mimeType, duration, (int) encrypted.digest.plainLength);
+        AudioAsset asset = new AudioAsset(preview.getMessageId(), mimeType);
+
+        postGenericMessage(preview);
+
+        setRemoteData(asset, encrypted, uploadAsset(encrypted, mimeType));
+
+        // post original + remote asset message
+        postGenericMessage(asset);
+        return asset.getMessageId();
+    }
+
+    private UUID sendVideo(EncryptedAsset encrypted, String name, String mimeType, long duration, int h, int w)
+            throws Exception {
+        UUID messageId = UUID.randomUUID();
+        VideoPreview preview = new VideoPreview(name, mimeType, duration, h, w, (int) encrypted.digest.plainLength, messageId);
+
+        postGenericMessage(preview);
+
+        FileAsset asset = remoteAsset(encrypted, uploadAsset(encrypted, mimeType), messageId);
+
+        // post original + remote asset message
+        postGenericMessage(asset);
+        return asset.getMessageId();
+    }
+
+    private UUID sendFile(EncryptedAsset encrypted, String name, String mime) throws Exception {
+        UUID messageId = UUID.randomUUID();
+        FileAssetPreview preview = new FileAssetPreview(name, mime, encrypted.digest.plainLength, messageId);
+
+        // post original
+        postGenericMessage(preview);
+
+        // upload asset to backend
+        FileAsset asset = remoteAsset(encrypted, uploadAsset(encrypted, mime), messageId);
+
+        // post remote asset message
+        postGenericMessage(asset);
+        return asset.getMessageId();
+    }
+
+    private CompletableFuture<UUID> sendPipelined(IGeneric preview, Path file, String mimeType,
+                                                  BiFunction<EncryptedAsset, AssetKey, IGeneric> remote,
+                                                  Executor executor) {
+        synchronized (this) {
+            if (closeRequested)
+                throw new IllegalStateException("Client is closed");
+            pendingSends++;
+        }
+
+        CompletableFuture<Void> previewSent = CompletableFuture.runAsync(() -> post(preview), executor);
+
+        CompletableFuture<IGeneric> uploaded = CompletableFuture.supplyAsync(() -> {
+            try (EncryptedAsset encrypted = EncryptedAsset.fromFile(file)) {
+                return remote.apply(encrypted, uploadAsset(encrypted, mimeType));
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+
+        // the remote asset message must not overtake the preview
+        CompletableFuture<UUID> ret = previewSent
+                .thenCombine(uploaded, (sent, asset) -> asset)
+                .thenApplyAsync(asset -> {
+                    post(asset);
+                    return asset.getMessageId();
+                }, executor);
+        // the preview may still be in flight when the upload fails
+        CompletableFuture.allOf(previewSent, uploaded, ret).whenComplete((v, e) -> sendFinished());
+        return ret;
+    }
+
+    private void sendFinished() {
+        synchronized (this) {
+            if (--pendingSends > 0 || !closeRequested)
+                return;
+        }
+        try {
+            super.close();
+        } catch (IOException e) {
+            Logger.exception("BotClient: failed to close crypto box: %s", e, e.getMessage());
+        }
+    }
+
+    private void post(IGeneric generic) {
+        try {
+            postGenericMessage(generic);
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    // VideoAsset can only be built from bytes, FileAsset produces the same remote asset message
+    private static FileAsset remoteAsset(EncryptedAsset encrypted, AssetKey assetKey, UUID messageId) {
+        return new FileAsset(assetKey.id, assetKey.token, encrypted.digest.sha256, encrypted.otrKey, messageId);
+    }
+
+    private AssetKey uploadAsset(EncryptedAsset encrypted, String mimeType) throws Exception {
+        if (api instanceof API) {
+            return ((API) api).uploadAsset(mimeType,
+                    false,
+                    "persistent",
+                    encrypted.digest.length,
+                    encrypted.digest.md5,
+                    encrypted.openCipherText());
+        }
+
+        final byte[] data;
+        try (InputStream input = encrypted.openCipherText()) {
+            data = input.readAllBytes();
+        }
+        return api.uploadAsset(new IAsset() {
+            @Override
+            public String getMimeType() {
+                return mimeType;
+            }
+
+            @Override
+            public String getRetention() {
+                return "persistent";
+            }
+
+            @Override
+            public byte[] getEncryptedData() {
+                return data;
+            }
+
+            @Override
+            public boolean isPublic() {
+                return false;
+            }
+        });
+    }
+
+    private static void setRemoteData(AssetBase asset, EncryptedAsset encrypted, AssetKey assetKey) {
+        asset.setOtrKey(encrypted.otrKey);
+        asset.setSha256(encrypted.digest.sha256);
+        asset.setAssetKey(assetKey.id);
+        asset.setAssetToken(assetKey.token);
+    }
+
+    private static void readDimensions(Path file, Picture image) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext())
+                throw new IOException("Unsupported image: " + file);
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                image.setWidth(reader.getWidth(0));
+                image.setHeight(reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
 }
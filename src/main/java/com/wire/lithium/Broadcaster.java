@@ -0,0 +1,171 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.assets.IGeneric;
+import com.wire.xenon.tools.Logger;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the same message into many bot conversations with bounded concurrency.
+ * All sends share the http client of the {@link ClientRepo} so connections to the backend are reused.
+ */
+public class Broadcaster {
+    private final ClientRepo repo;
+    private final Executor executor;
+    private final int concurrency;
+
+    private final Timer sends;
+    private final Meter errors;
+
+    /**
+     * @param repo        Client repo
+     * @param executor    Executor running the sends. Should have at least {@code concurrency} threads
+     * @param concurrency Max number of conversations being sent to at the same time
+     * @param metrics     Registry where send times and errors are reported
+     */
+    public Broadcaster(ClientRepo repo, Executor executor, int concurrency, MetricRegistry metrics) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("concurrency must be at least 1");
+
+        this.repo = repo;
+        this.executor = executor;
+        this.concurrency = concurrency;
+
+        sends = metrics.timer("broadcast.sends");
+        errors = metrics.meter("broadcast.errors");
+    }
+
+    /**
+     * Sends the message to every bot's conversation and waits until all sends have completed
+     *
+     * @param message Message to send. The same message (and message id) is sent into every conversation
+     * @param botIds  Bots whose conversations receive the message
+     * @return Result per bot, in the same order as botIds
+     * @throws InterruptedException when interrupted while waiting. Sends already started keep running
+     */
+    public Report broadcast(IGeneric message, Collection<UUID> botIds) throws InterruptedException {
+        final long start = System.nanoTime();
+        final Semaphore permits = new Semaphore(concurrency);
+        final List<Result> results = new ArrayList<>(botIds.size());
+
+        for (UUID botId : botIds) {
+            final Result result = new Result(botId);
+            results.add(result);
+
+            permits.acquire();
+            try {
+                executor.execute(() -> {
+                    try {
+                        send(message, result);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                fail(result, e);
+            }
+        }
+
+        // all permits are back once the last send is done
+        permits.acquire(concurrency);
+        permits.release(concurrency);
+
+        return new Report(results, System.nanoTime() - start);
+    }
+
+    private void send(IGeneric message, Result result) {
+        final long start = System.nanoTime();
+        try (WireClient client = repo.getClient(result.botId)) {
+            result.conversationId = client.getConversationId();
+            client.send(message);
+        } catch (Exception e) {
+            fail(result, e);
+        } finally {
+            result.duration = System.nanoTime() - start;
+            sends.update(result.duration, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void fail(Result result, Exception e) {
+        errors.mark();
+        result.error = e;
+        Logger.warning("Broadcaster: bot: %s, conv: %s, error: %s", result.botId, result.conversationId, e);
+    }
+
+    public static class Result {
+        public final UUID botId;
+        @Nullable
+        volatile UUID conversationId;
+        @Nullable
+        volatile Exception error;
+        volatile long duration;
+
+        Result(UUID botId) {
+            this.botId = botId;
+        }
+
+        /**
+         * @return Conversation of this bot. Null if its state could not be loaded
+         */
+        @Nullable
+        public UUID getConversationId() {
+            return conversationId;
+        }
+
+        /**
+         * @return Null if the message was delivered
+         */
+        @Nullable
+        public Exception getError() {
+            return error;
+        }
+
+        public boolean isDelivered() {
+            return error == null;
+        }
+
+        public long getDuration(TimeUnit unit) {
+            return unit.convert(duration, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public static class Report {
+        private final List<Result> results;
+        private final long elapsed;
+
+        Report(List<Result> results, long elapsed) {
+            this.results = Collections.unmodifiableList(results);
+            this.elapsed = elapsed;
+        }
+
+        public List<Result> getResults() {
+            return results;
+        }
+
+        public int getDelivered() {
+            return (int) results.stream().filter(Result::isDelivered).count();
+        }
+
+        public int getFailed() {
+            return results.size() - getDelivered();
+        }
+
+        public long getElapsed(TimeUnit unit) {
+            return unit.convert(elapsed, TimeUnit.NANOSECONDS);
+        }
+    }
+}
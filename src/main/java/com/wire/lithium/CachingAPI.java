@@ -0,0 +1,48 @@
+package com.wire.lithium;
+
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.User;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.client.Client;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * {@link API} that answers conversation and user lookups from the {@link ConversationCache} and gathers the
+ * remaining user lookups with the {@link UserResolver}
+ */
+class CachingAPI extends API {
+    private final UUID botId;
+    @Nullable
+    private final ConversationCache cache;
+    @Nullable
+    private final UserResolver resolver;
+
+    CachingAPI(Client httpClient, String token, UUID botId, @Nullable ConversationCache cache, @Nullable UserResolver resolver) {
+        super(httpClient, token);
+        this.botId = botId;
+        this.cache = cache;
+        this.resolver = resolver;
+    }
+
+    @Override
+    public Conversation getConversation() {
+        if (cache == null)
+            return super.getConversation();
+        return cache.getConversation(botId, super::getConversation);
+    }
+
+    @Override
+    public Collection<User> getUsers(Collection<UUID> ids) {
+        if (cache == null)
+            return fetchUsers(ids);
+        return cache.getUsers(botId, ids, this::fetchUsers);
+    }
+
+    private Collection<User> fetchUsers(Collection<UUID> ids) {
+        if (resolver == null)
+            return super.getUsers(ids);
+        return resolver.getUsers(botId, ids, super::getUsers);
+    }
+}
@@ -1,5 +1,9 @@
 package com.wire.lithium;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.wire.bots.cryptobox.CryptoException;
 import com.wire.xenon.WireAPI;
 import com.wire.xenon.WireClient;
@@ -9,38 +13,149 @@ import com.wire.xenon.factories.CryptoFactory;
 import com.wire.xenon.factories.StorageFactory;
 import com.wire.xenon.state.State;
 
+import javax.annotation.Nullable;
 import javax.ws.rs.client.Client;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public class ClientRepo {
     protected final Client httpClient;
     protected final CryptoFactory cf;
     protected final StorageFactory sf;
 
+    @Nullable
+    private final Cache<UUID, Entry> clients;
+    private final MessageSender sender;
+    @Nullable
+    private final ConversationCache conversations;
+    @Nullable
+    private final UserResolver resolver;
+
     public ClientRepo(Client httpClient, CryptoFactory cf, StorageFactory sf) {
         this.httpClient = httpClient;
         this.cf = cf;
         this.sf = sf;
+        this.clients = null;
+        this.sender = MessageSender.shared();
+        this.conversations = null;
+        this.resolver = null;
+    }
+
+    public ClientRepo(Client httpClient, CryptoFactory cf, StorageFactory sf, Configuration.ClientCache cache, MetricRegistry metrics) {
+        this(httpClient, cf, sf, cache, new Configuration.ApiCache(), metrics);
+    }
+
+    /**
+     * Creates the repo that keeps bot's state and its API object in memory so they are not rebuilt on every event.
+     * Crypto box is never cached: it is opened for every client and closed together with it.
+     * Known conversation devices are kept with the state, so sends do not ask the backend for them every time.
+     * Conversations and users fetched by the bots are cached until they expire or {@link #invalidateConversation}.
+     * User lookups that miss the cache can be gathered into fewer backend calls.
+     *
+     * @param httpClient Jersey client
+     * @param cf         Crypto factory
+     * @param sf         Storage factory
+     * @param cache      Cache limits
+     * @param apiCache   Conversation and user cache limits, user lookup batching
+     * @param metrics    Registry where cache hits, misses, evictions and send rounds are reported. A repo sharing it
+     *                   with another one reports through the gauges of the first
+     */
+    public ClientRepo(Client httpClient, CryptoFactory cf, StorageFactory sf, Configuration.ClientCache cache,
+                      Configuration.ApiCache apiCache, MetricRegistry metrics) {
+        this.httpClient = httpClient;
+        this.cf = cf;
+        this.sf = sf;
+        this.sender = new MessageSender(metrics);
+        this.conversations = ConversationCache.isEnabled(apiCache) ? new ConversationCache(apiCache, metrics) : null;
+        this.resolver = apiCache.coalesceUsers
+                ? new UserResolver(apiCache.coalesceWindow.toNanoseconds(), apiCache.coalesceMaxBatch, metrics)
+                : null;
+
+        if (cache.maxSize == 0) {
+            this.clients = null;
+            return;
+        }
+
+        this.clients = Caffeine.newBuilder()
+                .maximumSize(cache.maxSize)
+                .expireAfterAccess(cache.expireAfterAccess.toNanoseconds(), TimeUnit.NANOSECONDS)
+                .recordStats()
+                .build();
+
+        metrics.gauge("clients.cache.size", () -> (Gauge<Long>) clients::estimatedSize);
+        metrics.gauge("clients.cache.hits", () -> (Gauge<Long>) () -> clients.stats().hitCount());
+        metrics.gauge("clients.cache.misses", () -> (Gauge<Long>) () -> clients.stats().missCount());
+        metrics.gauge("clients.cache.evictions", () -> (Gauge<Long>) () -> clients.stats().evictionCount());
     }
 
     public WireClient getClient(UUID botId) throws IOException, CryptoException {
-        NewBot state = sf.create(botId).getState();
+        Entry entry = getEntry(botId);
         Crypto crypto = cf.create(botId);
-        WireAPI api = new API(httpClient, state.token);
-        return new BotClient(api, crypto, state);
+        return new BotClient(entry.api, crypto, entry.state, entry.devices, sender);
+    }
+
+    /**
+     * @param botId Bot ID
+     * @return State of the bot, from the cache when it is there
+     * @throws IOException when the bot has no state or it could not be read
+     */
+    public NewBot getState(UUID botId) throws IOException {
+        return getEntry(botId).state;
     }
 
     public void purgeBot(UUID botId) throws IOException {
+        invalidate(botId);
+
         State state = sf.create(botId);
         if (state == null)
             return;
 
-        boolean purged = state.removeState();
+        boolean purged;
+        try {
+            purged = state.removeState();
+        } finally {
+            // a getClient racing with the removal may have cached it again
+            invalidate(botId);
+        }
         if (!purged)
             throw new IOException("Failed to purge Bot: " + botId);
     }
 
+    /**
+     * Drops cached state, API, conversation and users for this bot. Next call to {@link #getClient(UUID)} reloads
+     * them
+     *
+     * @param botId Bot ID
+     */
+    public void invalidate(UUID botId) {
+        if (clients != null)
+            clients.invalidate(botId);
+        if (conversations != null)
+            conversations.invalidateBot(botId);
+    }
+
+    /**
+     * Drops cached state and API of every bot
+     */
+    public void invalidateAll() {
+        if (clients != null)
+            clients.invalidateAll();
+    }
+
+    /**
+     * Drops the cached conversation of this bot and the given users. Called when members join or leave
+     *
+     * @param botId   Bot ID
+     * @param userIds Users whose membership changed
+     */
+    public void invalidateConversation(UUID botId, Collection<UUID> userIds) {
+        if (conversations != null)
+            conversations.invalidate(botId, userIds);
+    }
+
     public Client getHttpClient() {
         return httpClient;
     }
@@ -52,4 +167,40 @@ public class ClientRepo {
     public StorageFactory getSf() {
         return sf;
     }
+
+    private Entry getEntry(UUID botId) throws IOException {
+        if (clients == null)
+            return load(botId);
+
+        try {
+            return clients.get(botId, id -> {
+                try {
+                    return load(id);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Entry load(UUID botId) throws IOException {
+        NewBot state = sf.create(botId).getState();
+        WireAPI api = conversations == null && resolver == null
+                ? new API(httpClient, state.token)
+                : new CachingAPI(httpClient, state.token, botId, conversations, resolver);
+        return new Entry(state, api);
+    }
+
+    private static class Entry {
+        final NewBot state;
+        final WireAPI api;
+        final KnownDevices devices = new KnownDevices();
+
+        Entry(NewBot state, WireAPI api) {
+            this.state = state;
+            this.api = api;
+        }
+    }
 }
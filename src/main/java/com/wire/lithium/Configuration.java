@@ -21,10 +21,15 @@ package com.wire.lithium;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.client.JerseyClientConfiguration;
 import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.util.DataSize;
+import io.dropwizard.util.Duration;
 import io.federecio.dropwizard.swagger.SwaggerBundleConfiguration;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Application configuration class. Extend this class to add your custom configuration
@@ -47,6 +52,52 @@ public class Configuration extends io.dropwizard.Configuration {
     @JsonProperty
     public String apiHost = "https://prod-nginz-https.wire.com";
 
+    // Run the executors of background work on virtual threads (Java 21+): queued events, prekey sweeps and those
+    // made with Server.createExecutor. Request handling moves with server type: virtual. The Jersey client has no
+    // threads of its own, its calls block the caller's thread, so with both set they run on virtual threads too
+    @JsonProperty
+    public boolean virtualThreads;
+
+    // Number of in-process locks crypto sessions are spread over. Threads using the same session wait here instead
+    // of on the storage. 0 disables them
+    @JsonProperty
+    @Min(0)
+    public int sessionLocks = 1024;
+
+    // Keep crypto session updates in memory until the event is processed, then write them once. Events of a session
+    // processed at the same time share the write. Assumes a bot's events are handled by one node. Database only,
+    // not with messageQueue.enabled
+    @JsonProperty
+    public boolean writeBehindSessions;
+
+    @JsonProperty
+    @Valid
+    public ClientCache clientCache = new ClientCache();
+
+    @JsonProperty
+    @Valid
+    public ApiCache apiCache = new ApiCache();
+
+    @JsonProperty
+    @Valid
+    public StateCache stateCache = new StateCache();
+
+    @JsonProperty
+    @Valid
+    public Cluster cluster = new Cluster();
+
+    @JsonProperty
+    @Valid
+    public MessageQueue messageQueue = new MessageQueue();
+
+    @JsonProperty
+    @Valid
+    public PreKeys preKeys = new PreKeys();
+
+    @JsonProperty
+    @Valid
+    public Http2 http2 = new Http2();
+
     @JsonProperty("jerseyClient")
     public JerseyClientConfiguration getJerseyClient() {
         return jerseyClient;
@@ -60,6 +111,160 @@ public class Configuration extends io.dropwizard.Configuration {
     public static class Database extends DataSourceFactory {
         @JsonProperty
         public boolean baseline;
+
+        @JsonProperty
+        @NotNull
+        public DataSize segmentSize = DataSize.megabytes(64);   // driverClass: segments. Size of one segment file
+
+        @JsonProperty
+        public double compactBelow = 0.5;   // driverClass: segments. Compact segments with less live data than this
+
+        @JsonProperty
+        @NotNull
+        public DataSize cacheSize = DataSize.megabytes(32);   // driverClass: segments. Values cached in memory, 0 disables
+    }
+
+    public static class ClientCache {
+        @JsonProperty
+        @Min(0)
+        public long maxSize = 10_000;   // Max number of bots kept in memory. 0 disables the cache
+
+        @JsonProperty
+        @NotNull
+        public Duration expireAfterAccess = Duration.minutes(10);
+    }
+
+    public static class StateCache {
+        @JsonProperty
+        @Min(0)
+        public long maxSize = 10_000;   // Max number of bot states kept in memory. 0 disables the cache
+
+        @JsonProperty
+        @NotNull
+        public Duration expireAfterWrite = Duration.minutes(30);   // Bounds staleness when other instances change it
+    }
+
+    public static class Cluster {
+        @JsonProperty
+        public boolean invalidation;   // Postgres only. Nodes sharing the database drop what the others change from their caches
+
+        @JsonProperty
+        @NotNull
+        public String channel = "lithium_invalidations";   // LISTEN/NOTIFY channel, the same on every node
+
+        @JsonProperty
+        @Min(1)
+        public int queue = 100_000;   // Max events waiting to be published
+
+        @JsonProperty
+        @NotNull
+        public List<String> nodes = new ArrayList<>();   // Base urls of all nodes. When set, every bot is handled by the node owning it
+
+        @JsonProperty
+        public String self;   // Base url of this node, as listed in nodes
+
+        @JsonProperty
+        @Min(1)
+        public int virtualNodes = 128;   // Places on the hash ring per node
+    }
+
+    public static class ApiCache {
+        @JsonProperty
+        @Min(0)
+        public long maxConversations = 10_000;  // Max number of bot conversations kept in memory. 0 disables the conversation cache
+
+        @JsonProperty
+        @Min(0)
+        public long maxUsers = 100_000;         // Max number of users kept in memory, over all bots. 0 disables the user cache
+
+        @JsonProperty
+        @NotNull
+        public Duration expireAfterWrite = Duration.minutes(5);  // Also dropped on member-join, member-leave and rename
+
+        @JsonProperty
+        public boolean coalesceUsers;   // Gather user lookups a bot makes at about the same time into one call
+
+        @JsonProperty
+        @NotNull
+        public Duration coalesceWindow = Duration.milliseconds(5);  // How long the first lookup waits for others
+
+        @JsonProperty
+        @Min(1)
+        public int coalesceMaxBatch = 64;   // Max number of ids fetched in one call
+    }
+
+    public static class MessageQueue {
+        @JsonProperty
+        public boolean enabled;     // Acknowledge events once journaled and process them in the background. Events left at a stop are processed on the next start
+
+        @JsonProperty
+        @Min(1)
+        public int depth = 1_000;   // Max pending events per bot. Once reached the event is rejected with 503
+
+        @JsonProperty
+        @Min(1)
+        public int threads = 16;    // Number of worker threads shared by all bots. Ignored with virtualThreads
+
+        @JsonProperty
+        @Min(0)
+        public int lanes;           // When set, bots are hashed onto this many lanes, each running one event at a time. Without enabled the backend waits for the result
+
+        @JsonProperty
+        @Min(1)
+        public int laneDepth = 10_000;  // Max pending events per lane. Once reached the event is rejected with 503
+
+        @JsonProperty
+        public String node;         // Name of this node in the journal and the prekey pool, the same across restarts. Defaults to the host name
+
+        @JsonProperty
+        @NotNull
+        public Duration drainTimeout = Duration.seconds(30);  // How long a stop waits for queued events to be processed
+    }
+
+    public static class PreKeys {
+        @JsonProperty
+        @Min(0)
+        public int pool;            // Crypto boxes generated ahead for new bots. 0 generates them while the bot is created
+
+        @JsonProperty
+        @Min(1)
+        public int count = 50;      // Prekeys the backend should hold for every bot after a refill
+
+        @JsonProperty
+        @Min(0)
+        public int minimum;         // Refill backend prekeys of active bots when fewer are left. 0 disables refills
+
+        @JsonProperty
+        @NotNull
+        public Duration refillInterval = Duration.minutes(1);
+
+        @JsonProperty
+        public Duration sweepInterval;  // Check backend prekeys of all bots this often, requires minimum. Not set disables the sweep
+
+        @JsonProperty
+        @Min(1)
+        public int sweepRate = 20;      // Max bots checked per second during a sweep
+
+        @JsonProperty
+        @Min(1)
+        public int sweepBatch = 100;    // Bots read from the storage and checked in parallel at once
+
+        @JsonProperty
+        @Min(1)
+        public int sweepThreads = 4;    // Number of threads checking bots during a sweep
+    }
+
+    public static class Http2 {
+        @JsonProperty
+        public boolean enabled;             // Send backend requests over HTTP/2 with the JDK http client instead of Apache HTTP/1.1. Timeouts are taken from jerseyClient
+
+        @JsonProperty
+        @Min(1)
+        public int maxStreamsPerRoute = 128; // Max requests in flight to one host. More wait up to jerseyClient.connectionRequestTimeout
+
+        @JsonProperty
+        @Min(1)
+        public int threads = 4;             // Threads of the JDK http client
     }
 
     public static class _JerseyClientConfiguration extends JerseyClientConfiguration {
@@ -67,6 +272,9 @@ public class Configuration extends io.dropwizard.Configuration {
             setChunkedEncodingEnabled(false);
             setGzipEnabled(false);
             setGzipEnabledForRequests(false);
+            setKeepAlive(Duration.seconds(30));                     // reuse connections to the backend
+            setValidateAfterInactivityPeriod(Duration.seconds(2));  // instead of failing on connections closed by the backend
+            setRetries(1);                                          // idempotent requests that hit a stale connection. Sent messages are never retried
         }
     }
 
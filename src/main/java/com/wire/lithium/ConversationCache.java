@@ -0,0 +1,155 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.User;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Conversations and users as returned to each bot, shared by all bots of the repo. A bot is in exactly one
+ * conversation, so both are keyed by the bot. Entries expire after a while and are dropped when the bot receives
+ * an event that changes its conversation. Either cache is left out when its limit is 0.
+ */
+public class ConversationCache {
+    @Nullable
+    private final Cache<UUID, Conversation> conversations;
+    @Nullable
+    private final Cache<Key, User> users;
+
+    /**
+     * @param config  Cache limits
+     * @param metrics Registry where hits and misses are reported. Gauges already there are kept, so a second
+     *                cache on the same registry is not reported
+     */
+    public ConversationCache(Configuration.ApiCache config, MetricRegistry metrics) {
+        conversations = build(config.maxConversations, config, metrics, "conversations");
+        users = build(config.maxUsers, config, metrics, "users");
+    }
+
+    /**
+     * @return Whether any of the two caches is on
+     */
+    public static boolean isEnabled(Configuration.ApiCache config) {
+        return config.maxConversations > 0 || config.maxUsers > 0;
+    }
+
+    /**
+     * @param botId  Bot ID
+     * @param loader Fetches the conversation from the backend when it is not cached
+     * @return Bot's conversation
+     */
+    public Conversation getConversation(UUID botId, Supplier<Conversation> loader) {
+        if (conversations == null)
+            return loader.get();
+        return conversations.get(botId, id -> loader.get());
+    }
+
+    /**
+     * @param botId   Bot ID
+     * @param userIds Users to look up
+     * @param loader  Fetches the users that are not cached, all in one call
+     * @return Users found, in no particular order
+     */
+    public Collection<User> getUsers(UUID botId, Collection<UUID> userIds, Function<Collection<UUID>, Collection<User>> loader) {
+        if (users == null)
+            return loader.apply(userIds);
+
+        List<User> ret = new ArrayList<>(userIds.size());
+        List<UUID> missing = new ArrayList<>();
+        for (UUID userId : userIds) {
+            User user = users.getIfPresent(new Key(botId, userId));
+            if (user != null)
+                ret.add(user);
+            else
+                missing.add(userId);
+        }
+
+        if (!missing.isEmpty()) {
+            for (User user : loader.apply(missing)) {
+                users.put(new Key(botId, user.id), user);
+                ret.add(user);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Drops the bot's conversation and these users, so they are fetched again on next use
+     *
+     * @param botId   Bot ID
+     * @param userIds Users that joined or left
+     */
+    public void invalidate(UUID botId, Collection<UUID> userIds) {
+        if (conversations != null)
+            conversations.invalidate(botId);
+        if (users != null) {
+            for (UUID userId : userIds)
+                users.invalidate(new Key(botId, userId));
+        }
+    }
+
+    /**
+     * Drops the bot's conversation and every user cached for it. Called when the bot is removed
+     *
+     * @param botId Bot ID
+     */
+    public void invalidateBot(UUID botId) {
+        if (conversations != null)
+            conversations.invalidate(botId);
+        if (users != null)
+            users.asMap().keySet().removeIf(key -> key.botId.equals(botId));
+    }
+
+    @Nullable
+    private static <K, V> Cache<K, V> build(long maxSize, Configuration.ApiCache config, MetricRegistry metrics,
+                                            String name) {
+        if (maxSize == 0)
+            return null;
+
+        Cache<K, V> cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(config.expireAfterWrite.toNanoseconds(), TimeUnit.NANOSECONDS)
+                .recordStats()
+                .build();
+        metrics.gauge("api.cache." + name + ".hits", () -> (Gauge<Long>) () -> cache.stats().hitCount());
+        metrics.gauge("api.cache." + name + ".misses", () -> (Gauge<Long>) () -> cache.stats().missCount());
+        return cache;
+    }
+
+    private static class Key {
+        final UUID botId;
+        final UUID userId;
+
+        Key(UUID botId, UUID userId) {
+            this.botId = botId;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return botId.equals(key.botId) && userId.equals(key.userId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(botId, userId);
+        }
+    }
+}
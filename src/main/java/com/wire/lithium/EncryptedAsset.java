@@ -0,0 +1,83 @@
+package com.wire.lithium;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+
+/**
+ * Asset encrypted with a fresh key whose cipher text can be streamed to the backend. Digests of the cipher text
+ * are known before the upload starts, as required by the upload request.
+ */
+class EncryptedAsset implements Closeable {
+    final byte[] otrKey;
+    final AssetCrypto.Digest digest;
+
+    private final Path source;
+    private final byte[] iv;    // null when source is already encrypted
+
+    private EncryptedAsset(Path source, byte[] otrKey, byte[] iv, AssetCrypto.Digest digest) {
+        this.source = source;
+        this.otrKey = otrKey;
+        this.iv = iv;
+        this.digest = digest;
+    }
+
+    /**
+     * Encrypts the file once to compute the digests and again, while uploading, to produce the cipher text.
+     * Nothing is written to disk. The file must not change until the upload completes.
+     *
+     * @param file Plain text
+     */
+    static EncryptedAsset fromFile(Path file) throws IOException, GeneralSecurityException {
+        byte[] otrKey = AssetCrypto.newKey();
+        byte[] iv = AssetCrypto.newIv();
+        try (InputStream input = Files.newInputStream(file)) {
+            AssetCrypto.Digest digest = AssetCrypto.encrypt(input, otrKey, iv, OutputStream.nullOutputStream());
+            return new EncryptedAsset(file, otrKey, iv, digest);
+        }
+    }
+
+    /**
+     * The stream can be read only once so the cipher text is spooled into a temp file, deleted on {@link #close()}
+     *
+     * @param input Plain text. Not closed by this method
+     */
+    static EncryptedAsset fromStream(InputStream input) throws IOException, GeneralSecurityException {
+        byte[] otrKey = AssetCrypto.newKey();
+        Path temp = Files.createTempFile("asset-", ".enc");
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(temp), AssetCrypto.BUFFER_SIZE)) {
+            AssetCrypto.Digest digest = AssetCrypto.encrypt(input, otrKey, AssetCrypto.newIv(), output);
+            return new EncryptedAsset(temp, otrKey, null, digest);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * @return Cipher text: IV followed by the encrypted data. Caller closes it
+     */
+    InputStream openCipherText() throws IOException, GeneralSecurityException {
+        InputStream input = Files.newInputStream(source);
+        if (iv == null)
+            return input;
+        try {
+            return AssetCrypto.encrypting(new BufferedInputStream(input, AssetCrypto.BUFFER_SIZE), otrKey, iv);
+        } catch (GeneralSecurityException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (iv == null)
+            Files.deleteIfExists(source);
+    }
+}
@@ -0,0 +1,288 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.ClientRequest;
+import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.message.internal.Statuses;
+
+import javax.ws.rs.ProcessingException;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Jersey connector on top of the JDK {@link HttpClient}. Requests to the same host are multiplexed as HTTP/2 streams
+ * over a shared connection. Requests in flight per host are bounded: once the limit is reached callers wait for a
+ * free stream, at most the lease timeout. Like a pooled Apache connection, the stream is held until the response
+ * entity is read to its end or closed.
+ */
+class Http2Connector implements Connector {
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+    private final HttpClient client;
+    private final int maxStreamsPerRoute;
+    private final long leaseTimeout;
+    private final int readTimeout;
+    private final MetricRegistry metrics;
+
+    private final Timer lease;
+    private final Meter leaseTimeouts;
+
+    /**
+     * @param client             JDK http client
+     * @param maxStreamsPerRoute Max requests in flight to one host
+     * @param leaseTimeout       Max millis to wait for a free stream
+     * @param readTimeout        Default millis to wait for the response headers. 0 waits forever
+     * @param metrics            Registry where lease times and route saturation are reported
+     */
+    Http2Connector(HttpClient client, int maxStreamsPerRoute, long leaseTimeout, int readTimeout, MetricRegistry metrics) {
+        this.client = client;
+        this.maxStreamsPerRoute = maxStreamsPerRoute;
+        this.leaseTimeout = leaseTimeout;
+        this.readTimeout = readTimeout;
+        this.metrics = metrics;
+
+        lease = metrics.timer("http2.lease");
+        leaseTimeouts = metrics.meter("http2.lease.timeouts");
+    }
+
+    @Override
+    public ClientResponse apply(ClientRequest request) {
+        Route route = route(request.getUri());
+        route.acquire();
+        boolean streaming = false;
+        try {
+            HttpResponse<InputStream> response = send(request);
+
+            ClientResponse ret = new ClientResponse(Statuses.from(response.statusCode()), request);
+            for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+                if (!header.getKey().startsWith(":"))
+                    ret.getHeaders().addAll(header.getKey(), header.getValue());
+            }
+
+            if (isEmpty(response)) {
+                response.body().close();
+                ret.setEntityStream(InputStream.nullInputStream());
+            } else {
+                ret.setEntityStream(new ReleasingInputStream(response.body(), route.permits));
+                streaming = true;
+            }
+            return ret;
+        } catch (IOException e) {
+            throw new ProcessingException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException(e);
+        } finally {
+            if (!streaming)
+                route.permits.release();
+        }
+    }
+
+    /**
+     * Blocks like {@link #apply(ClientRequest)}: Jersey calls it on the executor of the client's async requests, not
+     * on the caller's thread
+     */
+    @Override
+    public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+        CompletableFuture<ClientResponse> ret = new CompletableFuture<>();
+        try {
+            ClientResponse response = apply(request);
+            ret.complete(response);
+            callback.response(response);
+        } catch (Exception e) {
+            ret.completeExceptionally(e);
+            callback.failure(e);
+        }
+        return ret;
+    }
+
+    @Override
+    public String getName() {
+        return "JDK HttpClient " + client.version();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private HttpResponse<InputStream> send(ClientRequest request) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.getUri());
+
+        int timeout = request.resolveProperty(ClientProperties.READ_TIMEOUT, readTimeout);
+        if (timeout > 0)
+            builder.timeout(Duration.ofMillis(timeout));
+
+        if (request.getEntity() == null) {
+            setHeaders(builder, request);
+            builder.method(request.getMethod(), HttpRequest.BodyPublishers.noBody());
+            return client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        }
+
+        Object length = request.getProperty(StreamingApacheConnector.CONTENT_LENGTH);
+        if (length == null) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            request.setStreamProvider(contentLength -> buffer);
+            request.writeEntity();
+
+            setHeaders(builder, request);
+            builder.method(request.getMethod(), HttpRequest.BodyPublishers.ofByteArray(buffer.toByteArray()));
+            return client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        }
+
+        return stream(builder, request, ((Number) length).longValue());
+    }
+
+    // entity is written by this thread into a pipe the http client reads from while sending
+    private HttpResponse<InputStream> stream(HttpRequest.Builder builder, ClientRequest request, long length)
+            throws IOException, InterruptedException {
+        PipedInputStream input = new PipedInputStream(PIPE_SIZE);
+        PipedOutputStream output = new PipedOutputStream(input);
+
+        setHeaders(builder, request);
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(() -> input), length);
+        builder.method(request.getMethod(), body);
+
+        CompletableFuture<HttpResponse<InputStream>> response = client
+                .sendAsync(builder.build(), HttpResponse.BodyHandlers.ofInputStream())
+                .whenComplete((res, e) -> closeQuietly(input));     // unblocks the writer if the request failed
+
+        try (PipedOutputStream out = output) {
+            request.setStreamProvider(contentLength -> out);
+            request.writeEntity();
+        } catch (IOException e) {
+            if (!response.isDone())
+                throw e;
+        }
+
+        try {
+            return response.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new ProcessingException(e.getCause());
+        }
+    }
+
+    private static boolean isEmpty(HttpResponse<InputStream> response) {
+        int status = response.statusCode();
+        return status == 204 || status == 304 || "HEAD".equalsIgnoreCase(response.request().method())
+                || response.headers().firstValueAsLong("content-length").orElse(-1) == 0;
+    }
+
+    private static void setHeaders(HttpRequest.Builder builder, ClientRequest request) {
+        for (Map.Entry<String, List<String>> header : request.getStringHeaders().entrySet()) {
+            if (RESTRICTED_HEADERS.contains(header.getKey().toLowerCase()))
+                continue;
+            for (String value : header.getValue())
+                builder.header(header.getKey(), value);
+        }
+    }
+
+    private Route route(URI uri) {
+        int port = uri.getPort() != -1 ? uri.getPort() : "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        return routes.computeIfAbsent(uri.getHost() + ":" + port, Route::new);
+    }
+
+    private static void closeQuietly(InputStream input) {
+        try {
+            input.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // gives the stream back to the route once the body is read or closed
+    private static class ReleasingInputStream extends FilterInputStream {
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final Semaphore permits;
+
+        ReleasingInputStream(InputStream in, Semaphore permits) {
+            super(in);
+            this.permits = permits;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return released(super.read());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return released(super.read(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                release();
+            }
+        }
+
+        private int released(int read) {
+            if (read == -1)
+                release();
+            return read;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true))
+                permits.release();
+        }
+    }
+
+    private class Route {
+        final String name;
+        final Semaphore permits = new Semaphore(maxStreamsPerRoute);
+
+        Route(String name) {
+            this.name = name;
+            // get-or-create: another connector on the same registry may have registered the route already
+            metrics.gauge(MetricRegistry.name("http2", name, "in-flight"),
+                    () -> (Gauge<Integer>) () -> maxStreamsPerRoute - permits.availablePermits());
+            metrics.gauge(MetricRegistry.name("http2", name, "saturation"),
+                    () -> (Gauge<Double>) () -> 1.0 - (double) permits.availablePermits() / maxStreamsPerRoute);
+        }
+
+        void acquire() {
+            try (Timer.Context ignored = lease.time()) {
+                if (!permits.tryAcquire(leaseTimeout, TimeUnit.MILLISECONDS)) {
+                    leaseTimeouts.mark();
+                    throw new ProcessingException(String.format("Timed out after %d ms waiting for a free stream to %s",
+                            leaseTimeout, name));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessingException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.client.JerseyClientConfiguration;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.client.spi.ConnectorProvider;
+
+import javax.ws.rs.client.Client;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+/**
+ * Replaces the Apache HTTP/1.1 connector of the Jersey client with {@link Http2Connector}.
+ * Connect, read and lease timeouts are taken from the Jersey client configuration. All clients built with one
+ * provider share its connector, so connections and the per host limit are shared too.
+ */
+public class Http2ConnectorProvider implements ConnectorProvider {
+    private final Configuration.Http2 http2;
+    private final JerseyClientConfiguration jerseyClient;
+    private final Executor executor;
+    private final MetricRegistry metrics;
+    private Http2Connector connector;
+
+    /**
+     * @param http2        HTTP/2 settings
+     * @param jerseyClient Jersey client configuration
+     * @param executor     Executor of the JDK http client
+     * @param metrics      Registry where lease times and route saturation are reported
+     */
+    public Http2ConnectorProvider(Configuration.Http2 http2, JerseyClientConfiguration jerseyClient, Executor executor,
+                                  MetricRegistry metrics) {
+        this.http2 = http2;
+        this.jerseyClient = jerseyClient;
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public synchronized Connector getConnector(Client client, javax.ws.rs.core.Configuration runtimeConfig) {
+        if (connector != null)
+            return connector;
+
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(jerseyClient.getConnectionTimeout().toMilliseconds()))
+                .executor(executor)
+                .build();
+
+        connector = new Http2Connector(httpClient,
+                http2.maxStreamsPerRoute,
+                jerseyClient.getConnectionRequestTimeout().toMilliseconds(),
+                (int) jerseyClient.getTimeout().toMilliseconds(),
+                metrics);
+        return connector;
+    }
+}
@@ -0,0 +1,86 @@
+package com.wire.lithium;
+
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.Missing;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Devices of the bot's conversation, as last reported by the backend. Shared by all clients of the same bot
+ * so the device list is not fetched again for every message. Updates replace the whole snapshot.
+ */
+public class KnownDevices {
+    @Nullable
+    private volatile Missing devices;
+
+    /**
+     * @return User ids and their clients, or null when the backend has not been asked yet
+     */
+    @Nullable
+    public Missing get() {
+        return devices;
+    }
+
+    public void set(Missing devices) {
+        this.devices = copy(devices);
+    }
+
+    /**
+     * Adds the devices the backend reported missing and drops the redundant and deleted ones
+     *
+     * @param res Backend response to a sent message
+     */
+    public synchronized void update(Devices res) {
+        Missing current = devices;
+        if (current == null)
+            return;
+
+        Missing updated = copy(current);
+        for (Map.Entry<UUID, Collection<String>> entry : res.missing.entrySet()) {
+            Collection<String> clients = updated.computeIfAbsent(entry.getKey(), k -> new ArrayList<>());
+            for (String client : entry.getValue()) {
+                if (!clients.contains(client))
+                    clients.add(client);
+            }
+        }
+        remove(updated, res.redundant);
+        remove(updated, res.deleted);
+        devices = updated;
+    }
+
+    /**
+     * @param userIds Users that left the conversation
+     */
+    public synchronized void remove(Collection<UUID> userIds) {
+        Missing current = devices;
+        if (current == null)
+            return;
+
+        Missing updated = copy(current);
+        for (UUID userId : userIds)
+            updated.remove(userId);
+        devices = updated;
+    }
+
+    private static void remove(Missing devices, Missing gone) {
+        for (Map.Entry<UUID, Collection<String>> entry : gone.entrySet()) {
+            Collection<String> clients = devices.get(entry.getKey());
+            if (clients == null)
+                continue;
+            clients.removeAll(entry.getValue());
+            if (clients.isEmpty())
+                devices.remove(entry.getKey());
+        }
+    }
+
+    private static Missing copy(Missing devices) {
+        Missing ret = new Missing();
+        for (Map.Entry<UUID, Collection<String>> entry : devices.entrySet())
+            ret.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        return ret;
+    }
+}
@@ -0,0 +1,187 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.wire.xenon.WireAPI;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.exceptions.HttpException;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.models.otr.Recipients;
+import com.wire.xenon.tools.Logger;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Encrypts and posts otr messages. Devices without a session are collected upfront and their prekeys fetched
+ * in one call. When the backend still reports missing devices (412) only those are encrypted and the message
+ * is posted again, for at most {@link #MAX_ROUNDS} rounds.
+ */
+public class MessageSender {
+    /**
+     * Name of the shared registry of the senders made by {@link #shared()}. {@link Server} puts the application's
+     * registry under it
+     */
+    public static final String METRICS = "lithium";
+    static final int MAX_ROUNDS = 3;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Histogram rounds;
+    private final Meter preKeys;
+    private final Meter warmedUp;
+
+    /**
+     * @param metrics Registry where 412 rounds per message, fetched prekeys and warmed up sessions are reported
+     */
+    public MessageSender(MetricRegistry metrics) {
+        rounds = metrics.histogram("messages.rounds");
+        preKeys = metrics.meter("messages.prekeys");
+        warmedUp = metrics.meter("sessions.warmup");
+    }
+
+    /**
+     * @return Sender reporting to the shared {@link #METRICS} registry, for clients made without a registry
+     */
+    public static MessageSender shared() {
+        return new MessageSender(SharedMetricRegistries.getOrCreate(METRICS));
+    }
+
+    /**
+     * @param api      Bot's API
+     * @param crypto   Bot's crypto box
+     * @param deviceId Bot's client id
+     * @param known    Conversation devices known so far. Updated with what the backend reports
+     * @param content  Serialized generic message
+     * @param userId   Send only to this user's devices, null for the whole conversation
+     * @throws Exception when encryption or the backend call fails
+     */
+    public void send(WireAPI api, Crypto crypto, String deviceId, KnownDevices known, byte[] content,
+                     @Nullable UUID userId) throws Exception {
+        Missing devices = known.get();
+        if (devices == null)
+            devices = discover(api, deviceId, known);
+
+        Missing targets = userId == null ? devices : only(devices, userId);
+        OtrMessage msg = new OtrMessage(deviceId, encrypt(api, crypto, targets, content));
+
+        Devices res = post(api, msg, userId);
+        int round = 0;
+        while (!res.missing.isEmpty() && round < MAX_ROUNDS) {
+            round++;
+            known.update(res);
+
+            Recipients recipients = encrypt(api, crypto, res.missing, content);
+            msg.add(recipients);
+
+            // devices left without a cipher (no prekeys) would be reported again: deliver to the rest
+            boolean last = round == MAX_ROUNDS || count(recipients) < count(res.missing);
+            res = last ? api.sendMessage(msg, true) : post(api, msg, userId);
+            if (last)
+                break;
+        }
+        known.update(res);
+        rounds.update(round);
+
+        if (!res.missing.isEmpty())
+            Logger.error("Failed to send otr message to %d devices. Bot client: %s", res.size(), deviceId);
+    }
+
+    /**
+     * Creates sessions with the devices of these users, so the next message to them needs no prekey round trip
+     *
+     * @param api      Bot's API
+     * @param crypto   Bot's crypto box
+     * @param deviceId Bot's client id
+     * @param known    Conversation devices, refreshed by this call
+     * @param userIds  Users that joined the conversation
+     * @return Number of sessions created
+     * @throws Exception when encryption or the backend call fails
+     */
+    public int warmUp(WireAPI api, Crypto crypto, String deviceId, KnownDevices known, Collection<UUID> userIds)
+            throws Exception {
+        Missing devices = discover(api, deviceId, known);
+
+        Missing joined = new Missing();
+        for (UUID userId : userIds) {
+            Collection<String> clients = devices.get(userId);
+            if (clients != null)
+                joined.add(userId, clients);
+        }
+
+        Missing noSession = without(joined, crypto.encrypt(joined, EMPTY));
+        if (noSession.isEmpty())
+            return 0;
+
+        PreKeys keys = api.getPreKeys(noSession);
+        int created = count(crypto.encrypt(keys, EMPTY));
+        warmedUp.mark(created);
+        return created;
+    }
+
+    // the backend answers an empty message with all devices in the conversation
+    private static Missing discover(WireAPI api, String deviceId, KnownDevices known) throws HttpException {
+        Devices res = api.sendMessage(new OtrMessage(deviceId, new Recipients()));
+        known.set(res.missing);
+        return res.missing;
+    }
+
+    // existing sessions first, one prekeys call for the devices without a session
+    private Recipients encrypt(WireAPI api, Crypto crypto, Missing devices, byte[] content) throws Exception {
+        Recipients ret = crypto.encrypt(devices, content);
+
+        Missing noSession = without(devices, ret);
+        if (!noSession.isEmpty()) {
+            PreKeys keys = api.getPreKeys(noSession);
+            preKeys.mark(keys.count());
+            ret.add(crypto.encrypt(keys, content));
+        }
+        return ret;
+    }
+
+    private static Devices post(WireAPI api, OtrMessage msg, @Nullable UUID userId) throws HttpException {
+        return userId == null ? api.sendMessage(msg, false) : api.sendPartialMessage(msg, userId);
+    }
+
+    private static Missing only(Missing devices, UUID userId) {
+        Missing ret = new Missing();
+        Collection<String> clients = devices.get(userId);
+        if (clients != null)
+            ret.add(userId, clients);
+        return ret;
+    }
+
+    private static Missing without(Missing devices, Recipients recipients) {
+        Missing ret = new Missing();
+        for (Map.Entry<UUID, Collection<String>> entry : devices.entrySet()) {
+            Map<String, String> ciphers = recipients.get(entry.getKey());
+            for (String clientId : entry.getValue()) {
+                if (ciphers == null || !ciphers.containsKey(clientId))
+                    ret.add(entry.getKey(), clientId);
+            }
+        }
+        return ret;
+    }
+
+    private static int count(Recipients recipients) {
+        int ret = 0;
+        for (UUID userId : recipients.keySet()) {
+            Map<String, String> ciphers = recipients.get(userId);
+            ret += ciphers.size();
+        }
+        return ret;
+    }
+
+    private static int count(Missing devices) {
+        int ret = 0;
+        for (Collection<String> clients : devices.values())
+            ret += clients.size();
+        return ret;
+    }
+}
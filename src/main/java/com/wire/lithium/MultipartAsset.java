@@ -0,0 +1,68 @@
+package com.wire.lithium;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * multipart/mixed body of the asset upload. Metadata and part headers are small and prepared upfront,
+ * encrypted data is copied from the source stream to the request while it is being sent.
+ */
+class MultipartAsset implements StreamingOutput {
+    static final String MEDIA_TYPE = "multipart/mixed; boundary=frontier";
+    private static final byte[] TAIL = "\r\n--frontier--\r\n".getBytes(StandardCharsets.UTF_8);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final byte[] head;
+    private final long length;
+    private final InputStream data;
+
+    /**
+     * @param mimeType  Mime type of the asset
+     * @param isPublic  Public asset
+     * @param retention Retention
+     * @param length    Length of the encrypted data
+     * @param md5       Base64 encoded MD5 of the encrypted data
+     * @param data      Encrypted data. The stream is closed once written
+     */
+    MultipartAsset(String mimeType, boolean isPublic, String retention, long length, String md5, InputStream data) {
+        this.length = length;
+        this.data = data;
+
+        String metadata = String.format("{\"public\": %s, \"retention\": \"%s\"}", isPublic, retention);
+        String head = "--frontier\r\n" +
+                "Content-Type: application/json; charset=utf-8\r\n" +
+                "Content-Length: " + metadata.length() + "\r\n\r\n" +
+                metadata + "\r\n" +
+                "--frontier\r\n" +
+                "Content-Type: " + mimeType + "\r\n" +
+                "Content-Length: " + length + "\r\n" +
+                "Content-MD5: " + md5 + "\r\n\r\n";
+        this.head = head.getBytes(StandardCharsets.UTF_8);
+    }
+
+    long getContentLength() {
+        return head.length + length + TAIL.length;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        output.write(head);
+
+        try (InputStream input = data) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long left = length;
+            while (left > 0) {
+                int read = input.read(buffer, 0, (int) Math.min(buffer.length, left));
+                if (read == -1)
+                    throw new IOException(String.format("Asset is %d bytes shorter than declared", left));
+                output.write(buffer, 0, read);
+                left -= read;
+            }
+        }
+
+        output.write(TAIL);
+    }
+}
@@ -19,26 +19,61 @@
 package com.wire.lithium;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.SharedMetricRegistries;
 import com.codahale.metrics.health.HealthCheck;
 import com.codahale.metrics.jmx.JmxReporter;
 import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.wire.lithium.crypto.JdbiCryptoStorage;
+import com.wire.lithium.crypto.SegmentCryptoStorage;
+import com.wire.lithium.crypto.SessionBuffer;
+import com.wire.lithium.crypto.SessionLocks;
 import com.wire.lithium.healthchecks.Alice2Bob;
 import com.wire.lithium.healthchecks.CryptoHealthCheck;
 import com.wire.lithium.healthchecks.Outbound;
 import com.wire.lithium.healthchecks.StorageHealthCheck;
+import com.wire.lithium.prekeys.BotDirectory;
+import com.wire.lithium.prekeys.CryptoTransfer;
+import com.wire.lithium.prekeys.FileBotDirectory;
+import com.wire.lithium.prekeys.FileCryptoTransfer;
+import com.wire.lithium.prekeys.FileLocalPreKeys;
+import com.wire.lithium.prekeys.JdbiBotDirectory;
+import com.wire.lithium.prekeys.JdbiCryptoTransfer;
+import com.wire.lithium.prekeys.JdbiLocalPreKeys;
+import com.wire.lithium.prekeys.LocalPreKeys;
+import com.wire.lithium.prekeys.PreKeyPool;
+import com.wire.lithium.prekeys.PreKeyRefill;
+import com.wire.lithium.prekeys.PreKeySweeper;
+import com.wire.lithium.prekeys.PreKeyTopUp;
+import com.wire.lithium.prekeys.SegmentBotDirectory;
+import com.wire.lithium.prekeys.SegmentCryptoTransfer;
+import com.wire.lithium.prekeys.SegmentLocalPreKeys;
+import com.wire.lithium.server.cluster.ClusterMessageResource;
+import com.wire.lithium.server.cluster.EventForwarder;
+import com.wire.lithium.server.cluster.HashRing;
 import com.wire.lithium.server.filters.AuthenticationFeature;
+import com.wire.lithium.server.jetty.VirtualThreadsServerFactory;
 import com.wire.lithium.server.monitoring.RequestMdcFactoryFilter;
 import com.wire.lithium.server.monitoring.StatusResource;
 import com.wire.lithium.server.monitoring.VersionResource;
+import com.wire.lithium.server.queue.EventDispatcher;
+import com.wire.lithium.server.queue.EventJournal;
+import com.wire.lithium.server.queue.EventQueue;
+import com.wire.lithium.server.queue.FileEventJournal;
+import com.wire.lithium.server.queue.JdbiEventJournal;
+import com.wire.lithium.server.queue.LaneDispatcher;
 import com.wire.lithium.server.resources.BotsResource;
 import com.wire.lithium.server.resources.MessageResource;
 import com.wire.lithium.server.tasks.AvailablePrekeysTask;
 import com.wire.lithium.server.tasks.ConversationTask;
+import com.wire.lithium.storage.CachingStorageFactory;
+import com.wire.lithium.storage.ClusterInvalidator;
+import com.wire.lithium.storage.SegmentState;
+import com.wire.lithium.storage.SegmentStore;
+import com.wire.lithium.tools.VirtualThreads;
 import com.wire.xenon.Const;
 import com.wire.xenon.MessageHandlerBase;
 import com.wire.xenon.crypto.CryptoDatabase;
 import com.wire.xenon.crypto.CryptoFile;
-import com.wire.xenon.crypto.storage.JdbiStorage;
 import com.wire.xenon.factories.CryptoFactory;
 import com.wire.xenon.factories.StorageFactory;
 import com.wire.xenon.state.FileState;
@@ -48,9 +83,12 @@ import io.dropwizard.Application;
 import io.dropwizard.client.JerseyClientBuilder;
 import io.dropwizard.configuration.EnvironmentVariableSubstitutor;
 import io.dropwizard.configuration.SubstitutingSourceProvider;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.servlets.tasks.Task;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
 import io.federecio.dropwizard.swagger.SwaggerBundle;
 import io.federecio.dropwizard.swagger.SwaggerBundleConfiguration;
 import org.flywaydb.core.Flyway;
@@ -60,7 +98,15 @@ import org.jdbi.v3.sqlobject.SqlObjectPlugin;
 
 import javax.annotation.Nullable;
 import javax.ws.rs.client.Client;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Paths;
 import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -75,6 +121,12 @@ public abstract class Server<Config extends Configuration> extends Application<C
     protected Client client;
     protected MessageHandlerBase messageHandler;
     protected Jdbi jdbi;
+    private ScheduledExecutorService preKeyScheduler;
+    private SessionLocks sessionLocks;
+    private SessionBuffer sessionBuffer;
+    private SegmentStore segmentStore;
+    private StorageFactory storageFactory;
+    private ClusterInvalidator clusterInvalidator;
 
     /**
      * This method is called once by the sdk in order to create the main message handler
@@ -130,6 +182,17 @@ public abstract class Server<Config extends Configuration> extends Application<C
         this.config = config;
         this.environment = env;
 
+        // sessions would be written when the queued event is processed, after it was acknowledged
+        if (config.writeBehindSessions && config.messageQueue.enabled)
+            throw new IllegalArgumentException("writeBehindSessions cannot be used with messageQueue.enabled");
+
+        if (config.virtualThreads && !(config.getServerFactory() instanceof VirtualThreadsServerFactory))
+            Logger.info("virtualThreads: requests still run on platform threads, set server type: virtual to move them");
+
+        // senders of clients made without a registry report with the rest of the application
+        SharedMetricRegistries.remove(MessageSender.METRICS);
+        SharedMetricRegistries.add(MessageSender.METRICS, env.metrics());
+
         System.setProperty(Const.WIRE_BOTS_SDK_TOKEN, config.token);
         System.setProperty(Const.WIRE_BOTS_SDK_API, config.apiHost);
 
@@ -141,6 +204,21 @@ public abstract class Server<Config extends Configuration> extends Application<C
 
         repo = createClientRepo();
 
+        ClusterInvalidator invalidator = getClusterInvalidator();
+        if (invalidator != null) {
+            invalidator.addListener(new ClusterInvalidator.Listener() {
+                @Override
+                public void stateChanged(UUID botId) {
+                    repo.invalidate(botId);
+                }
+
+                @Override
+                public void missed() {
+                    repo.invalidateAll();
+                }
+            });
+        }
+
         initialize(config, env);
 
         messageHandler = createHandler(config, env);
@@ -155,22 +233,53 @@ public abstract class Server<Config extends Configuration> extends Application<C
     }
 
     private Client createHttpClient(Config config, Environment env) {
-        return new JerseyClientBuilder(env)
+        JerseyClientBuilder builder = new StreamingClientBuilder(env)
                 .using(config.getJerseyClient())
                 .withProvider(MultiPartFeature.class)
-                .withProvider(JacksonJsonProvider.class)
-                .build(getName());
+                .withProvider(JacksonJsonProvider.class);
+
+        if (config.http2.enabled) {
+            builder.using(new Http2ConnectorProvider(config.http2,
+                    config.getJerseyClient(),
+                    createExecutor("http2-client", config.http2.threads),
+                    env.metrics()));
+        }
+
+        return builder.build(getName());
+    }
+
+    /**
+     * Creates managed executor for blocking work, such as the backend calls bots make outside of their handlers.
+     * Backed by virtual threads when {@code virtualThreads} is enabled and the JVM has them
+     *
+     * @param name    Executor name
+     * @param threads Number of platform threads when virtual threads are not used
+     * @return Executor that is shut down together with the application
+     */
+    protected ExecutorService createExecutor(String name, int threads) {
+        ExecutorService executor = config.virtualThreads ? VirtualThreads.newExecutor(name + "-") : null;
+        if (executor != null) {
+            environment.lifecycle().manage(new ExecutorServiceManager(executor, Duration.seconds(5), name));
+            return executor;
+        }
+
+        return environment.lifecycle()
+                .executorService(name + "-%d")
+                .minThreads(threads)
+                .maxThreads(threads)
+                .build();
     }
 
     protected ClientRepo createClientRepo() {
         StorageFactory storageFactory = getStorageFactory();
         CryptoFactory cryptoFactory = getCryptoFactory();
-        return new ClientRepo(getClient(), cryptoFactory, storageFactory);
+        return new ClientRepo(getClient(), cryptoFactory, storageFactory, config.clientCache, config.apiCache,
+                environment.metrics());
     }
 
     @Nullable
     protected Jdbi buildJdbi(Configuration.Database database, Environment env) {
-        if (database.getDriverClass().equalsIgnoreCase("fs"))
+        if (database.getDriverClass().equalsIgnoreCase("fs") || database.getDriverClass().equalsIgnoreCase("segments"))
             return null;
 
         return Jdbi
@@ -179,7 +288,7 @@ public abstract class Server<Config extends Configuration> extends Application<C
     }
 
     protected void setupDatabase(Configuration.Database database) {
-        if (!database.getDriverClass().equalsIgnoreCase("fs")) {
+        if (!database.getDriverClass().equalsIgnoreCase("fs") && !database.getDriverClass().equalsIgnoreCase("segments")) {
             Flyway flyway = Flyway
                     .configure()
                     .dataSource(database.getUrl(), database.getUser(), database.getPassword())
@@ -189,20 +298,107 @@ public abstract class Server<Config extends Configuration> extends Application<C
         }
     }
 
-    public StorageFactory getStorageFactory() {
+    /**
+     * Storage of the bots' state, behind the state cache unless {@code stateCache.maxSize} is 0.
+     * The same factory is handed out every time, so every component sees the same cache
+     */
+    public synchronized StorageFactory getStorageFactory() {
+        if (storageFactory == null) {
+            StorageFactory backend = createStorageFactory();
+            storageFactory = config.stateCache.maxSize == 0
+                    ? backend
+                    : new CachingStorageFactory(backend, config.stateCache, getClusterInvalidator(),
+                    environment.metrics());
+        }
+        return storageFactory;
+    }
+
+    protected StorageFactory createStorageFactory() {
         if (config.database.getDriverClass().equalsIgnoreCase("fs")) {
             return botId -> new FileState(config.database.getUrl(), botId);
         }
+        if (config.database.getDriverClass().equalsIgnoreCase("segments")) {
+            SegmentStore store = getSegmentStore();
+            return botId -> new SegmentState(store, botId);
+        }
 
         return botId -> new JdbiState(botId, getJdbi());
     }
 
     public CryptoFactory getCryptoFactory() {
+        final CryptoFactory cryptoFactory;
         if (config.database.getDriverClass().equalsIgnoreCase("fs")) {
-            return (botId) -> new CryptoFile(config.database.getUrl(), botId);
+            cryptoFactory = (botId) -> new CryptoFile(config.database.getUrl(), botId);
+        } else if (config.database.getDriverClass().equalsIgnoreCase("segments")) {
+            cryptoFactory = getSegmentCryptoStorage()::create;
+        } else if (config.writeBehindSessions) {
+            SessionBuffer buffer = getSessionBuffer();
+            cryptoFactory = (botId) -> {
+                JdbiCryptoStorage jdbiStorage = new JdbiCryptoStorage(getJdbi());
+                SessionBuffer.BufferedStorage storage = buffer.storage(jdbiStorage);
+                return jdbiStorage.wrap(buffer.wrap(new CryptoDatabase(botId, storage), storage));
+            };
+        } else {
+            cryptoFactory = (botId) -> {
+                JdbiCryptoStorage storage = new JdbiCryptoStorage(getJdbi());
+                return storage.wrap(new CryptoDatabase(botId, storage));
+            };
         }
 
-        return (botId) -> new CryptoDatabase(botId, new JdbiStorage(getJdbi()));
+        if (config.sessionLocks == 0)
+            return cryptoFactory;
+
+        SessionLocks locks = getSessionLocks();
+        return (botId) -> locks.wrap(botId, cryptoFactory.create(botId));
+    }
+
+    /**
+     * Store of the {@code segments} backend: segment files are kept in {@code database.url}
+     */
+    protected synchronized SegmentStore getSegmentStore() {
+        if (segmentStore == null) {
+            try {
+                segmentStore = new SegmentStore(Paths.get(config.database.getUrl()),
+                        (int) config.database.segmentSize.toBytes(),
+                        config.database.compactBelow,
+                        config.database.cacheSize.toBytes(),
+                        environment.metrics());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open segment store: " + config.database.getUrl(), e);
+            }
+            environment.lifecycle().manage(segmentStore);
+        }
+        return segmentStore;
+    }
+
+    private SegmentCryptoStorage getSegmentCryptoStorage() {
+        return new SegmentCryptoStorage(getSegmentStore(), Paths.get(config.database.getUrl(), "boxes"));
+    }
+
+    /**
+     * Invalidation of the caches of the other nodes, when {@code cluster.invalidation} is on with the Postgres backend
+     */
+    @Nullable
+    protected synchronized ClusterInvalidator getClusterInvalidator() {
+        if (clusterInvalidator == null && config.cluster.invalidation && jdbi != null) {
+            clusterInvalidator = new ClusterInvalidator(jdbi, config.cluster.channel, config.cluster.queue,
+                    environment.metrics());
+            environment.lifecycle().manage(clusterInvalidator);
+        }
+        return clusterInvalidator;
+    }
+
+    // one buffer for every crypto factory handed out
+    private synchronized SessionBuffer getSessionBuffer() {
+        if (sessionBuffer == null)
+            sessionBuffer = new SessionBuffer(getClusterInvalidator(), environment.metrics());
+        return sessionBuffer;
+    }
+
+    private synchronized SessionLocks getSessionLocks() {
+        if (sessionLocks == null)
+            sessionLocks = new SessionLocks(config.sessionLocks, environment.metrics());
+        return sessionLocks;
     }
 
     private void addResources() {
@@ -215,19 +411,215 @@ public abstract class Server<Config extends Configuration> extends Application<C
         botResource();
         messageResource();
 
+        if (config.preKeys.minimum > 0 && config.preKeys.sweepInterval != null)
+            createPreKeySweeper();
+
         addTask(new ConversationTask(getRepo()));
         addTask(new AvailablePrekeysTask(getRepo()));
     }
 
     protected void messageResource() {
-        addResource(new MessageResource(messageHandler, getRepo()));
+        EventDispatcher queue = null;
+        EventJournal journal = null;
+        EventDispatcher lanes = null;
+        if (config.messageQueue.enabled) {
+            queue = config.messageQueue.lanes > 0 ? createLaneDispatcher() : createEventQueue();
+            journal = createEventJournal();
+        } else if (config.messageQueue.lanes > 0) {
+            lanes = createLaneDispatcher();
+        }
+        PreKeyTopUp preKeyTopUp = config.preKeys.minimum > 0 ? createPreKeyTopUp() : null;
+        EventForwarder forwarder = config.cluster.nodes.isEmpty() ? null : createEventForwarder();
+
+        MessageResource messages = new MessageResource(messageHandler, getRepo(), new MessageResource.Options()
+                .queue(queue)
+                .journal(journal)
+                .lanes(lanes)
+                .preKeyTopUp(preKeyTopUp)
+                .forwarder(forwarder));
+        addResource(messages);
+        if (forwarder != null)
+            addResource(new ClusterMessageResource(messages));
+        if (queue != null)
+            manageQueue(messages, queue);
+        else if (lanes != null)
+            manageQueue(messages, lanes);
+    }
+
+    // events left by the last run are queued before new ones are taken, the queued ones get time to finish at a stop.
+    // Managed after the queue's executor, so it is stopped before it
+    private void manageQueue(MessageResource messages, EventDispatcher queue) {
+        environment.lifecycle().manage(new Managed() {
+            @Override
+            public void start() throws Exception {
+                int replayed = messages.replay();
+                if (replayed > 0)
+                    Logger.info("Replaying %d queued events", replayed);
+            }
+
+            @Override
+            public void stop() throws Exception {
+                if (!queue.drain(config.messageQueue.drainTimeout.toMilliseconds(), TimeUnit.MILLISECONDS))
+                    Logger.warning("Stopped with queued events, they are processed on the next start");
+            }
+        });
+    }
+
+    /**
+     * Journal of the queued events: {@code QueuedEvents} table with the Postgres backend, {@code database.url/queue}
+     * directory otherwise
+     */
+    protected EventJournal createEventJournal() {
+        if (config.database.getDriverClass().equalsIgnoreCase("fs") || config.database.getDriverClass().equalsIgnoreCase("segments")) {
+            try {
+                return new FileEventJournal(Paths.get(config.database.getUrl(), "queue"));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open event journal: " + config.database.getUrl(), e);
+            }
+        }
+
+        return new JdbiEventJournal(getJdbi(), getNodeName());
+    }
+
+    /**
+     * Name of this node, the same across restarts: {@code messageQueue.node}, or the host name when it is not set
+     */
+    protected String getNodeName() {
+        if (config.messageQueue.node != null)
+            return config.messageQueue.node;
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("messageQueue.node is not set and the host name is unknown", e);
+        }
+    }
+
+    /**
+     * Forwarder of the events of bots other nodes own, when {@code cluster.nodes} is set
+     */
+    protected EventForwarder createEventForwarder() {
+        if (!config.cluster.nodes.contains(config.cluster.self))
+            throw new IllegalArgumentException("cluster.self is not one of cluster.nodes: " + config.cluster.self);
+
+        HashRing ring = new HashRing(config.cluster.nodes, config.cluster.virtualNodes);
+        return new EventForwarder(ring, config.cluster.self, getClient(), config.token, environment.metrics());
+    }
+
+    protected EventQueue createEventQueue() {
+        ExecutorService executor = createExecutor("message-queue", config.messageQueue.threads);
+        return new EventQueue(executor, config.messageQueue.depth, environment.metrics());
+    }
+
+    /**
+     * Runs events on {@code messageQueue.lanes} lanes, each with its own thread
+     */
+    protected LaneDispatcher createLaneDispatcher() {
+        int lanes = config.messageQueue.lanes;
+        ExecutorService executor = createExecutor("message-lane", lanes);
+        return new LaneDispatcher(executor, lanes, config.messageQueue.laneDepth, environment.metrics());
+    }
+
+    /**
+     * Refills backend prekeys of active bots every {@code preKeys.refillInterval}
+     */
+    protected PreKeyTopUp createPreKeyTopUp() {
+        PreKeyRefill refill = new PreKeyRefill(config.preKeys.minimum, config.preKeys.count, getLocalPreKeys());
+        PreKeyTopUp topUp = new PreKeyTopUp(getRepo(), refill, environment.metrics());
+
+        long interval = config.preKeys.refillInterval.toMilliseconds();
+        getPreKeyScheduler().scheduleWithFixedDelay(topUp, interval, interval, TimeUnit.MILLISECONDS);
+        return topUp;
+    }
+
+    /**
+     * Checks backend prekeys of all bots in the storage every {@code preKeys.sweepInterval} and refills the ones
+     * below {@code preKeys.minimum}
+     */
+    protected PreKeySweeper createPreKeySweeper() {
+        PreKeyRefill refill = new PreKeyRefill(config.preKeys.minimum, config.preKeys.count, getLocalPreKeys());
+        PreKeySweeper sweeper = new PreKeySweeper(getRepo(),
+                getBotDirectory(),
+                refill,
+                createExecutor("prekeys-sweep", config.preKeys.sweepThreads),
+                config.preKeys.sweepBatch,
+                config.preKeys.sweepRate,
+                environment.metrics());
+
+        long interval = config.preKeys.sweepInterval.toMilliseconds();
+        getPreKeyScheduler().scheduleWithFixedDelay(sweeper, interval, interval, TimeUnit.MILLISECONDS);
+        return sweeper;
+    }
+
+    // one thread, so top-ups and sweeps never run at the same time
+    private ScheduledExecutorService getPreKeyScheduler() {
+        if (preKeyScheduler == null) {
+            preKeyScheduler = environment.lifecycle()
+                    .scheduledExecutorService("prekeys-%d")
+                    .build();
+        }
+        return preKeyScheduler;
     }
 
     protected void botResource() {
         StorageFactory storageFactory = getStorageFactory();
         CryptoFactory cryptoFactory = getCryptoFactory();
+        PreKeyPool preKeyPool = config.preKeys.pool > 0 ? createPreKeyPool(cryptoFactory) : null;
+
+        addResource(new BotsResource(messageHandler, storageFactory, cryptoFactory, preKeyPool));
+    }
+
+    /**
+     * Pool of crypto boxes generated ahead for new bots, in the same storage as the bots' boxes
+     */
+    protected PreKeyPool createPreKeyPool(CryptoFactory cryptoFactory) {
+        // generating boxes is CPU bound: one platform thread whatever virtualThreads says
+        ExecutorService executor = environment.lifecycle()
+                .executorService("prekeys-pool-%d")
+                .minThreads(1)
+                .maxThreads(1)
+                .build();
+        PreKeyPool pool = new PreKeyPool(cryptoFactory,
+                getCryptoTransfer(),
+                executor,
+                getNodeName(),
+                config.preKeys.pool,
+                BotsResource.PREKEYS,
+                environment.metrics());
+        environment.lifecycle().manage(pool);
+        return pool;
+    }
+
+    public CryptoTransfer getCryptoTransfer() {
+        if (config.database.getDriverClass().equalsIgnoreCase("fs")) {
+            return new FileCryptoTransfer(config.database.getUrl());
+        }
+        if (config.database.getDriverClass().equalsIgnoreCase("segments")) {
+            return new SegmentCryptoTransfer(getSegmentCryptoStorage());
+        }
+
+        return new JdbiCryptoTransfer(getJdbi());
+    }
+
+    public LocalPreKeys getLocalPreKeys() {
+        if (config.database.getDriverClass().equalsIgnoreCase("fs")) {
+            return new FileLocalPreKeys(config.database.getUrl());
+        }
+        if (config.database.getDriverClass().equalsIgnoreCase("segments")) {
+            return new SegmentLocalPreKeys(getSegmentCryptoStorage());
+        }
+
+        return new JdbiLocalPreKeys(getJdbi());
+    }
+
+    public BotDirectory getBotDirectory() {
+        if (config.database.getDriverClass().equalsIgnoreCase("fs")) {
+            return new FileBotDirectory(config.database.getUrl());
+        }
+        if (config.database.getDriverClass().equalsIgnoreCase("segments")) {
+            return new SegmentBotDirectory(getSegmentStore());
+        }
 
-        addResource(new BotsResource(messageHandler, storageFactory, cryptoFactory));
+        return new JdbiBotDirectory(getJdbi());
     }
 
     protected void addTask(Task task) {
@@ -0,0 +1,118 @@
+package com.wire.lithium;
+
+import io.dropwizard.client.DropwizardApacheConnector;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.glassfish.jersey.client.ClientRequest;
+
+import javax.annotation.Nullable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Apache connector that streams request entities of known size instead of buffering them.
+ * Dropwizard buffers every entity when chunked encoding is disabled (that is our default) in order to send
+ * Content-Length. Requests that carry {@link #CONTENT_LENGTH} property are written straight to the socket
+ * with that Content-Length.
+ */
+class StreamingApacheConnector extends DropwizardApacheConnector {
+    static final String CONTENT_LENGTH = "com.wire.lithium.contentLength";
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    StreamingApacheConnector(CloseableHttpClient client, @Nullable RequestConfig defaultRequestConfig, boolean chunkedEncodingEnabled) {
+        super(client, defaultRequestConfig, chunkedEncodingEnabled);
+    }
+
+    @Override
+    protected HttpEntity getHttpEntity(ClientRequest jerseyRequest) {
+        Object length = jerseyRequest.getProperty(CONTENT_LENGTH);
+        if (jerseyRequest.getEntity() == null || length == null)
+            return super.getHttpEntity(jerseyRequest);
+
+        return new FixedLengthEntity(((Number) length).longValue(), outputStream -> {
+            jerseyRequest.setStreamProvider(contentLength -> outputStream);
+            jerseyRequest.writeEntity();
+        });
+    }
+
+    interface EntityWriter {
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
+
+    static class FixedLengthEntity extends AbstractHttpEntity {
+        private final long length;
+        private final EntityWriter writer;
+
+        FixedLengthEntity(long length, EntityWriter writer) {
+            this.length = length;
+            this.writer = writer;
+            setChunked(false);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        /**
+         * Not used when sending. Content is written by another thread into a pipe, a failure to write it surfaces
+         * when the stream is read to its end
+         */
+        @Override
+        public InputStream getContent() throws IOException {
+            AtomicReference<IOException> failure = new AtomicReference<>();
+            PipedInputStream input = new PipedInputStream(PIPE_SIZE);
+            PipedOutputStream output = new PipedOutputStream(input);
+
+            Thread thread = new Thread(() -> {
+                try (output) {
+                    writeTo(output);
+                } catch (IOException e) {
+                    failure.set(e);
+                }
+            }, "entity-content");
+            thread.setDaemon(true);
+            thread.start();
+
+            return new FilterInputStream(input) {
+                @Override
+                public int read() throws IOException {
+                    return check(super.read());
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return check(super.read(b, off, len));
+                }
+
+                private int check(int read) throws IOException {
+                    if (read == -1 && failure.get() != null)
+                        throw failure.get();
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            writer.writeTo(outputStream);
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.client.ConfiguredCloseableHttpClient;
+import io.dropwizard.client.DropwizardApacheConnector;
+import io.dropwizard.client.JerseyClientBuilder;
+import io.dropwizard.client.JerseyClientConfiguration;
+import io.dropwizard.setup.Environment;
+
+/**
+ * {@link JerseyClientBuilder} whose client can stream large request bodies (assets) with a fixed Content-Length
+ */
+public class StreamingClientBuilder extends JerseyClientBuilder {
+    private JerseyClientConfiguration configuration = new JerseyClientConfiguration();
+
+    public StreamingClientBuilder(Environment environment) {
+        super(environment);
+    }
+
+    public StreamingClientBuilder(MetricRegistry metricRegistry) {
+        super(metricRegistry);
+    }
+
+    @Override
+    public JerseyClientBuilder using(JerseyClientConfiguration configuration) {
+        this.configuration = configuration;
+        return super.using(configuration);
+    }
+
+    @Override
+    protected DropwizardApacheConnector createDropwizardApacheConnector(ConfiguredCloseableHttpClient configuredClient) {
+        return new StreamingApacheConnector(configuredClient.getClient(),
+                configuredClient.getDefaultRequestConfig(),
+                configuration.isChunkedEncodingEnabled());
+    }
+}
@@ -0,0 +1,175 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.wire.xenon.backend.models.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Gathers user lookups a bot makes at about the same time into one backend call. The first caller of a batch
+ * waits for the window to pass, or for the batch to fill up, then fetches all ids gathered so far for everyone.
+ * Lookups for an id that is already being fetched wait for that fetch instead of adding it again.
+ */
+public class UserResolver {
+    private final Map<UUID, Batch> open = new HashMap<>();                          // by bot
+    private final Map<Key, CompletableFuture<User>> inFlight = new HashMap<>();
+
+    private final long windowNanos;
+    private final int maxBatch;
+
+    private final Histogram batchSize;
+    private final Meter coalesced;
+
+    /**
+     * @param windowNanos How long the first lookup of a batch waits for others to join it
+     * @param maxBatch    Max number of ids fetched in one call
+     * @param metrics     Registry where batch sizes and coalesced lookups are reported
+     */
+    public UserResolver(long windowNanos, int maxBatch, MetricRegistry metrics) {
+        this.windowNanos = windowNanos;
+        this.maxBatch = maxBatch;
+
+        batchSize = metrics.histogram("users.batch.size");
+        coalesced = metrics.meter("users.coalesced");
+    }
+
+    /**
+     * @param botId   Bot ID, batches never mix bots
+     * @param userIds Users to look up
+     * @param loader  Fetches a batch of users from the backend
+     * @return Users found, in no particular order
+     */
+    public Collection<User> getUsers(UUID botId, Collection<UUID> userIds, Function<Collection<UUID>, Collection<User>> loader) {
+        List<CompletableFuture<User>> waiting = new ArrayList<>(userIds.size());
+        List<Batch> leading = new ArrayList<>();
+
+        synchronized (this) {
+            for (UUID userId : userIds) {
+                Key key = new Key(botId, userId);
+                CompletableFuture<User> future = inFlight.get(key);
+                if (future != null) {
+                    coalesced.mark();
+                    waiting.add(future);
+                    continue;
+                }
+
+                Batch batch = open.get(botId);
+                if (batch == null) {
+                    batch = new Batch();
+                    open.put(botId, batch);
+                    leading.add(batch);
+                }
+
+                future = new CompletableFuture<>();
+                batch.futures.put(userId, future);
+                inFlight.put(key, future);
+                waiting.add(future);
+
+                if (batch.futures.size() >= maxBatch) {
+                    open.remove(botId);
+                    batch.full.countDown();
+                }
+            }
+        }
+
+        for (Batch batch : leading)
+            flush(botId, batch, loader);
+
+        List<User> ret = new ArrayList<>(waiting.size());
+        for (CompletableFuture<User> future : waiting) {
+            User user = join(future);
+            if (user != null)
+                ret.add(user);
+        }
+        return ret;
+    }
+
+    private void flush(UUID botId, Batch batch, Function<Collection<UUID>, Collection<User>> loader) {
+        try {
+            batch.full.await(windowNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            open.remove(botId, batch);
+        }
+
+        Map<UUID, CompletableFuture<User>> futures = batch.futures;
+        batchSize.update(futures.size());
+        try {
+            Collection<User> users = loader.apply(new ArrayList<>(futures.keySet()));
+            for (User user : users) {
+                CompletableFuture<User> future = futures.get(user.id);
+                if (future != null)
+                    future.complete(user);
+            }
+            // users the backend does not know of
+            for (CompletableFuture<User> future : futures.values())
+                future.complete(null);
+        } catch (RuntimeException e) {
+            for (CompletableFuture<User> future : futures.values())
+                future.completeExceptionally(e);
+        } finally {
+            synchronized (this) {
+                for (UUID userId : futures.keySet())
+                    inFlight.remove(new Key(botId, userId));
+            }
+        }
+    }
+
+    private static User join(CompletableFuture<User> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private static class Batch {
+        // ids are only added while the batch is open, under the resolver's lock
+        final Map<UUID, CompletableFuture<User>> futures = new LinkedHashMap<>();
+        final CountDownLatch full = new CountDownLatch(1);
+    }
+
+    private static class Key {
+        final UUID botId;
+        final UUID userId;
+
+        Key(UUID botId, UUID userId) {
+            this.botId = botId;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return botId.equals(key.botId) && userId.equals(key.userId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(botId, userId);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.wire.lithium.crypto;
+
+import com.wire.bots.cryptobox.CryptoException;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.models.otr.PreKey;
+
+import java.util.ArrayList;
+
+/**
+ * Crypto box whose storage writes the prekeys generated by one call together, once the call is done
+ */
+class BatchingCrypto extends ForwardingCrypto {
+    /**
+     * Storage holding back the prekeys inserted between {@link #begin()} and {@link #commit()}
+     */
+    interface Batch {
+        void begin();
+
+        void commit() throws CryptoException;
+
+        // called after commit, or after the call failed: drops what was held back
+        void end();
+    }
+
+    private final Batch batch;
+
+    BatchingCrypto(Crypto crypto, Batch batch) {
+        super(crypto);
+        this.batch = batch;
+    }
+
+    @Override
+    public PreKey newLastPreKey() throws CryptoException {
+        batch.begin();
+        try {
+            PreKey ret = crypto.newLastPreKey();
+            batch.commit();
+            return ret;
+        } finally {
+            batch.end();
+        }
+    }
+
+    @Override
+    public ArrayList<PreKey> newPreKeys(int from, int count) throws CryptoException {
+        batch.begin();
+        try {
+            ArrayList<PreKey> ret = crypto.newPreKeys(from, count);
+            batch.commit();
+            return ret;
+        } finally {
+            batch.end();
+        }
+    }
+}
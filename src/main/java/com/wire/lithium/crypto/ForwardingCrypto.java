@@ -0,0 +1,73 @@
+package com.wire.lithium.crypto;
+
+import com.wire.bots.cryptobox.CryptoException;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.models.otr.Recipients;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * Crypto that passes every call on to another one. Decorators override what they add to
+ */
+abstract class ForwardingCrypto implements Crypto {
+    protected final Crypto crypto;
+
+    ForwardingCrypto(Crypto crypto) {
+        this.crypto = crypto;
+    }
+
+    @Override
+    public Recipients encrypt(PreKeys preKeys, byte[] content) throws CryptoException {
+        return crypto.encrypt(preKeys, content);
+    }
+
+    @Override
+    public Recipients encrypt(Missing missing, byte[] content) throws CryptoException {
+        return crypto.encrypt(missing, content);
+    }
+
+    @Override
+    public String decrypt(UUID userId, String clientId, String cypher) throws CryptoException {
+        return crypto.decrypt(userId, clientId, cypher);
+    }
+
+    @Override
+    public byte[] getIdentity() throws CryptoException {
+        return crypto.getIdentity();
+    }
+
+    @Override
+    public byte[] getLocalFingerprint() throws CryptoException {
+        return crypto.getLocalFingerprint();
+    }
+
+    @Override
+    public PreKey newLastPreKey() throws CryptoException {
+        return crypto.newLastPreKey();
+    }
+
+    @Override
+    public ArrayList<PreKey> newPreKeys(int from, int count) throws CryptoException {
+        return crypto.newPreKeys(from, count);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return crypto.isClosed();
+    }
+
+    @Override
+    public void purge() throws IOException {
+        crypto.purge();
+    }
+
+    @Override
+    public void close() throws IOException {
+        crypto.close();
+    }
+}
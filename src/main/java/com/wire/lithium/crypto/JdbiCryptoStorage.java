@@ -0,0 +1,100 @@
+package com.wire.lithium.crypto;
+
+import com.wire.bots.cryptobox.CryptoException;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.crypto.storage.JdbiStorage;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.JdbiException;
+import org.jdbi.v3.core.statement.PreparedBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link JdbiStorage} that writes the prekeys generated by one call in a single batch and purges a box in one
+ * transaction. Used by one crypto box at a time
+ */
+public class JdbiCryptoStorage extends JdbiStorage implements BatchingCrypto.Batch {
+    private static final String INSERT_PREKEY = "INSERT INTO Prekeys (id, kid, data) VALUES (:id, :kid, :data) " +
+            "ON CONFLICT (id, kid) DO UPDATE SET data = EXCLUDED.data";
+
+    private final Jdbi jdbi;
+    private final List<Row> pending = new ArrayList<>();
+    private boolean batching;
+
+    public JdbiCryptoStorage(Jdbi jdbi) {
+        super(jdbi);
+        this.jdbi = jdbi;
+    }
+
+    /**
+     * @param crypto Crypto box opened on this storage
+     * @return Crypto box whose new prekeys are inserted in one batch
+     */
+    public Crypto wrap(Crypto crypto) {
+        return new BatchingCrypto(crypto, this);
+    }
+
+    @Override
+    public synchronized void insertPrekey(String id, int kid, byte[] data) {
+        if (batching)
+            pending.add(new Row(id, kid, data));
+        else
+            super.insertPrekey(id, kid, data);
+    }
+
+    @Override
+    public void purge(String id) {
+        jdbi.useTransaction(handle -> {
+            for (String table : new String[]{"Sessions", "Identities", "Prekeys"}) {
+                handle.createUpdate("DELETE FROM " + table + " WHERE id = :id")
+                        .bind("id", id)
+                        .execute();
+            }
+        });
+    }
+
+    @Override
+    public synchronized void begin() {
+        batching = true;
+    }
+
+    @Override
+    public synchronized void commit() throws CryptoException {
+        if (pending.isEmpty())
+            return;
+
+        try {
+            jdbi.useTransaction(handle -> {
+                PreparedBatch batch = handle.prepareBatch(INSERT_PREKEY);
+                for (Row row : pending) {
+                    batch.bind("id", row.id)
+                            .bind("kid", row.kid)
+                            .bind("data", row.data)
+                            .add();
+                }
+                batch.execute();
+            });
+        } catch (JdbiException e) {
+            throw new CryptoException(e);
+        }
+    }
+
+    @Override
+    public synchronized void end() {
+        batching = false;
+        pending.clear();
+    }
+
+    private static class Row {
+        final String id;
+        final int kid;
+        final byte[] data;
+
+        Row(String id, int kid, byte[] data) {
+            this.id = id;
+            this.kid = kid;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.wire.lithium.crypto;
+
+import com.wire.bots.cryptobox.CryptoException;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.models.otr.Recipients;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Crypto whose session operations hold the {@link SessionLocks} locks of the sessions involved
+ */
+class LockingCrypto extends ForwardingCrypto {
+    private final UUID botId;
+    private final SessionLocks locks;
+
+    LockingCrypto(UUID botId, Crypto crypto, SessionLocks locks) {
+        super(crypto);
+        this.botId = botId;
+        this.locks = locks;
+    }
+
+    @Override
+    public Recipients encrypt(PreKeys preKeys, byte[] content) throws CryptoException {
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<UUID, HashMap<String, PreKey>> entry : preKeys.entrySet()) {
+            for (String clientId : entry.getValue().keySet())
+                keys.add(SessionLocks.key(botId, entry.getKey(), clientId));
+        }
+
+        List<Lock> held = locks.lock(keys);
+        try {
+            return crypto.encrypt(preKeys, content);
+        } finally {
+            locks.unlock(held);
+        }
+    }
+
+    @Override
+    public Recipients encrypt(Missing missing, byte[] content) throws CryptoException {
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<UUID, Collection<String>> entry : missing.entrySet()) {
+            for (String clientId : entry.getValue())
+                keys.add(SessionLocks.key(botId, entry.getKey(), clientId));
+        }
+
+        List<Lock> held = locks.lock(keys);
+        try {
+            return crypto.encrypt(missing, content);
+        } finally {
+            locks.unlock(held);
+        }
+    }
+
+    @Override
+    public String decrypt(UUID userId, String clientId, String cypher) throws CryptoException {
+        List<Lock> held = locks.lock(Collections.singletonList(SessionLocks.key(botId, userId, clientId)));
+        try {
+            return crypto.decrypt(userId, clientId, cypher);
+        } finally {
+            locks.unlock(held);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.wire.lithium.crypto;
+
+import com.wire.bots.cryptobox.CryptoException;
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.bots.cryptobox.PreKey;
+import com.wire.bots.cryptobox.StorageException;
+import com.wire.lithium.storage.SegmentStore;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.crypto.CryptoDatabase;
+import com.wire.xenon.tools.Logger;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Crypto boxes kept in the {@link SegmentStore}. The native box still needs a working directory: every box opened
+ * gets its own, filled from the store, and deletes it when closed, so files only exist for the boxes in use.
+ * The prekeys generated by one call are written in a single batch
+ */
+public class SegmentCryptoStorage implements IStorage, BatchingCrypto.Batch {
+    private static final String IDENTITY = "identity/";
+    private static final String PREKEY = "prekey/";
+    private static final String SESSION = "session/";
+
+    private final SegmentStore store;
+    private final Path workingDir;
+    @Nullable
+    private SegmentStore.Batch batch;   // prekeys of the call generating them, when the storage is a box's
+
+    /**
+     * @param store      Store holding the boxes
+     * @param workingDir Directory where opened boxes keep their working copy
+     */
+    public SegmentCryptoStorage(SegmentStore store, Path workingDir) {
+        this.store = store;
+        this.workingDir = workingDir;
+    }
+
+    /**
+     * @param botId Bot ID
+     * @return Bot's crypto box
+     */
+    public Crypto create(UUID botId) throws CryptoException {
+        Path dir = workingDir.resolve(UUID.randomUUID().toString());
+        SegmentCryptoStorage box = new SegmentCryptoStorage(store, workingDir);
+        return new BatchingCrypto(new CryptoDatabase(botId, box, dir.toString()), box) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    crypto.close();
+                } finally {
+                    delete(dir);
+                }
+            }
+
+            @Override
+            public void purge() throws IOException {
+                try {
+                    crypto.purge();
+                } finally {
+                    delete(dir);
+                }
+            }
+        };
+    }
+
+    /**
+     * Moves a box to another id. After a crash the box is found whole under one of them
+     *
+     * @param from Current box id
+     * @param to   New box id
+     */
+    public void transfer(UUID from, UUID to) throws IOException {
+        Map<String, String> prefixes = new HashMap<>();
+        for (String prefix : new String[]{IDENTITY, PREKEY, SESSION})
+            prefixes.put(prefix + from + '/', prefix + to + '/');
+        store.movePrefix(prefixes);
+    }
+
+    @Override
+    public IRecord fetchSession(String id, String sid) {
+        String key = SESSION + id + '/' + sid;
+        byte[] data = store.get(key);
+        return new IRecord() {
+            @Override
+            public byte[] getData() {
+                return data;
+            }
+
+            @Override
+            public void persist(byte[] update) {
+                if (update == null)
+                    return;
+                try {
+                    store.put(key, update);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to persist session: " + key, e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public byte[] fetchIdentity(String id) {
+        return store.get(IDENTITY + id + '/');
+    }
+
+    @Override
+    public void insertIdentity(String id, byte[] data) throws StorageException {
+        put(IDENTITY + id + '/', data);
+    }
+
+    @Override
+    public PreKey[] fetchPrekeys(String id) {
+        String prefix = PREKEY + id + '/';
+        List<String> keys = store.keys(prefix);
+        if (keys.isEmpty())
+            return null;
+
+        PreKey[] ret = new PreKey[keys.size()];
+        for (int i = 0; i < ret.length; i++) {
+            String key = keys.get(i);
+            ret[i] = new PreKey(Integer.parseInt(key.substring(prefix.length())), store.get(key));
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized void insertPrekey(String id, int kid, byte[] data) throws StorageException {
+        if (batch != null)
+            batch.put(PREKEY + id + '/' + kid, data);
+        else
+            put(PREKEY + id + '/' + kid, data);
+    }
+
+    @Override
+    public void purge(String id) throws StorageException {
+        try {
+            store.deletePrefix(IDENTITY + id + '/', PREKEY + id + '/', SESSION + id + '/');
+        } catch (IOException e) {
+            throw storageException(e);
+        }
+    }
+
+    @Override
+    public synchronized void begin() {
+        batch = new SegmentStore.Batch();
+    }
+
+    @Override
+    public synchronized void commit() throws CryptoException {
+        try {
+            store.write(batch);
+        } catch (IOException e) {
+            throw new CryptoException(e);
+        }
+    }
+
+    @Override
+    public synchronized void end() {
+        batch = null;
+    }
+
+    private void put(String key, byte[] data) throws StorageException {
+        try {
+            store.put(key, data);
+        } catch (IOException e) {
+            throw storageException(e);
+        }
+    }
+
+    private static StorageException storageException(IOException e) {
+        StorageException ret = new StorageException(e.getMessage());
+        ret.initCause(e);
+        return ret;
+    }
+
+    private static void delete(Path dir) {
+        if (!Files.exists(dir))
+            return;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            Logger.warning("SegmentCryptoStorage: failed to delete %s: %s", dir, e);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.wire.lithium.crypto;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.bots.cryptobox.PreKey;
+import com.wire.bots.cryptobox.StorageException;
+import com.wire.lithium.storage.ClusterInvalidator;
+import com.wire.xenon.crypto.Crypto;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-behind buffer for crypto sessions. Session updates are kept in memory while the event that made them is
+ * processed and written to the storage when its crypto box is closed, so the session is durable before the event
+ * is acknowledged. Events of the same session that run at about the same time share one write of the latest state,
+ * and read the session from memory instead of the storage while it is not written yet.
+ * Sessions are only cached until written: a bot's events are expected to be handled by one node at a time.
+ * With a {@link ClusterInvalidator} the other nodes are told about written sessions and purged boxes, and sessions
+ * another node wrote are read from the storage again. Updates of this node still pending are written regardless.
+ */
+public class SessionBuffer {
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    @Nullable
+    private final ClusterInvalidator invalidator;
+
+    private final Meter writes;
+    private final Meter coalesced;
+    private final Meter hits;
+    private final Meter conflicts;
+
+    public SessionBuffer(MetricRegistry metrics) {
+        this(null, metrics);
+    }
+
+    /**
+     * @param invalidator Keeps the other nodes in line, null when this is the only node
+     * @param metrics     Registry where storage writes, coalesced writes, reads served from memory and sessions
+     *                    also written by another node are reported
+     */
+    public SessionBuffer(@Nullable ClusterInvalidator invalidator, MetricRegistry metrics) {
+        this.invalidator = invalidator;
+        writes = metrics.meter("crypto.sessions.writes");
+        coalesced = metrics.meter("crypto.sessions.coalesced");
+        hits = metrics.meter("crypto.sessions.hits");
+        conflicts = metrics.meter("crypto.sessions.conflicts");
+
+        if (invalidator != null) {
+            invalidator.addListener(new ClusterInvalidator.Listener() {
+                @Override
+                public void sessionChanged(String id, String sid) {
+                    if (entries.remove(key(id, sid)) != null)
+                        conflicts.mark();
+                }
+
+                @Override
+                public void purged(String id) {
+                    removeBox(id);
+                }
+
+                // nothing to drop: sessions are only held until written, which is before their event is done
+                @Override
+                public void missed() {
+                }
+            });
+        }
+    }
+
+    /**
+     * @param storage Storage of one crypto box
+     * @return Storage whose session updates are held back until {@link BufferedStorage#flush()}
+     */
+    public BufferedStorage storage(IStorage storage) {
+        return new BufferedStorage(storage);
+    }
+
+    /**
+     * @param crypto  Crypto box opened on the storage
+     * @param storage Buffered storage the box was opened on
+     * @return Crypto box that flushes the storage when closed
+     */
+    public Crypto wrap(Crypto crypto, BufferedStorage storage) {
+        return new ForwardingCrypto(crypto) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    storage.flush();
+                } finally {
+                    crypto.close();
+                }
+            }
+        };
+    }
+
+    private static String key(String id, String sid) {
+        return id + '/' + sid;
+    }
+
+    private void removeBox(String id) {
+        String prefix = id + '/';
+        entries.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    private void write(Entry entry, long version) throws StorageException {
+        synchronized (entry.flushLock) {
+            byte[] data;
+            long latest;
+            synchronized (entry) {
+                if (entry.durable >= version) {
+                    coalesced.mark();
+                    return;
+                }
+                data = entry.data;
+                latest = entry.version;
+            }
+
+            entry.record.persist(data);
+            writes.mark();
+            if (invalidator != null)
+                invalidator.sessionChanged(entry.id, entry.sid);
+
+            synchronized (entry) {
+                entry.durable = latest;
+            }
+        }
+
+        // nothing newer came in: reads go back to the storage
+        entries.computeIfPresent(entry.key, (k, current) -> {
+            synchronized (current) {
+                return current == entry && current.durable == current.version ? null : current;
+            }
+        });
+    }
+
+    private static class Entry {
+        final String id;
+        final String sid;
+        final String key;
+        final IRecord record;       // writes to the storage
+        final Object flushLock = new Object();
+        byte[] data;
+        long version;
+        long durable;
+
+        Entry(String id, String sid, IRecord record) {
+            this.id = id;
+            this.sid = sid;
+            this.key = key(id, sid);
+            this.record = record;
+        }
+    }
+
+    /**
+     * Storage of one crypto box, remembers the sessions it updated until they are flushed
+     */
+    public class BufferedStorage implements IStorage {
+        private final IStorage storage;
+        private final Map<Entry, Long> pending = new HashMap<>();
+        private boolean flushed;
+
+        BufferedStorage(IStorage storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        public IRecord fetchSession(String id, String sid) throws StorageException {
+            String key = key(id, sid);
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                synchronized (entry) {
+                    if (entry.durable < entry.version) {
+                        hits.mark();
+                        return new Record(id, sid, entry.record, entry.data);
+                    }
+                }
+            }
+
+            IRecord record = storage.fetchSession(id, sid);
+            return new Record(id, sid, record, record == null ? null : record.getData());
+        }
+
+        /**
+         * Writes the sessions updated through this storage, unless a later write already covered them.
+         * Sessions cannot be updated through it afterwards
+         *
+         * @throws StorageException when a session could not be written. Sessions not written stay pending
+         */
+        public void flush() throws StorageException {
+            synchronized (this) {
+                flushed = true;
+                for (Map.Entry<Entry, Long> e : new HashMap<>(pending).entrySet()) {
+                    write(e.getKey(), e.getValue());
+                    pending.remove(e.getKey());
+                }
+            }
+        }
+
+        @Override
+        public byte[] fetchIdentity(String id) throws StorageException {
+            return storage.fetchIdentity(id);
+        }
+
+        @Override
+        public void insertIdentity(String id, byte[] data) throws StorageException {
+            storage.insertIdentity(id, data);
+        }
+
+        @Override
+        public PreKey[] fetchPrekeys(String id) throws StorageException {
+            return storage.fetchPrekeys(id);
+        }
+
+        @Override
+        public void insertPrekey(String id, int kid, byte[] data) throws StorageException {
+            storage.insertPrekey(id, kid, data);
+        }
+
+        @Override
+        public void purge(String id) throws StorageException {
+            removeBox(id);
+            synchronized (this) {
+                pending.clear();
+            }
+            storage.purge(id);
+            if (invalidator != null)
+                invalidator.purged(id);
+        }
+
+        private class Record implements IRecord {
+            private final String id;
+            private final String sid;
+            private final IRecord record;
+            private final byte[] data;
+
+            Record(String id, String sid, IRecord record, byte[] data) {
+                this.id = id;
+                this.sid = sid;
+                this.record = record;
+                this.data = data;
+            }
+
+            @Override
+            public byte[] getData() {
+                return data;
+            }
+
+            @Override
+            public void persist(byte[] update) {
+                if (update == null || record == null)
+                    return;
+
+                synchronized (BufferedStorage.this) {
+                    // an update nothing would write anymore: the box was closed before its session was saved
+                    if (flushed)
+                        throw new IllegalStateException("Session updated after its storage was flushed: " + key(id, sid));
+
+                    // updated within compute so the entry cannot be dropped by a concurrent write in between
+                    long[] version = new long[1];
+                    Entry entry = entries.compute(key(id, sid), (k, current) -> {
+                        Entry e = current != null ? current : new Entry(id, sid, record);
+                        synchronized (e) {
+                            e.data = update;
+                            version[0] = ++e.version;
+                        }
+                        return e;
+                    });
+                    pending.put(entry, version[0]);
+                }
+            }
+        }
+    }
+}
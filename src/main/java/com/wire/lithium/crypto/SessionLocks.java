@@ -0,0 +1,83 @@
+package com.wire.lithium.crypto;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.Striped;
+import com.wire.xenon.crypto.Crypto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * In-process locks on crypto sessions, so threads of this node using the same session take turns here instead of
+ * on the storage. Sessions are mapped onto a fixed number of lock stripes; two sessions may share a stripe.
+ */
+public class SessionLocks {
+    private final Striped<Lock> stripes;
+
+    private final Timer wait;
+    private final Meter contended;
+
+    /**
+     * @param stripes Number of locks the sessions are spread over
+     * @param metrics Registry where lock wait times and contention are reported
+     */
+    public SessionLocks(int stripes, MetricRegistry metrics) {
+        this.stripes = Striped.lock(stripes);
+
+        wait = metrics.timer("crypto.locks.wait");
+        contended = metrics.meter("crypto.locks.contended");
+    }
+
+    /**
+     * @param botId  Bot ID
+     * @param crypto Bot's crypto box
+     * @return Crypto that locks the sessions it encrypts or decrypts with for the duration of the call
+     */
+    public Crypto wrap(UUID botId, Crypto crypto) {
+        return new LockingCrypto(botId, crypto, this);
+    }
+
+    static String key(UUID botId, UUID userId, String clientId) {
+        return botId.toString() + userId + clientId;
+    }
+
+    /**
+     * Blocks until all these sessions are free. Locks are always taken in the same order, so callers locking
+     * overlapping sessions cannot deadlock
+     *
+     * @param keys Session keys
+     * @return Locks held, to be released with {@link #unlock(List)}
+     */
+    List<Lock> lock(List<String> keys) {
+        long start = System.nanoTime();
+        boolean waited = false;
+
+        List<Lock> held = new ArrayList<>(keys.size());
+        for (Lock lock : stripes.bulkGet(keys)) {
+            // bulkGet returns the same stripe once per key
+            if (!held.isEmpty() && held.get(held.size() - 1) == lock)
+                continue;
+
+            if (!lock.tryLock()) {
+                waited = true;
+                lock.lock();
+            }
+            held.add(lock);
+        }
+
+        if (waited)
+            contended.mark();
+        wait.update(waited ? System.nanoTime() - start : 0, TimeUnit.NANOSECONDS);
+        return held;
+    }
+
+    void unlock(List<Lock> held) {
+        for (int i = held.size() - 1; i >= 0; i--)
+            held.get(i).unlock();
+    }
+}
@@ -0,0 +1,18 @@
+package com.wire.lithium.prekeys;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Lists the bots that have a state in the storage, page by page
+ */
+public interface BotDirectory {
+    /**
+     * @param after Last bot of the previous page, null for the first page
+     * @param limit Max number of bots returned
+     * @return Bot ids in ascending order. Fewer than limit on the last page
+     */
+    List<UUID> list(@Nullable UUID after, int limit) throws IOException;
+}
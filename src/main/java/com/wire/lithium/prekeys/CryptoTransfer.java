@@ -0,0 +1,16 @@
+package com.wire.lithium.prekeys;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Hands the key material of one crypto box over to another id, in the storage the boxes are kept in
+ */
+public interface CryptoTransfer {
+    /**
+     * @param from Id the box was created with
+     * @param to   New id. Must not have a box yet
+     * @throws IOException when the box could not be moved. Nothing is moved in that case
+     */
+    void transfer(UUID from, UUID to) throws IOException;
+}
@@ -0,0 +1,66 @@
+package com.wire.lithium.prekeys;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Directory for {@link com.wire.xenon.state.FileState}: every bot is a directory with a state file.
+ * The root is listed once per sweep, on the first page; later pages are served from that listing, so bots
+ * added during a sweep are seen by the next one
+ */
+public class FileBotDirectory implements BotDirectory {
+    private static final String STATE_FILENAME = "state.json";
+
+    private final Path root;
+    @Nullable
+    private volatile List<UUID> listing;
+
+    public FileBotDirectory(String rootDir) {
+        this.root = Paths.get(rootDir);
+    }
+
+    @Override
+    public List<UUID> list(@Nullable UUID after, int limit) throws IOException {
+        List<UUID> bots = listing;
+        if (after == null || bots == null) {
+            bots = scan();
+            listing = bots;
+        }
+
+        int from = 0;
+        if (after != null) {
+            int i = Collections.binarySearch(bots, after);
+            from = i >= 0 ? i + 1 : -i - 1;
+        }
+        int to = (int) Math.min(bots.size(), (long) from + limit);
+        return new ArrayList<>(bots.subList(from, to));
+    }
+
+    private List<UUID> scan() throws IOException {
+        try (Stream<Path> dirs = Files.list(root)) {
+            return dirs.filter(dir -> Files.exists(dir.resolve(STATE_FILENAME)))
+                    .map(dir -> parse(dir.getFileName().toString()))
+                    .filter(botId -> botId != null)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Nullable
+    private static UUID parse(String name) {
+        try {
+            return UUID.fromString(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
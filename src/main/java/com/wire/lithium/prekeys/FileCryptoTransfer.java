@@ -0,0 +1,64 @@
+package com.wire.lithium.prekeys;
+
+import com.wire.xenon.tools.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Transfer for {@link com.wire.xenon.crypto.CryptoFile}: every box is a directory named by its id. The bot's
+ * directory may already exist, {@link com.wire.xenon.state.FileState} keeps the state in it
+ */
+public class FileCryptoTransfer implements CryptoTransfer {
+    private final Path root;
+
+    public FileCryptoTransfer(String rootDir) {
+        this.root = Paths.get(rootDir);
+    }
+
+    @Override
+    public void transfer(UUID from, UUID to) throws IOException {
+        Path source = root.resolve(from.toString());
+        Path target = root.resolve(to.toString());
+        if (!Files.exists(target)) {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+
+        List<Path> entries;
+        try (Stream<Path> list = Files.list(source)) {
+            entries = list.collect(Collectors.toList());
+        }
+        for (Path entry : entries) {
+            if (Files.exists(target.resolve(entry.getFileName())))
+                throw new IOException("Crypto box already exists: " + target);
+        }
+
+        List<Path> moved = new ArrayList<>();
+        try {
+            for (Path entry : entries) {
+                Files.move(entry, target.resolve(entry.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+                moved.add(entry);
+            }
+        } catch (IOException e) {
+            // put back what was moved, so the box stays whole under its old id
+            for (Path entry : moved) {
+                try {
+                    Files.move(target.resolve(entry.getFileName()), entry, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException ex) {
+                    Logger.warning("FileCryptoTransfer: failed to move back %s: %s", entry, ex);
+                }
+            }
+            throw e;
+        }
+        Files.delete(source);
+    }
+}
@@ -0,0 +1,41 @@
+package com.wire.lithium.prekeys;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Local prekeys of {@link com.wire.xenon.crypto.CryptoFile}: one file per prekey, named by its id
+ */
+public class FileLocalPreKeys implements LocalPreKeys {
+    private static final String PREKEYS_DIR = "prekeys";
+
+    private final Path root;
+
+    public FileLocalPreKeys(String rootDir) {
+        this.root = Paths.get(rootDir);
+    }
+
+    @Override
+    public List<Integer> ids(UUID botId) throws IOException {
+        Path dir = root.resolve(botId.toString()).resolve(PREKEYS_DIR);
+        List<Integer> ret = new ArrayList<>();
+        if (!Files.isDirectory(dir))
+            return ret;
+
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                try {
+                    ret.add(Integer.parseInt(file.getFileName().toString()));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return ret;
+    }
+}
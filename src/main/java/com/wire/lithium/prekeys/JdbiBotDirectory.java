@@ -0,0 +1,36 @@
+package com.wire.lithium.prekeys;
+
+import org.jdbi.v3.core.Jdbi;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Directory for {@link com.wire.xenon.state.JdbiState}: bots are listed in the order of their ids in the States table
+ */
+public class JdbiBotDirectory implements BotDirectory {
+    private final Jdbi jdbi;
+
+    public JdbiBotDirectory(Jdbi jdbi) {
+        this.jdbi = jdbi;
+    }
+
+    @Override
+    public List<UUID> list(@Nullable UUID after, int limit) {
+        if (after == null) {
+            return jdbi.withHandle(handle -> handle
+                    .createQuery("SELECT botId FROM States ORDER BY botId LIMIT :limit")
+                    .bind("limit", limit)
+                    .mapTo(UUID.class)
+                    .list());
+        }
+
+        return jdbi.withHandle(handle -> handle
+                .createQuery("SELECT botId FROM States WHERE botId > :after ORDER BY botId LIMIT :limit")
+                .bind("after", after)
+                .bind("limit", limit)
+                .mapTo(UUID.class)
+                .list());
+    }
+}
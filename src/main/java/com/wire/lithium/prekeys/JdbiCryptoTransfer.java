@@ -0,0 +1,49 @@
+package com.wire.lithium.prekeys;
+
+import com.wire.xenon.tools.Logger;
+import org.jdbi.v3.core.Jdbi;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * Transfer for {@link com.wire.xenon.crypto.CryptoDatabase}: rows of the box are moved in one transaction
+ */
+public class JdbiCryptoTransfer implements CryptoTransfer {
+    private static final String WORKING_DIR = "data";   // local copy CryptoDb keeps next to the database
+
+    private final Jdbi jdbi;
+
+    public JdbiCryptoTransfer(Jdbi jdbi) {
+        this.jdbi = jdbi;
+    }
+
+    @Override
+    public void transfer(UUID from, UUID to) throws IOException {
+        try {
+            jdbi.useTransaction(handle -> {
+                for (String table : new String[]{"Identities", "Prekeys", "Sessions"}) {
+                    handle.createUpdate("UPDATE " + table + " SET id = :to WHERE id = :from")
+                            .bind("from", from.toString())
+                            .bind("to", to.toString())
+                            .execute();
+                }
+            });
+        } catch (Exception e) {
+            throw new IOException("Failed to transfer crypto box: " + from + " to: " + to, e);
+        }
+
+        // the database is the source of truth, the working copy is recreated from it when missing
+        Path working = Paths.get(WORKING_DIR, from.toString());
+        try {
+            if (Files.exists(working))
+                Files.move(working, Paths.get(WORKING_DIR, to.toString()), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.warning("JdbiCryptoTransfer: failed to move working copy %s: %s", working, e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.wire.lithium.prekeys;
+
+import org.jdbi.v3.core.Jdbi;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Local prekeys of {@link com.wire.xenon.crypto.CryptoDatabase}: rows of the Prekeys table
+ */
+public class JdbiLocalPreKeys implements LocalPreKeys {
+    private final Jdbi jdbi;
+
+    public JdbiLocalPreKeys(Jdbi jdbi) {
+        this.jdbi = jdbi;
+    }
+
+    @Override
+    public List<Integer> ids(UUID botId) {
+        return jdbi.withHandle(handle -> handle
+                .createQuery("SELECT kid FROM Prekeys WHERE id = :id")
+                .bind("id", botId.toString())
+                .mapTo(Integer.class)
+                .list());
+    }
+}
@@ -0,0 +1,18 @@
+package com.wire.lithium.prekeys;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Prekeys a bot's crypto box still holds: the ones no session was established with yet, whether the backend still
+ * has them or already handed them out
+ */
+public interface LocalPreKeys {
+    /**
+     * @param botId Bot ID
+     * @return Ids of the prekeys in the bot's box
+     * @throws IOException when the box could not be read
+     */
+    List<Integer> ids(UUID botId) throws IOException;
+}
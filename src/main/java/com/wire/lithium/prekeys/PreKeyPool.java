@@ -0,0 +1,207 @@
+package com.wire.lithium.prekeys;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.factories.CryptoFactory;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps crypto boxes with their prekeys generated ahead of time, so new bots do not wait for key generation.
+ * Boxes are created under one of {@code size} ids derived from the node name and handed over to the bot id when
+ * taken from the pool. Boxes left in the pool are purged when the application stops, and whatever a crash left
+ * under those ids is purged before they are used again.
+ */
+public class PreKeyPool implements Managed {
+    private static final long RETRY_DELAY = 1_000;     // ms, doubled on every failure in a row
+    private static final long MAX_RETRY_DELAY = 60_000;
+
+    private final ConcurrentLinkedQueue<Keys> ready = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<UUID> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();   // ready + being generated
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile boolean stopped;
+
+    private final CryptoFactory cf;
+    private final CryptoTransfer transfer;
+    private final Executor executor;
+    private final int size;
+    private final int count;
+
+    private final Timer generation;
+    private final Meter hits;
+    private final Meter misses;
+
+    /**
+     * @param cf       Crypto factory of the storage the bots use
+     * @param transfer Moves pooled boxes to the bot id in that storage
+     * @param executor Executor generating the keys in the background
+     * @param node     Name of this node, the same across restarts. Nodes sharing the storage need different names
+     * @param size     Number of boxes kept ready
+     * @param count    Number of prekeys generated for every box, besides the last prekey
+     * @param metrics  Registry where pool size, hits, misses and generation times are reported
+     */
+    public PreKeyPool(CryptoFactory cf, CryptoTransfer transfer, Executor executor, String node, int size, int count,
+                      MetricRegistry metrics) {
+        for (int slot = 0; slot < size; slot++)
+            free.add(poolId(node, slot));
+
+        this.cf = cf;
+        this.transfer = transfer;
+        this.executor = executor;
+        this.size = size;
+        this.count = count;
+
+        generation = metrics.timer("prekeys.pool.generation");
+        hits = metrics.meter("prekeys.pool.hits");
+        misses = metrics.meter("prekeys.pool.misses");
+        metrics.register("prekeys.pool.size", (Gauge<Integer>) ready::size);
+    }
+
+    @Override
+    public void start() {
+        refill();
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        Keys keys;
+        while ((keys = ready.poll()) != null)
+            discard(keys);
+    }
+
+    /**
+     * Hands a pre-generated box over to this bot
+     *
+     * @param botId New bot
+     * @return Prekeys of the box now owned by the bot, or null when the pool is empty and the caller has to
+     * generate them itself
+     */
+    @Nullable
+    public Keys take(UUID botId) {
+        Keys keys = ready.poll();
+        if (keys == null) {
+            misses.mark();
+            refill();
+            return null;
+        }
+
+        try {
+            transfer.transfer(keys.poolId, botId);
+            hits.mark();
+            return keys;
+        } catch (Exception e) {
+            Logger.exception("PreKeyPool: bot: %s, %s", e, botId, e.getMessage());
+            misses.mark();
+            purge(keys.poolId);
+            return null;
+        } finally {
+            release(keys.poolId);
+            refill();
+        }
+    }
+
+    public int getReady() {
+        return ready.size();
+    }
+
+    private void refill() {
+        while (!stopped) {
+            int current = pending.get();
+            if (current >= size)
+                return;
+            if (pending.compareAndSet(current, current + 1))
+                executor.execute(this::generate);
+        }
+    }
+
+    private void generate() {
+        UUID poolId = free.poll();
+        if (stopped || poolId == null) {
+            release(poolId);
+            return;
+        }
+
+        // a box left under this id by a crash, or by a stop during generation
+        purge(poolId);
+
+        try (Timer.Context ignored = generation.time(); Crypto crypto = cf.create(poolId)) {
+            PreKey lastPreKey = crypto.newLastPreKey();
+            ArrayList<PreKey> preKeys = crypto.newPreKeys(0, count);
+            failures.set(0);
+            ready.add(new Keys(poolId, lastPreKey, preKeys));
+        } catch (Exception e) {
+            Logger.exception("PreKeyPool: failed to generate keys: %s", e, e.getMessage());
+            purge(poolId);
+            release(poolId);
+            retry();
+            return;
+        }
+
+        // stop() has emptied the pool already
+        if (stopped) {
+            Keys keys;
+            while ((keys = ready.poll()) != null)
+                discard(keys);
+        }
+    }
+
+    private void retry() {
+        long delay = Math.min(RETRY_DELAY << Math.min(failures.getAndIncrement(), 6), MAX_RETRY_DELAY);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        refill();
+    }
+
+    private void release(@Nullable UUID poolId) {
+        if (poolId != null)
+            free.add(poolId);
+        pending.decrementAndGet();
+    }
+
+    private void discard(Keys keys) {
+        purge(keys.poolId);
+        release(keys.poolId);
+    }
+
+    private void purge(UUID poolId) {
+        try (Crypto crypto = cf.create(poolId)) {
+            crypto.purge();
+        } catch (Exception e) {
+            Logger.warning("PreKeyPool: failed to purge: %s, %s", poolId, e);
+        }
+    }
+
+    private static UUID poolId(String node, int slot) {
+        return UUID.nameUUIDFromBytes(("prekeys-pool/" + node + "/" + slot).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static class Keys {
+        final UUID poolId;
+        public final PreKey lastPreKey;
+        public final ArrayList<PreKey> preKeys;
+
+        Keys(UUID poolId, PreKey lastPreKey, ArrayList<PreKey> preKeys) {
+            this.poolId = poolId;
+            this.lastPreKey = lastPreKey;
+            this.preKeys = preKeys;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.wire.lithium.prekeys;
+
+import com.wire.xenon.WireClient;
+import com.wire.xenon.models.otr.PreKey;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Tops up the prekeys the backend holds for a bot, so new sessions can still be established with it
+ */
+public class PreKeyRefill {
+    static final int LAST_PREKEY_ID = 0xFFFF;
+
+    private final int minimum;
+    private final int count;
+    @Nullable
+    private final LocalPreKeys local;
+
+    public PreKeyRefill(int minimum, int count) {
+        this(minimum, count, null);
+    }
+
+    /**
+     * @param minimum Refill when the backend has fewer prekeys than this
+     * @param count   Number of prekeys the backend should have after the refill
+     * @param local   Prekeys the boxes still hold. Without it new ids are picked from what the backend has, which
+     *                can overwrite prekeys that were handed out but not used yet
+     */
+    public PreKeyRefill(int minimum, int count, @Nullable LocalPreKeys local) {
+        this.minimum = minimum;
+        this.count = count;
+        this.local = local;
+    }
+
+    /**
+     * @param client Bot's client
+     * @return Number of prekeys uploaded
+     * @throws Exception when prekeys could not be checked, generated or uploaded
+     */
+    public int refill(WireClient client) throws Exception {
+        return refill(client, client.getAvailablePrekeys());
+    }
+
+    /**
+     * @param client    Bot's client
+     * @param available Prekey ids the backend still has for this bot
+     * @return Number of prekeys uploaded
+     */
+    public int refill(WireClient client, List<Integer> available) throws Exception {
+        int remaining = remaining(available);
+        if (remaining >= minimum)
+            return 0;
+
+        // prekeys handed out are gone from the backend but still wait in the box for their session
+        TreeSet<Integer> used = new TreeSet<>(available);
+        if (local != null)
+            used.addAll(local.ids(client.getId()));
+        used.remove(LAST_PREKEY_ID);
+
+        int missing = count - remaining;
+        ArrayList<PreKey> preKeys = client.newPreKeys(nextId(used, missing), missing);
+        client.uploadPreKeys(preKeys);
+        return preKeys.size();
+    }
+
+    /**
+     * @param available Prekey ids the backend has for a bot
+     * @return Number of prekeys that can still be used for new sessions, the last prekey not counted
+     */
+    public static int remaining(List<Integer> available) {
+        int ret = 0;
+        for (Integer id : available) {
+            if (id != LAST_PREKEY_ID)
+                ret++;
+        }
+        return ret;
+    }
+
+    // continue after the highest id in use. When the range would reach the last prekey, take the first gap big
+    // enough from the start
+    static int nextId(TreeSet<Integer> used, int missing) {
+        int next = used.isEmpty() ? 0 : used.last() + 1;
+        if (next + missing < LAST_PREKEY_ID)
+            return next;
+
+        next = 0;
+        for (int id : used) {
+            if (id >= next + missing)
+                break;
+            next = id + 1;
+        }
+        if (next + missing >= LAST_PREKEY_ID)
+            throw new IllegalStateException("No free prekey ids left");
+        return next;
+    }
+}
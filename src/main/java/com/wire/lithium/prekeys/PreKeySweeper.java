@@ -0,0 +1,133 @@
+package com.wire.lithium.prekeys;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.lithium.ClientRepo;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.tools.Logger;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scheduled job that checks the backend prekeys of every bot in the storage and refills the ones running low.
+ * Bots are read in batches and checked in parallel, at most {@code rate} bots per second.
+ */
+public class PreKeySweeper implements Runnable {
+    private final ClientRepo repo;
+    private final BotDirectory directory;
+    private final PreKeyRefill refill;
+    private final Executor executor;
+    private final int batch;
+    private final long pace;    // nanos between two checks
+
+    private final Histogram available;
+    private final Timer sweeps;
+    private final Meter uploaded;
+    private final Meter errors;
+    private volatile int lastChecked;
+    private volatile int lastLow;
+
+    /**
+     * @param repo      Client repo
+     * @param directory Bots in the storage
+     * @param refill    Refill policy
+     * @param executor  Executor running the checks
+     * @param batch     Bots read from the storage at once and checked in parallel
+     * @param rate      Max bots checked per second
+     * @param metrics   Registry where prekey inventory, sweep times and uploads are reported
+     */
+    public PreKeySweeper(ClientRepo repo, BotDirectory directory, PreKeyRefill refill, Executor executor,
+                         int batch, int rate, MetricRegistry metrics) {
+        this.repo = repo;
+        this.directory = directory;
+        this.refill = refill;
+        this.executor = executor;
+        this.batch = batch;
+        this.pace = TimeUnit.SECONDS.toNanos(1) / rate;
+
+        available = metrics.histogram("prekeys.available");
+        sweeps = metrics.timer("prekeys.sweep");
+        uploaded = metrics.meter("prekeys.uploaded");
+        errors = metrics.meter("prekeys.errors");
+        metrics.register("prekeys.sweep.bots", (Gauge<Integer>) () -> lastChecked);
+        metrics.register("prekeys.sweep.low", (Gauge<Integer>) () -> lastLow);
+    }
+
+    @Override
+    public void run() {
+        final AtomicInteger checked = new AtomicInteger();
+        final AtomicInteger low = new AtomicInteger();
+
+        try (Timer.Context ignored = sweeps.time()) {
+            long next = System.nanoTime();
+            UUID after = null;
+            List<UUID> bots;
+            do {
+                bots = directory.list(after, batch);
+                CountDownLatch done = new CountDownLatch(bots.size());
+                for (UUID botId : bots) {
+                    next = await(next);
+                    try {
+                        executor.execute(() -> {
+                            try {
+                                check(botId, checked, low);
+                            } finally {
+                                done.countDown();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        done.countDown();
+                    }
+                }
+                done.await();
+
+                if (!bots.isEmpty())
+                    after = bots.get(bots.size() - 1);
+            } while (bots.size() == batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Logger.exception("PreKeySweeper: %s", e, e.getMessage());
+        }
+
+        lastChecked = checked.get();
+        lastLow = low.get();
+        Logger.info("PreKeySweeper: checked %d bots, %d were low on prekeys", lastChecked, lastLow);
+    }
+
+    private void check(UUID botId, AtomicInteger checked, AtomicInteger low) {
+        try (WireClient client = repo.getClient(botId)) {
+            List<Integer> ids = client.getAvailablePrekeys();
+            int remaining = PreKeyRefill.remaining(ids);
+            available.update(remaining);
+            checked.incrementAndGet();
+
+            int count = refill.refill(client, ids);
+            if (count > 0) {
+                low.incrementAndGet();
+                uploaded.mark(count);
+                Logger.info("PreKeySweeper: uploaded %d prekeys, %d were left. Bot: %s", count, remaining, botId);
+            }
+        } catch (Exception e) {
+            errors.mark();
+            Logger.warning("PreKeySweeper: bot: %s, error: %s", botId, e);
+        }
+    }
+
+    // sleeps until the given time, returns the time of the following check
+    private long await(long next) throws InterruptedException {
+        long wait = next - System.nanoTime();
+        if (wait > 0)
+            TimeUnit.NANOSECONDS.sleep(wait);
+        return Math.max(next, System.nanoTime() - pace) + pace;
+    }
+}
@@ -0,0 +1,59 @@
+package com.wire.lithium.prekeys;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.ClientRepo;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.tools.Logger;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scheduled job that refills the backend prekeys of the bots that have been active since its last run.
+ * Prekeys are only consumed when new sessions are established with a bot, which always comes with an event.
+ */
+public class PreKeyTopUp implements Runnable {
+    private final Set<UUID> active = ConcurrentHashMap.newKeySet();
+    private final ClientRepo repo;
+    private final PreKeyRefill refill;
+
+    private final Meter uploaded;
+    private final Meter errors;
+
+    public PreKeyTopUp(ClientRepo repo, PreKeyRefill refill, MetricRegistry metrics) {
+        this.repo = repo;
+        this.refill = refill;
+
+        uploaded = metrics.meter("prekeys.uploaded");
+        errors = metrics.meter("prekeys.errors");
+    }
+
+    /**
+     * Marks the bot to be checked on the next run
+     *
+     * @param botId Bot ID
+     */
+    public void watch(UUID botId) {
+        active.add(botId);
+    }
+
+    @Override
+    public void run() {
+        for (UUID botId : new ArrayList<>(active)) {
+            active.remove(botId);
+            try (WireClient client = repo.getClient(botId)) {
+                int count = refill.refill(client);
+                if (count > 0) {
+                    uploaded.mark(count);
+                    Logger.info("PreKeyTopUp: uploaded %d prekeys. Bot: %s", count, botId);
+                }
+            } catch (Exception e) {
+                errors.mark();
+                Logger.warning("PreKeyTopUp: bot: %s, error: %s", botId, e);
+            }
+        }
+    }
+}
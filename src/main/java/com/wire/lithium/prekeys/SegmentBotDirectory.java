@@ -0,0 +1,29 @@
+package com.wire.lithium.prekeys;
+
+import com.wire.lithium.storage.SegmentState;
+import com.wire.lithium.storage.SegmentStore;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Directory for {@link SegmentState}: bots are listed in the order of their state keys
+ */
+public class SegmentBotDirectory implements BotDirectory {
+    private final SegmentStore store;
+
+    public SegmentBotDirectory(SegmentStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public List<UUID> list(@Nullable UUID after, int limit) {
+        String prefix = SegmentState.PREFIX;
+        List<UUID> ret = new ArrayList<>();
+        for (String key : store.keys(prefix, after == null ? null : prefix + after, limit))
+            ret.add(UUID.fromString(key.substring(prefix.length())));
+        return ret;
+    }
+}
@@ -0,0 +1,22 @@
+package com.wire.lithium.prekeys;
+
+import com.wire.lithium.crypto.SegmentCryptoStorage;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Transfer for {@link SegmentCryptoStorage}: keys of the box are moved under the new id
+ */
+public class SegmentCryptoTransfer implements CryptoTransfer {
+    private final SegmentCryptoStorage storage;
+
+    public SegmentCryptoTransfer(SegmentCryptoStorage storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public void transfer(UUID from, UUID to) throws IOException {
+        storage.transfer(from, to);
+    }
+}
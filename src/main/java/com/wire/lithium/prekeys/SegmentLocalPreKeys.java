@@ -0,0 +1,30 @@
+package com.wire.lithium.prekeys;
+
+import com.wire.bots.cryptobox.PreKey;
+import com.wire.lithium.crypto.SegmentCryptoStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Local prekeys of the boxes in {@link SegmentCryptoStorage}
+ */
+public class SegmentLocalPreKeys implements LocalPreKeys {
+    private final SegmentCryptoStorage storage;
+
+    public SegmentLocalPreKeys(SegmentCryptoStorage storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public List<Integer> ids(UUID botId) {
+        List<Integer> ret = new ArrayList<>();
+        PreKey[] preKeys = storage.fetchPrekeys(botId.toString());
+        if (preKeys != null) {
+            for (PreKey preKey : preKeys)
+                ret.add(preKey.id);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,42 @@
+package com.wire.lithium.server.cluster;
+
+import com.codahale.metrics.annotation.Metered;
+import com.wire.lithium.server.resources.MessageResource;
+import com.wire.xenon.backend.models.Payload;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.Authorization;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Internal endpoint receiving the events other nodes forward to this node, the owner of the bot.
+ * Events are handled here, never forwarded again
+ */
+@Api(hidden = true)
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+@Path(ClusterMessageResource.PATH)
+public class ClusterMessageResource {
+    static final String PATH = "/cluster/bots/{bot}/messages";
+
+    private final MessageResource messages;
+
+    public ClusterMessageResource(MessageResource messages) {
+        this.messages = messages;
+    }
+
+    @POST
+    @Authorization("Bearer")
+    @Metered
+    public Response forwarded(@PathParam("bot") UUID botId,
+                              @QueryParam("id") UUID eventId,
+                              @Valid @NotNull Payload payload) throws IOException {
+        return messages.accept(botId, eventId != null ? eventId : UUID.randomUUID(), payload);
+    }
+}
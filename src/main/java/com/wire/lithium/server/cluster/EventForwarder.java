@@ -0,0 +1,115 @@
+package com.wire.lithium.server.cluster;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.xenon.backend.models.ErrorMessage;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.tools.Logger;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.util.UUID;
+
+/**
+ * Sends bot events to the node owning the bot, so every bot is handled by one node and its state and sessions stay
+ * in that node's memory. Events are posted to the owner's {@link ClusterMessageResource}, which never forwards
+ * them again. When the owner cannot be connected to the event is handled where it was received; when the request
+ * fails once sent the backend is asked to retry.
+ */
+public class EventForwarder {
+    private final HashRing ring;
+    private final String self;
+    private final Client client;
+    private final String authorization;
+
+    private final Timer forwarded;
+    private final Meter fallbacks;
+
+    /**
+     * @param ring    Nodes of the cluster
+     * @param self    This node, as it appears in the ring
+     * @param client  Client the events are posted with
+     * @param token   Service token, the same on every node
+     * @param metrics Registry where forwarded events and fallbacks are reported
+     */
+    public EventForwarder(HashRing ring, String self, Client client, String token, MetricRegistry metrics) {
+        this.ring = ring;
+        this.self = self;
+        this.client = client;
+        this.authorization = "Bearer " + token;
+
+        forwarded = metrics.timer("cluster.events.forwarded");
+        fallbacks = metrics.meter("cluster.events.fallbacks");
+    }
+
+    /**
+     * @param botId Bot ID
+     * @return True when this node owns the bot
+     */
+    public boolean isLocal(UUID botId) {
+        return ring.owner(botId).equals(self);
+    }
+
+    /**
+     * @param botId   Bot ID
+     * @param eventId Event ID
+     * @param payload Event
+     * @return Response of the owner, or null when it could not be connected to and the event is to be handled here
+     */
+    @Nullable
+    public Response forward(UUID botId, UUID eventId, Payload payload) {
+        String owner = ring.owner(botId);
+        try (Timer.Context ignored = forwarded.time();
+             Response response = client.target(owner)
+                     .path(ClusterMessageResource.PATH)
+                     .resolveTemplate("bot", botId)
+                     .queryParam("id", eventId)
+                     .request(MediaType.APPLICATION_JSON)
+                     .header(HttpHeaders.AUTHORIZATION, authorization)
+                     .post(Entity.entity(payload, MediaType.APPLICATION_JSON))) {
+
+            String entity = response.hasEntity() ? response.readEntity(String.class) : null;
+            return Response.status(response.getStatus())
+                    .entity(entity)
+                    .type(MediaType.APPLICATION_JSON)
+                    .build();
+        } catch (ProcessingException e) {
+            if (isConnectFailure(e)) {
+                fallbacks.mark();
+                Logger.warning("EventForwarder: owner %s unreachable, handling here. Bot: %s, %s", owner, botId, e);
+                return null;
+            }
+
+            // the owner may have got the event already: handling it here too could process it twice
+            Logger.warning("EventForwarder: forwarding to %s failed. Bot: %s, %s", owner, botId, e);
+            return Response.status(503)
+                    .entity(new ErrorMessage("Failed to forward the event"))
+                    .type(MediaType.APPLICATION_JSON)
+                    .build();
+        }
+    }
+
+    // the request never reached the owner
+    private static boolean isConnectFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException
+                    || cause instanceof NoRouteToHostException
+                    || cause instanceof UnknownHostException
+                    || cause instanceof ConnectTimeoutException
+                    || cause instanceof HttpConnectTimeoutException)
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,48 @@
+package com.wire.lithium.server.cluster;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Consistent hash ring over the nodes of the cluster. Every node is placed on the ring many times, so bots spread
+ * evenly and adding or removing a node only moves the bots of that node
+ */
+public class HashRing {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * @param nodes        Nodes of the cluster, in the same form on every node
+     * @param virtualNodes Places on the ring per node
+     */
+    public HashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty())
+            throw new IllegalArgumentException("No nodes");
+
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++)
+                ring.put(HASH.hashString(node + '#' + i, StandardCharsets.UTF_8).asLong(), node);
+        }
+    }
+
+    /**
+     * @param botId Bot ID
+     * @return Node owning the bot
+     */
+    public String owner(UUID botId) {
+        long hash = HASH.newHasher()
+                .putLong(botId.getMostSignificantBits())
+                .putLong(botId.getLeastSignificantBits())
+                .hash()
+                .asLong();
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash);
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+}
@@ -0,0 +1,70 @@
+package com.wire.lithium.server.jetty;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Jetty thread pool starting a virtual thread for every task. Selectors and acceptors get one each too, so a
+ * request waiting on the database or the backend never holds a platform thread
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+    private final AtomicInteger threads = new AtomicInteger();
+    private final ExecutorService executor;
+
+    public VirtualThreadPool(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!isRunning() && !isStarting())
+            throw new RejectedExecutionException("VirtualThreadPool is not running");
+
+        threads.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    threads.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            threads.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        executor.shutdown();
+        if (!executor.awaitTermination(getStopTimeout(), TimeUnit.MILLISECONDS))
+            executor.shutdownNow();
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int getThreads() {
+        return threads.get();
+    }
+
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    // a new thread is always there
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+}
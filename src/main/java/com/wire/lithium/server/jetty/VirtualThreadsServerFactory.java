@@ -0,0 +1,29 @@
+package com.wire.lithium.server.jetty;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.wire.lithium.tools.VirtualThreads;
+import io.dropwizard.server.DefaultServerFactory;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Default server running application requests on virtual threads (Java 21+). {@code maxThreads} and
+ * {@code minThreads} only apply on older JVMs, where the usual pool is used. Enabled with {@code server: type: virtual}
+ */
+@JsonTypeName("virtual")
+public class VirtualThreadsServerFactory extends DefaultServerFactory {
+
+    @Override
+    protected ThreadPool createThreadPool(MetricRegistry metrics) {
+        ExecutorService executor = VirtualThreads.newExecutor("dw-virtual-");
+        if (executor == null)
+            return super.createThreadPool(metrics);
+
+        VirtualThreadPool pool = new VirtualThreadPool(executor);
+        metrics.gauge("jetty.threads.virtual", () -> (Gauge<Integer>) pool::getThreads);
+        return pool;
+    }
+}
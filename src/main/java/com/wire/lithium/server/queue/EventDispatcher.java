@@ -0,0 +1,28 @@
+package com.wire.lithium.server.queue;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs bot events in the background, one at a time and in order for each bot
+ */
+public interface EventDispatcher {
+    /**
+     * Queues the event for this bot
+     *
+     * @param botId Bot ID
+     * @param event Event to be run
+     * @return False if too many events are pending or the dispatcher is drained, and the event was not queued
+     */
+    boolean submit(UUID botId, Runnable event);
+
+    /**
+     * Stops taking new events and waits for the queued ones to finish
+     *
+     * @param timeout Max time to wait
+     * @param unit    Unit of the timeout
+     * @return False if events were still pending when the time was up
+     * @throws InterruptedException when interrupted while waiting
+     */
+    boolean drain(long timeout, TimeUnit unit) throws InterruptedException;
+}
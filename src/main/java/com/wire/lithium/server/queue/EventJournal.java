@@ -0,0 +1,51 @@
+package com.wire.lithium.server.queue;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.wire.xenon.backend.models.Payload;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Events acknowledged to the backend and not processed yet. An event is written here before it is acknowledged and
+ * removed once processed, so the events left after a crash or a restart can be processed on the next start.
+ */
+public interface EventJournal {
+    /**
+     * Writes the event durably
+     *
+     * @param eventId Event ID
+     * @param botId   Bot ID
+     * @param payload Event
+     * @return False if the event is already in the journal
+     * @throws IOException when the event could not be written
+     */
+    boolean append(UUID eventId, UUID botId, Payload payload) throws IOException;
+
+    /**
+     * @param eventId Event that was processed
+     * @throws IOException when the event could not be removed
+     */
+    void remove(UUID eventId) throws IOException;
+
+    /**
+     * @return Events left in the journal, in the order they were appended
+     * @throws IOException when the journal could not be read
+     */
+    List<Entry> pending() throws IOException;
+
+    class Entry {
+        @JsonProperty
+        public long seq;
+
+        @JsonProperty
+        public UUID eventId;
+
+        @JsonProperty
+        public UUID botId;
+
+        @JsonProperty
+        public Payload payload;
+    }
+}
@@ -0,0 +1,182 @@
+package com.wire.lithium.server.queue;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.xenon.tools.Logger;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded, per-bot ordered event queue. Events of one bot are processed one at a time in the order they were
+ * submitted, events of different bots are processed in parallel on the given executor.
+ */
+public class EventQueue implements EventDispatcher {
+    private static final int BATCH = 32; // events processed before the worker is handed back to other bots
+
+    private final ConcurrentHashMap<UUID, BotQueue> queues = new ConcurrentHashMap<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger processing = new AtomicInteger();
+    private final Executor executor;
+    private final int maxDepth;
+
+    private final Timer lag;
+    private final Meter rejected;
+
+    private volatile boolean drained;
+
+    /**
+     * @param executor Executor running the events
+     * @param maxDepth Max number of pending events per bot
+     * @param metrics  Registry where queue depth, lag and rejections are reported
+     */
+    public EventQueue(Executor executor, int maxDepth, MetricRegistry metrics) {
+        this.executor = executor;
+        this.maxDepth = maxDepth;
+
+        lag = metrics.timer("messages.queue.lag");
+        rejected = metrics.meter("messages.queue.rejected");
+        metrics.register("messages.queue.depth", (Gauge<Integer>) depth::get);
+        metrics.register("messages.queue.bots", (Gauge<Integer>) queues::size);
+    }
+
+    /**
+     * Queues the event for this bot
+     *
+     * @param botId Bot ID
+     * @param event Event to be run
+     * @return False if this bot has too many pending events or the queue is drained, and the event was not queued
+     */
+    @Override
+    public boolean submit(UUID botId, Runnable event) {
+        if (drained) {
+            rejected.mark();
+            return false;
+        }
+
+        final Event e = new Event(event);
+        final BotQueue[] schedule = new BotQueue[1];
+        final boolean[] accepted = new boolean[1];
+
+        queues.compute(botId, (id, queue) -> {
+            if (queue == null)
+                queue = new BotQueue(id);
+
+            if (queue.events.size() >= maxDepth)
+                return queue;
+
+            queue.events.add(e);
+            accepted[0] = true;
+
+            if (!queue.running) {
+                queue.running = true;
+                schedule[0] = queue;
+            }
+            return queue;
+        });
+
+        if (!accepted[0]) {
+            rejected.mark();
+            return false;
+        }
+
+        depth.incrementAndGet();
+        if (schedule[0] != null)
+            executor.execute(schedule[0]);
+        return true;
+    }
+
+    @Override
+    public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+        drained = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (depth.get() > 0 || processing.get() > 0) {
+            if (System.nanoTime() > deadline)
+                return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    private Event poll(BotQueue queue) {
+        final Event[] next = new Event[1];
+        queues.compute(queue.botId, (id, current) -> {
+            next[0] = current.events.poll();
+            if (next[0] == null) {
+                current.running = false;
+                return null;
+            }
+            return current;
+        });
+        return next[0];
+    }
+
+    private static class Event {
+        final Runnable task;
+        final long created = System.nanoTime();
+
+        Event(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    private class BotQueue implements Runnable {
+        final UUID botId;
+        final ArrayDeque<Event> events = new ArrayDeque<>();
+        boolean running;
+
+        BotQueue(UUID botId) {
+            this.botId = botId;
+        }
+
+        @Override
+        public void run() {
+            boolean scheduled = false;
+            try {
+                for (int i = 0; i < BATCH; i++) {
+                    Event event = poll(this);
+                    if (event == null)
+                        return;
+
+                    processing.incrementAndGet();
+                    depth.decrementAndGet();
+                    lag.update(System.nanoTime() - event.created, TimeUnit.NANOSECONDS);
+                    try {
+                        event.task.run();
+                    } catch (Exception e) {
+                        Logger.exception("EventQueue: bot: %s %s", e, botId, e.getMessage());
+                    } finally {
+                        processing.decrementAndGet();
+                    }
+                }
+                // still running: give other bots a chance before continuing with this one
+                executor.execute(this);
+                scheduled = true;
+            } finally {
+                // an Error or a rejected execute must not leave the bot's queue marked as running forever:
+                // its next event schedules it again
+                if (!scheduled)
+                    stopped();
+            }
+        }
+
+        private void stopped() {
+            queues.computeIfPresent(botId, (id, current) -> {
+                if (current != this)
+                    return current;
+                current.running = false;
+                return current.events.isEmpty() ? null : current;
+            });
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.wire.lithium.server.queue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.tools.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Journal keeping every event in its own file, named by the event id, in a local directory
+ */
+public class FileEventJournal implements EventJournal {
+    private static final String SUFFIX = ".json";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicLong seq = new AtomicLong();
+    private final Path dir;
+
+    public FileEventJournal(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+
+        // continues after the events left by the last run, whatever the clock says
+        List<Entry> pending = pending();
+        if (!pending.isEmpty())
+            seq.set(pending.get(pending.size() - 1).seq);
+    }
+
+    @Override
+    public boolean append(UUID eventId, UUID botId, Payload payload) throws IOException {
+        Entry entry = new Entry();
+        entry.seq = seq.incrementAndGet();
+        entry.eventId = eventId;
+        entry.botId = botId;
+        entry.payload = payload;
+        ByteBuffer bytes = ByteBuffer.wrap(objectMapper.writeValueAsBytes(entry));
+
+        // a file cut short by a crash belongs to an event that was never acknowledged: it is dropped by pending()
+        try (FileChannel file = FileChannel.open(path(eventId), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (bytes.hasRemaining())
+                file.write(bytes);
+            file.force(true);
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+        return true;
+    }
+
+    @Override
+    public void remove(UUID eventId) throws IOException {
+        Files.deleteIfExists(path(eventId));
+    }
+
+    @Override
+    public List<Entry> pending() throws IOException {
+        List<Entry> ret = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!file.getFileName().toString().endsWith(SUFFIX))
+                    continue;
+                try {
+                    ret.add(objectMapper.readValue(file.toFile(), Entry.class));
+                } catch (IOException e) {
+                    Logger.warning("FileEventJournal: dropping incomplete event %s: %s", file, e);
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        ret.sort(Comparator.comparingLong(entry -> entry.seq));
+        return ret;
+    }
+
+    private Path path(UUID eventId) {
+        return dir.resolve(eventId + SUFFIX);
+    }
+}
@@ -0,0 +1,82 @@
+package com.wire.lithium.server.queue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wire.xenon.backend.models.Payload;
+import org.jdbi.v3.core.Jdbi;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Journal in the {@code QueuedEvents} table of the Postgres database, created by the {@code V3__QueuedEvents}
+ * migration. Nodes sharing the database keep their events apart by node name, which has to stay the same across
+ * restarts.
+ */
+public class JdbiEventJournal implements EventJournal {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Jdbi jdbi;
+    private final String node;
+
+    /**
+     * @param jdbi Database
+     * @param node Name of this node
+     */
+    public JdbiEventJournal(Jdbi jdbi, String node) {
+        this.jdbi = jdbi;
+        this.node = node;
+    }
+
+    @Override
+    public boolean append(UUID eventId, UUID botId, Payload payload) throws IOException {
+        String json = objectMapper.writeValueAsString(payload);
+        try {
+            return jdbi.withHandle(handle -> handle
+                    .createUpdate("INSERT INTO QueuedEvents (eventId, node, botId, payload) " +
+                            "VALUES (:eventId, :node, :botId, CAST(:payload AS JSON)) ON CONFLICT (eventId) DO NOTHING")
+                    .bind("eventId", eventId)
+                    .bind("node", node)
+                    .bind("botId", botId)
+                    .bind("payload", json)
+                    .execute()) > 0;
+        } catch (Exception e) {
+            throw new IOException("Failed to journal event: " + eventId, e);
+        }
+    }
+
+    @Override
+    public void remove(UUID eventId) throws IOException {
+        try {
+            jdbi.useHandle(handle -> handle
+                    .createUpdate("DELETE FROM QueuedEvents WHERE eventId = :eventId")
+                    .bind("eventId", eventId)
+                    .execute());
+        } catch (Exception e) {
+            throw new IOException("Failed to remove event: " + eventId, e);
+        }
+    }
+
+    @Override
+    public List<Entry> pending() throws IOException {
+        try {
+            return jdbi.withHandle(handle -> handle
+                    .createQuery("SELECT seq, eventId, botId, payload FROM QueuedEvents WHERE node = :node ORDER BY seq")
+                    .bind("node", node)
+                    .map((rs, ctx) -> {
+                        Entry entry = new Entry();
+                        entry.seq = rs.getLong("seq");
+                        entry.eventId = rs.getObject("eventId", UUID.class);
+                        entry.botId = rs.getObject("botId", UUID.class);
+                        try {
+                            entry.payload = objectMapper.readValue(rs.getString("payload"), Payload.class);
+                        } catch (IOException e) {
+                            throw new IllegalStateException("Bad event: " + entry.eventId, e);
+                        }
+                        return entry;
+                    })
+                    .list());
+        } catch (Exception e) {
+            throw new IOException("Failed to read queued events", e);
+        }
+    }
+}
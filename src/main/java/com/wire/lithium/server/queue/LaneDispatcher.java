@@ -0,0 +1,181 @@
+package com.wire.lithium.server.queue;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.xenon.tools.Logger;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatches events onto a fixed number of lanes picked by hashing the bot id. A lane runs its events one at a time
+ * in the order they were submitted, so a bot's conversation never sees two events at once, while different lanes
+ * run in parallel. Give the executor as many threads as there are lanes.
+ */
+public class LaneDispatcher implements EventDispatcher {
+    private final Lane[] lanes;
+    private final Executor executor;
+    private final int maxDepth;
+    private final AtomicInteger processing = new AtomicInteger();
+
+    private volatile boolean drained;
+
+    /**
+     * @param executor Executor running the lanes
+     * @param lanes    Number of lanes
+     * @param maxDepth Max number of pending events per lane
+     * @param metrics  Registry where depth, lag and rejections of every lane are reported
+     */
+    public LaneDispatcher(Executor executor, int lanes, int maxDepth, MetricRegistry metrics) {
+        this.executor = executor;
+        this.maxDepth = maxDepth;
+        this.lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++)
+            this.lanes[i] = new Lane(i, metrics);
+    }
+
+    @Override
+    public boolean submit(UUID botId, Runnable event) {
+        Lane lane = lanes[lane(botId)];
+        Event added;
+        boolean schedule;
+        synchronized (lane) {
+            if (drained || lane.events.size() >= maxDepth) {
+                lane.rejected.mark();
+                return false;
+            }
+
+            added = new Event(botId, event);
+            lane.events.add(added);
+            schedule = !lane.running;
+            lane.running = true;
+        }
+
+        if (schedule) {
+            try {
+                executor.execute(lane);
+            } catch (RejectedExecutionException e) {
+                synchronized (lane) {
+                    lane.events.removeLastOccurrence(added);
+                    lane.running = false;
+                }
+                lane.rejected.mark();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+        drained = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (pending() > 0) {
+            if (System.nanoTime() > deadline)
+                return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * @param botId Bot ID
+     * @return Index of the lane that runs this bot's events
+     */
+    public int lane(UUID botId) {
+        return Math.floorMod(botId.hashCode(), lanes.length);
+    }
+
+    public int getDepth(int lane) {
+        Lane l = lanes[lane];
+        synchronized (l) {
+            return l.events.size();
+        }
+    }
+
+    private int pending() {
+        int ret = processing.get();
+        for (int i = 0; i < lanes.length; i++)
+            ret += getDepth(i);
+        return ret;
+    }
+
+    private static class Event {
+        final UUID botId;
+        final Runnable task;
+        final long created = System.nanoTime();
+
+        Event(UUID botId, Runnable task) {
+            this.botId = botId;
+            this.task = task;
+        }
+    }
+
+    private class Lane implements Runnable {
+        final ArrayDeque<Event> events = new ArrayDeque<>();
+        boolean running;
+
+        final Timer lag;
+        final Meter rejected;
+
+        Lane(int index, MetricRegistry metrics) {
+            String prefix = MetricRegistry.name("messages.lanes", Integer.toString(index));
+            lag = metrics.timer(MetricRegistry.name(prefix, "lag"));
+            rejected = metrics.meter(MetricRegistry.name(prefix, "rejected"));
+            metrics.gauge(MetricRegistry.name(prefix, "depth"), () -> (Gauge<Integer>) () -> getDepth(index));
+        }
+
+        @Override
+        public void run() {
+            boolean stopped = false;
+            try {
+                while (true) {
+                    Event event;
+                    synchronized (this) {
+                        event = events.poll();
+                        if (event == null) {
+                            running = false;
+                            stopped = true;
+                            return;
+                        }
+                        processing.incrementAndGet();
+                    }
+
+                    lag.update(System.nanoTime() - event.created, TimeUnit.NANOSECONDS);
+                    try {
+                        event.task.run();
+                    } catch (Exception e) {
+                        Logger.exception("LaneDispatcher: bot: %s %s", e, event.botId, e.getMessage());
+                    } finally {
+                        processing.decrementAndGet();
+                    }
+                }
+            } finally {
+                // an Error must not leave the lane marked as running forever: what is left runs on a new task
+                if (!stopped)
+                    restart();
+            }
+        }
+
+        private void restart() {
+            synchronized (this) {
+                running = !events.isEmpty();
+                if (!running)
+                    return;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    running = false;
+                }
+            }
+        }
+    }
+}
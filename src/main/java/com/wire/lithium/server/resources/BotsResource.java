@@ -20,6 +20,7 @@ package com.wire.lithium.server.resources;
 
 import com.codahale.metrics.annotation.Metered;
 import com.wire.lithium.models.NewBotResponseModel;
+import com.wire.lithium.prekeys.PreKeyPool;
 import com.wire.lithium.server.monitoring.MDCUtils;
 import com.wire.xenon.MessageHandlerBase;
 import com.wire.xenon.backend.models.ErrorMessage;
@@ -30,6 +31,7 @@ import com.wire.xenon.factories.StorageFactory;
 import com.wire.xenon.tools.Logger;
 import io.swagger.annotations.*;
 
+import javax.annotation.Nullable;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.*;
@@ -44,15 +46,29 @@ import java.util.UUID;
 @Consumes(MediaType.APPLICATION_JSON)
 @Path("/bots")
 public class BotsResource {
+    public static final int PREKEYS = 50;   // prekeys given to the backend for a new bot, besides the last prekey
+
     protected final MessageHandlerBase handler;
 
     protected final StorageFactory storageF;
     protected final CryptoFactory cryptoF;
 
+    @Nullable
+    protected final PreKeyPool preKeyPool;
+
     public BotsResource(MessageHandlerBase handler, StorageFactory storageF, CryptoFactory cryptoF) {
+        this(handler, storageF, cryptoF, null);
+    }
+
+    /**
+     * @param preKeyPool Pool of pre-generated prekeys. When null or empty the prekeys are generated in the request
+     */
+    public BotsResource(MessageHandlerBase handler, StorageFactory storageF, CryptoFactory cryptoF,
+                        @Nullable PreKeyPool preKeyPool) {
         this.handler = handler;
         this.storageF = storageF;
         this.cryptoF = cryptoF;
+        this.preKeyPool = preKeyPool;
     }
 
     @POST
@@ -99,9 +115,15 @@ public class BotsResource {
             ret.addAsset(profileBig, "complete");
         }
 
-        try (Crypto crypto = cryptoF.create(botId)) {
-            ret.lastPreKey = crypto.newLastPreKey();
-            ret.preKeys = crypto.newPreKeys(0, 50);
+        PreKeyPool.Keys keys = preKeyPool != null ? preKeyPool.take(botId) : null;
+        if (keys != null) {
+            ret.lastPreKey = keys.lastPreKey;
+            ret.preKeys = keys.preKeys;
+        } else {
+            try (Crypto crypto = cryptoF.create(botId)) {
+                ret.lastPreKey = crypto.newLastPreKey();
+                ret.preKeys = crypto.newPreKeys(0, PREKEYS);
+            }
         }
 
         return Response.
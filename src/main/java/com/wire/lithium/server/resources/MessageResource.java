@@ -21,8 +21,13 @@ package com.wire.lithium.server.resources;
 import com.codahale.metrics.annotation.Metered;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.wire.bots.cryptobox.CryptoException;
+import com.wire.lithium.BotClient;
 import com.wire.lithium.ClientRepo;
+import com.wire.lithium.prekeys.PreKeyTopUp;
+import com.wire.lithium.server.cluster.EventForwarder;
 import com.wire.lithium.server.monitoring.MDCUtils;
+import com.wire.lithium.server.queue.EventDispatcher;
+import com.wire.lithium.server.queue.EventJournal;
 import com.wire.xenon.MessageHandlerBase;
 import com.wire.xenon.MessageResourceBase;
 import com.wire.xenon.WireClient;
@@ -32,14 +37,21 @@ import com.wire.xenon.backend.models.Payload;
 import com.wire.xenon.exceptions.MissingStateException;
 import com.wire.xenon.tools.Logger;
 import io.swagger.annotations.*;
+import org.slf4j.MDC;
 
+import javax.annotation.Nullable;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 
 @Api
@@ -47,19 +59,46 @@ import java.util.logging.Level;
 @Consumes(MediaType.APPLICATION_JSON)
 @Path("/bots/{bot}/messages")
 public class MessageResource extends MessageResourceBase {
+    private static final int RETRIES = 3;
+    private static final long RETRY_DELAY = 500;   // ms, doubled on every retry
+
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final ClientRepo repo;
+    @Nullable
+    private final EventDispatcher queue;
+    @Nullable
+    private final EventJournal journal;
+    @Nullable
+    private final EventDispatcher lanes;
+    @Nullable
+    private final PreKeyTopUp preKeyTopUp;
+    @Nullable
+    private final EventForwarder forwarder;
 
     public MessageResource(MessageHandlerBase handler, ClientRepo repo) {
+        this(handler, repo, new Options());
+    }
+
+    /**
+     * @param handler Message handler
+     * @param repo    Client repo
+     * @param options How events are queued, journaled, forwarded and run
+     */
+    public MessageResource(MessageHandlerBase handler, ClientRepo repo, Options options) {
         super(handler);
         this.repo = repo;
+        this.queue = options.queue;
+        this.journal = options.journal;
+        this.lanes = options.lanes;
+        this.preKeyTopUp = options.preKeyTopUp;
+        this.forwarder = options.forwarder;
     }
 
     @POST
     @ApiOperation(value = "New OTR Message")
     @ApiResponses(value = {
             @ApiResponse(code = 403, message = "Invalid Authorization", response = ErrorMessage.class),
-            @ApiResponse(code = 503, message = "Missing bot's state object", response = ErrorMessage.class),
+            @ApiResponse(code = 503, message = "Missing bot's state object or too many pending events", response = ErrorMessage.class),
             @ApiResponse(code = 200, message = "Alles gute")})
     @Authorization("Bearer")
     @Metered
@@ -78,12 +117,200 @@ public class MessageResource extends MessageResourceBase {
                     objectMapper.writeValueAsString(payload));
         }
 
+        if (forwarder != null && !forwarder.isLocal(botId)) {
+            Response response = forwarder.forward(botId, eventId, payload);
+            if (response != null)
+                return response;
+        }
+
+        return accept(botId, eventId, payload);
+    }
+
+    /**
+     * Handles the event on this node
+     *
+     * @param botId   Bot ID
+     * @param eventId Event ID
+     * @param payload Event
+     * @return Response for the backend
+     */
+    public Response accept(UUID botId, UUID eventId, Payload payload) {
+        if (preKeyTopUp != null)
+            preKeyTopUp.watch(botId);
+
+        if (queue != null)
+            return enqueue(botId, eventId, payload);
+
+        if (lanes != null)
+            return await(botId, eventId, payload);
+
+        return process(botId, eventId, payload);
+    }
+
+    /**
+     * Queues the events the journal still holds from before the last stop. Call before new events are taken
+     *
+     * @return Number of events queued
+     * @throws IOException          when the journal could not be read
+     * @throws InterruptedException when interrupted while waiting for room in the queue
+     */
+    public int replay() throws IOException, InterruptedException {
+        if (queue == null || journal == null)
+            return 0;
+
+        List<EventJournal.Entry> pending = journal.pending();
+        for (EventJournal.Entry entry : pending) {
+            while (!queue.submit(entry.botId, task(entry.botId, entry.eventId, entry.payload)))
+                Thread.sleep(10);
+        }
+        return pending.size();
+    }
+
+    // failures after the event was acknowledged cannot reach the backend, so what can be checked is checked before
+    private Response enqueue(UUID botId, UUID eventId, Payload payload) {
+        try {
+            repo.getState(botId);
+        } catch (MissingStateException e) {
+            Logger.exception("newMessage: %s %s", e, botId, e.getMessage());
+            return Response.
+                    status(410).
+                    entity(new ErrorMessage(e.getMessage())).
+                    build();
+        } catch (IOException e) {
+            Logger.exception("newMessage: %s %s", e, botId, e.getMessage());
+            return Response.
+                    status(503).
+                    entity(new ErrorMessage(e.getMessage())).
+                    build();
+        }
+
+        try {
+            if (journal != null && !journal.append(eventId, botId, payload)) {
+                Logger.info("newMessage: event already queued: %s. Bot: %s", eventId, botId);
+                return Response.
+                        ok().
+                        status(200).
+                        build();
+            }
+        } catch (IOException e) {
+            Logger.exception("newMessage: failed to journal event: %s %s", e, botId, e.getMessage());
+            return Response.
+                    status(503).
+                    entity(new ErrorMessage("Failed to queue the event")).
+                    build();
+        }
+
+        if (!queue.submit(botId, task(botId, eventId, payload))) {
+            Logger.warning("newMessage: too many pending events. Bot: %s", botId);
+            forget(eventId);
+            return Response.
+                    status(503).
+                    entity(new ErrorMessage("Too many pending events")).
+                    build();
+        }
+
+        return Response.
+                ok().
+                status(200).
+                build();
+    }
+
+    private Response await(UUID botId, UUID eventId, Payload payload) {
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        Runnable event = withMdc(() -> {
+            try {
+                result.complete(process(botId, eventId, payload));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+                throw e;
+            }
+        });
+
+        if (!lanes.submit(botId, event)) {
+            Logger.warning("newMessage: too many pending events. Bot: %s", botId);
+            return Response.
+                    status(503).
+                    entity(new ErrorMessage("Too many pending events")).
+                    build();
+        }
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Response.
+                    status(503).
+                    entity(new ErrorMessage("Interrupted while waiting for the event")).
+                    build();
+        } catch (ExecutionException e) {
+            Logger.exception("newMessage: %s %s", e.getCause(), botId, e.getCause().getMessage());
+            return Response.
+                    status(503).
+                    entity(new ErrorMessage(e.getCause().getMessage())).
+                    build();
+        }
+    }
+
+    // the backend got its 200 already and never sends the event again: it only leaves the journal once processed
+    // or failed for good. Retries block the bot's next events, so they still run in order
+    private Runnable task(UUID botId, UUID eventId, Payload payload) {
+        return withMdc(() -> {
+            for (int attempt = 0; ; attempt++) {
+                Response response = process(botId, eventId, payload);
+                if (response.getStatus() != 503) {
+                    if (response.getStatus() != 200) {
+                        Logger.warning("newMessage: acknowledged event %s failed with %d. Bot: %s",
+                                eventId, response.getStatus(), botId);
+                    }
+                    forget(eventId);
+                    return;
+                }
+
+                if (attempt == RETRIES) {
+                    Logger.warning("newMessage: acknowledged event %s still failing, kept for the next start. Bot: %s",
+                            eventId, botId);
+                    return;
+                }
+                try {
+                    Thread.sleep(RETRY_DELAY << attempt);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        });
+    }
+
+    // the request's logging context goes with the event onto the thread that runs it
+    private static Runnable withMdc(Runnable event) {
+        final Map<String, String> mdc = MDC.getCopyOfContextMap();
+        return () -> {
+            if (mdc != null)
+                MDC.setContextMap(mdc);
+            else
+                MDC.clear();
+            event.run();
+        };
+    }
+
+    private void forget(UUID eventId) {
+        if (journal == null)
+            return;
+        try {
+            journal.remove(eventId);
+        } catch (IOException e) {
+            Logger.exception("newMessage: failed to remove event %s from the journal: %s", e, eventId, e.getMessage());
+        }
+    }
+
+    protected Response process(UUID botId, UUID eventId, Payload payload) {
         // put tracing information to logs
         MDCUtils.put("botId", botId);
         MDCUtils.put("eventId", eventId);
         MDCUtils.put("conversationId", payload.convId);
 
         try (WireClient client = getWireClient(botId, payload)) {
+            onMembersChanged(botId, payload, client);
             handleMessage(eventId, payload, client);
         } catch (CryptoException e) {
             Logger.exception("newMessage: %s %s", e, botId, e.getMessage());
@@ -98,6 +325,13 @@ public class MessageResource extends MessageResourceBase {
                     status(410).
                     entity(new ErrorMessage(e.getMessage())).
                     build();
+        } catch (IOException e) {
+            // storage unreachable: worth another try
+            Logger.exception("newMessage: %s %s", e, botId, e.getMessage());
+            return Response.
+                    status(503).
+                    entity(new ErrorMessage(e.getMessage())).
+                    build();
         } catch (Exception e) {
             Logger.exception("newMessage: %s %s", e, botId, e.getMessage());
             return Response.
@@ -112,6 +346,47 @@ public class MessageResource extends MessageResourceBase {
                 build();
     }
 
+    // cached conversation is dropped on membership changes, and sessions with new members are created before
+    // the handler gets to greet them
+    private void onMembersChanged(UUID botId, Payload payload, WireClient client) {
+        if (payload.type == null)
+            return;
+
+        switch (payload.type) {
+            case "conversation.member-join":
+            case "conversation.member-leave":
+            case "conversation.rename":
+                break;
+            default:
+                return;
+        }
+
+        List<UUID> userIds = payload.data == null || payload.data.userIds == null
+                ? new ArrayList<>()
+                : new ArrayList<>(payload.data.userIds);
+        repo.invalidateConversation(botId, userIds);
+
+        // the bot itself has no sessions to warm up or forget, the other users in the event still do
+        userIds.remove(botId);
+        if (!(client instanceof BotClient) || userIds.isEmpty())
+            return;
+
+        BotClient botClient = (BotClient) client;
+        switch (payload.type) {
+            case "conversation.member-join":
+                try {
+                    int sessions = botClient.warmUpSessions(userIds);
+                    Logger.debug("onMembersChanged: created %d sessions. Bot: %s", sessions, botId);
+                } catch (Exception e) {
+                    Logger.warning("onMembersChanged: bot: %s, error: %s", botId, e);
+                }
+                break;
+            case "conversation.member-leave":
+                botClient.forgetDevices(userIds);
+                break;
+        }
+    }
+
     private void respondWithError(UUID botId, Payload payload) {
         try (WireClient client = getWireClient(botId, payload)) {
             client.send(new Reaction(UUID.randomUUID(), ""));
@@ -123,4 +398,63 @@ public class MessageResource extends MessageResourceBase {
     protected WireClient getWireClient(UUID botId, Payload payload) throws IOException, CryptoException {
         return repo.getClient(botId);
     }
+
+    /**
+     * Optional parts of the resource. Whatever is not set is not used
+     */
+    public static class Options {
+        @Nullable
+        private EventDispatcher queue;
+        @Nullable
+        private EventJournal journal;
+        @Nullable
+        private EventDispatcher lanes;
+        @Nullable
+        private PreKeyTopUp preKeyTopUp;
+        @Nullable
+        private EventForwarder forwarder;
+
+        /**
+         * @param queue Events are acknowledged as soon as they are queued and processed in the background.
+         *              Without a journal, queued events are lost when the process stops
+         */
+        public Options queue(@Nullable EventDispatcher queue) {
+            this.queue = queue;
+            return this;
+        }
+
+        /**
+         * @param journal Where queued events are written before they are acknowledged, see
+         *                {@link MessageResource#replay()}
+         */
+        public Options journal(@Nullable EventJournal journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        /**
+         * @param lanes When there is no queue, events run on it and the backend waits for their result, so a bot's
+         *              events are still processed one at a time and in order
+         */
+        public Options lanes(@Nullable EventDispatcher lanes) {
+            this.lanes = lanes;
+            return this;
+        }
+
+        /**
+         * @param preKeyTopUp Bots receiving events get their backend prekeys checked on its next run
+         */
+        public Options preKeyTopUp(@Nullable PreKeyTopUp preKeyTopUp) {
+            this.preKeyTopUp = preKeyTopUp;
+            return this;
+        }
+
+        /**
+         * @param forwarder Events of bots owned by other nodes of the cluster are sent to them
+         */
+        public Options forwarder(@Nullable EventForwarder forwarder) {
+            this.forwarder = forwarder;
+            return this;
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package com.wire.lithium.server.tasks;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.wire.lithium.ClientRepo;
 import com.wire.xenon.WireClient;
@@ -13,6 +14,8 @@ import java.util.Map;
 import java.util.UUID;
 
 public class AvailablePrekeysTask extends TaskBase {
+    private static final ObjectWriter writer = new ObjectMapper().writer(SerializationFeature.INDENT_OUTPUT);
+
     private final ClientRepo repo;
 
     public AvailablePrekeysTask(ClientRepo repo) {
@@ -24,13 +27,9 @@ public class AvailablePrekeysTask extends TaskBase {
     public void execute(Map<String, List<String>> parameters, PrintWriter output) {
         UUID botId = UUID.fromString(extractString(parameters, "bot"));
 
-        try {
-            WireClient client = repo.getClient(botId);
+        try (WireClient client = repo.getClient(botId)) {
             ArrayList<Integer> availablePrekeys = client.getAvailablePrekeys();
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.enable(SerializationFeature.INDENT_OUTPUT);
-
-            output.println(mapper.writeValueAsString(availablePrekeys));
+            output.println(writer.writeValueAsString(availablePrekeys));
         } catch (Exception e) {
             Logger.exception("Exception during AvailablePrekeysTask", e);
             output.println(e.getMessage());
@@ -0,0 +1,144 @@
+package com.wire.lithium.storage;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wire.lithium.Configuration;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.factories.StorageFactory;
+import com.wire.xenon.state.State;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the state of the bots in memory, in front of the storage. Reads go to the storage only on a miss, saves
+ * are written through and removals drop the cached state. State is not cached for bots that have none.
+ * Cached states are shared between the callers and must not be modified without saving them.
+ * With a {@link ClusterInvalidator} the other nodes are told about saves and removals, and their changes are dropped
+ * from this cache.
+ */
+public class CachingStorageFactory implements StorageFactory {
+    private final StorageFactory sf;
+    private final Cache<UUID, NewBot> states;
+    @Nullable
+    private final ClusterInvalidator invalidator;
+
+    public CachingStorageFactory(StorageFactory sf, Configuration.StateCache cache, MetricRegistry metrics) {
+        this(sf, cache, null, metrics);
+    }
+
+    /**
+     * @param sf          Storage factory of the backend
+     * @param cache       Cache limits
+     * @param invalidator Keeps the caches of the other nodes in line, null when this is the only node
+     * @param metrics     Registry where cache size, hits, misses and evictions are reported, unless another factory
+     *                    registered them first
+     */
+    public CachingStorageFactory(StorageFactory sf, Configuration.StateCache cache,
+                                 @Nullable ClusterInvalidator invalidator, MetricRegistry metrics) {
+        this.sf = sf;
+        this.invalidator = invalidator;
+        this.states = Caffeine.newBuilder()
+                .maximumSize(cache.maxSize)
+                .expireAfterWrite(cache.expireAfterWrite.toNanoseconds(), TimeUnit.NANOSECONDS)
+                .recordStats()
+                .build();
+
+        metrics.gauge("states.cache.size", () -> (Gauge<Long>) states::estimatedSize);
+        metrics.gauge("states.cache.hits", () -> (Gauge<Long>) () -> states.stats().hitCount());
+        metrics.gauge("states.cache.misses", () -> (Gauge<Long>) () -> states.stats().missCount());
+        metrics.gauge("states.cache.evictions", () -> (Gauge<Long>) () -> states.stats().evictionCount());
+
+        if (invalidator != null) {
+            invalidator.addListener(new ClusterInvalidator.Listener() {
+                @Override
+                public void stateChanged(UUID botId) {
+                    states.invalidate(botId);
+                }
+
+                @Override
+                public void missed() {
+                    states.invalidateAll();
+                }
+            });
+        }
+    }
+
+    @Override
+    public State create(UUID botId) {
+        return new CachedState(botId);
+    }
+
+    /**
+     * Drops the cached state of this bot. Next read loads it from the storage
+     *
+     * @param botId Bot ID
+     */
+    public void invalidate(UUID botId) {
+        states.invalidate(botId);
+    }
+
+    private class CachedState implements State {
+        private final UUID botId;
+        private State state;
+
+        CachedState(UUID botId) {
+            this.botId = botId;
+        }
+
+        @Override
+        public boolean saveState(NewBot newBot) throws IOException {
+            boolean saved = storage().saveState(newBot);
+            if (saved)
+                states.put(botId, newBot);
+            else
+                states.invalidate(botId);
+            changed();
+            return saved;
+        }
+
+        @Override
+        public NewBot getState() throws IOException {
+            try {
+                return states.get(botId, id -> {
+                    try {
+                        return storage().getState();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        @Override
+        public boolean removeState() throws IOException {
+            states.invalidate(botId);
+            try {
+                return storage().removeState();
+            } finally {
+                // a read racing with the removal may have cached it again
+                states.invalidate(botId);
+                changed();
+            }
+        }
+
+        private void changed() {
+            if (invalidator != null)
+                invalidator.stateChanged(botId);
+        }
+
+        // opened on first use: hits never touch the storage
+        private State storage() throws IOException {
+            if (state == null)
+                state = sf.create(botId);
+            return state;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.wire.lithium.storage;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache invalidation between the nodes sharing one Postgres database, over LISTEN/NOTIFY. Every node broadcasts the
+ * bots whose state it saved or removed, the sessions it wrote and the boxes it purged; the other nodes drop their
+ * cached copies. Events are published in the background, many of them in one NOTIFY.
+ * <p>
+ * One connection of the pool is held for listening. Notifications sent while it is not listening are lost, so
+ * listeners are told to drop everything every time it (re)connects.
+ */
+public class ClusterInvalidator implements Managed {
+    private static final int MAX_PAYLOAD = 7_000;   // Postgres refuses payloads of 8000 bytes and more
+    private static final String STATE = "state ";
+    private static final String SESSION = "session ";
+    private static final String PURGE = "purge ";
+
+    private final String node = UUID.randomUUID().toString();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final LinkedBlockingQueue<String> outgoing;
+    private final Jdbi jdbi;
+    private final String channel;
+
+    private final Meter sent;
+    private final Meter received;
+    private final Meter dropped;
+    private final Meter reconnects;
+
+    private volatile boolean running;
+    private Thread listening;
+    private Thread publishing;
+
+    /**
+     * @param jdbi     Database shared by the nodes
+     * @param channel  Notification channel, the same on every node
+     * @param capacity Max events waiting to be published
+     * @param metrics  Registry where sent, received and dropped events and reconnects are reported
+     */
+    public ClusterInvalidator(Jdbi jdbi, String channel, int capacity, MetricRegistry metrics) {
+        if (!channel.matches("[a-z_][a-z0-9_]*"))
+            throw new IllegalArgumentException("Invalid channel: " + channel);
+
+        this.jdbi = jdbi;
+        this.channel = channel;
+        this.outgoing = new LinkedBlockingQueue<>(capacity);
+
+        sent = metrics.meter("cluster.invalidations.sent");
+        received = metrics.meter("cluster.invalidations.received");
+        dropped = metrics.meter("cluster.invalidations.dropped");
+        reconnects = metrics.meter("cluster.invalidations.reconnects");
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        listening = new Thread(this::listen, "cluster-invalidator-listen");
+        listening.setDaemon(true);
+        listening.start();
+        publishing = new Thread(this::publish, "cluster-invalidator-publish");
+        publishing.setDaemon(true);
+        publishing.start();
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread thread : new Thread[]{listening, publishing}) {
+            if (thread != null) {
+                thread.interrupt();
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            }
+        }
+    }
+
+    /**
+     * @param botId Bot whose state was saved or removed on this node
+     */
+    public void stateChanged(UUID botId) {
+        send(STATE + botId);
+    }
+
+    /**
+     * @param id  Crypto box id
+     * @param sid Session written on this node
+     */
+    public void sessionChanged(String id, String sid) {
+        send(SESSION + id + ' ' + sid);
+    }
+
+    /**
+     * @param id Crypto box purged on this node
+     */
+    public void purged(String id) {
+        send(PURGE + id);
+    }
+
+    private void send(String event) {
+        if (!outgoing.offer(event)) {
+            dropped.mark();
+            Logger.warning("ClusterInvalidator: queue full, dropped: %s", event);
+        }
+    }
+
+    private void publish() {
+        while (running) {
+            List<String> events = new ArrayList<>();
+            try {
+                String first = outgoing.poll(1, TimeUnit.SECONDS);
+                if (first == null)
+                    continue;
+                events.add(first);
+                outgoing.drainTo(events);
+
+                jdbi.useHandle(handle -> {
+                    for (String payload : payloads(events))
+                        handle.execute("SELECT pg_notify(?, ?)", channel, payload);
+                });
+                sent.mark(events.size());
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                Logger.exception("ClusterInvalidator: failed to publish %d events: %s", e, events.size(),
+                        e.getMessage());
+                // kept for the next round, the database is likely to be back by then
+                for (String event : events)
+                    send(event);
+                pause();
+            }
+        }
+    }
+
+    // events are sent in as few notifications as fit, each starts with the id of the sending node
+    private List<String> payloads(List<String> events) {
+        List<String> ret = new ArrayList<>();
+        StringBuilder payload = new StringBuilder(node);
+        for (String event : events) {
+            if (payload.length() > node.length() && payload.length() + 1 + event.length() > MAX_PAYLOAD) {
+                ret.add(payload.toString());
+                payload = new StringBuilder(node);
+            }
+            payload.append('\n').append(event);
+        }
+        ret.add(payload.toString());
+        return ret;
+    }
+
+    private void listen() {
+        while (running) {
+            try (Handle handle = jdbi.open()) {
+                handle.execute("LISTEN " + channel);
+                PGConnection connection = handle.getConnection().unwrap(PGConnection.class);
+
+                for (Listener listener : listeners)
+                    listener.missed();
+
+                while (running) {
+                    PGNotification[] notifications = connection.getNotifications(500);
+                    if (notifications == null)
+                        continue;
+                    for (PGNotification notification : notifications)
+                        receive(notification.getParameter());
+                }
+            } catch (Exception e) {
+                if (!running)
+                    return;
+                reconnects.mark();
+                Logger.warning("ClusterInvalidator: listening failed, reconnecting: %s", e);
+                pause();
+            }
+        }
+    }
+
+    private void receive(String payload) {
+        String[] lines = payload.split("\n");
+        if (lines[0].equals(node))
+            return;
+
+        for (int i = 1; i < lines.length; i++) {
+            String event = lines[i];
+            received.mark();
+            try {
+                for (Listener listener : listeners) {
+                    if (event.startsWith(STATE)) {
+                        listener.stateChanged(UUID.fromString(event.substring(STATE.length())));
+                    } else if (event.startsWith(SESSION)) {
+                        String[] session = event.substring(SESSION.length()).split(" ", 2);
+                        listener.sessionChanged(session[0], session[1]);
+                    } else if (event.startsWith(PURGE)) {
+                        listener.purged(event.substring(PURGE.length()));
+                    }
+                }
+            } catch (Exception e) {
+                Logger.warning("ClusterInvalidator: bad event: %s, %s", event, e);
+            }
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drops what another node changed from a local cache
+     */
+    public interface Listener {
+        /**
+         * @param botId Bot whose state was saved or removed
+         */
+        default void stateChanged(UUID botId) {
+        }
+
+        /**
+         * @param id  Crypto box id
+         * @param sid Session that was written
+         */
+        default void sessionChanged(String id, String sid) {
+        }
+
+        /**
+         * @param id Crypto box that was purged
+         */
+        default void purged(String id) {
+        }
+
+        /**
+         * Notifications may have been missed: everything cached is to be dropped
+         */
+        void missed();
+    }
+}
@@ -0,0 +1,44 @@
+package com.wire.lithium.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.exceptions.MissingStateException;
+import com.wire.xenon.state.State;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Bot state kept in the {@link SegmentStore}, as the json {@code FileState} would write to its file
+ */
+public class SegmentState implements State {
+    public static final String PREFIX = "state/";
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final SegmentStore store;
+    private final UUID botId;
+
+    public SegmentState(SegmentStore store, UUID botId) {
+        this.store = store;
+        this.botId = botId;
+    }
+
+    @Override
+    public boolean saveState(NewBot newBot) throws IOException {
+        store.put(PREFIX + botId, mapper.writeValueAsBytes(newBot));
+        return true;
+    }
+
+    @Override
+    public NewBot getState() throws IOException {
+        byte[] state = store.get(PREFIX + botId);
+        if (state == null)
+            throw new MissingStateException(botId);
+        return mapper.readValue(state, NewBot.class);
+    }
+
+    @Override
+    public boolean removeState() throws IOException {
+        return store.delete(PREFIX + botId);
+    }
+}
@@ -0,0 +1,551 @@
+package com.wire.lithium.storage;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Key-value store packed into a few memory-mapped, append-only segment files. Every put or delete appends a record
+ * to the active segment; an in-memory index points at the latest record of each key. When the active segment is
+ * full a new one is started, and older segments that are mostly overwritten are compacted: their live records are
+ * copied forward and the file is deleted.
+ * <p>
+ * Records carry a checksum. On open the segments are replayed oldest first to rebuild the index; replay of a
+ * segment stops at the first record that is incomplete or corrupt, which is where a crash left off. A
+ * {@link Batch} is preceded by a marker record with its size, and is only replayed when all of its records are.
+ * Writes are not forced to disk one by one, like the files of the {@code fs} backend; they are on close.
+ * <p>
+ * Values read are kept in a cache bounded in bytes, so hot keys do not touch the mapped pages.
+ * <p>
+ * Record layout: crc32 (int), key length (int), value length (int, -1 for deletes), key (utf-8), value
+ */
+public class SegmentStore implements Managed, Closeable {
+    private static final int HEADER = 12;
+    private static final String SUFFIX = ".seg";
+    private static final String BATCH = "\u0000batch";   // marker record, value is the number of records following
+
+    private final Path dir;
+    private final int segmentSize;
+    private final double compactBelow;
+
+    private final ConcurrentSkipListMap<String, Location> index = new ConcurrentSkipListMap<>();
+    @Nullable
+    private final Cache<String, Cached> cache;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();    // guarded by this
+    private Segment active;                                             // guarded by this
+
+    private final Meter compactions;
+
+    /**
+     * Opens the store, recovering the index from the segments found in the directory
+     *
+     * @param dir          Directory of the segment files, created if missing
+     * @param segmentSize  Size of a segment file in bytes
+     * @param compactBelow Segments whose live records take less than this share of the file get compacted
+     * @param cacheBytes   Max bytes of values cached. 0 disables the cache
+     * @param metrics      Registry where segment count, sizes, compactions and cache hits are reported
+     */
+    public SegmentStore(Path dir, int segmentSize, double compactBelow, long cacheBytes, MetricRegistry metrics)
+            throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.compactBelow = compactBelow;
+        this.cache = cacheBytes == 0 ? null : Caffeine.newBuilder()
+                .maximumWeight(cacheBytes)
+                .weigher((String key, Cached cached) -> key.length() * 2 + cached.value.length)
+                .recordStats()
+                .build();
+
+        Files.createDirectories(dir);
+        recover();
+
+        compactions = metrics.meter("storage.segments.compactions");
+        metrics.register("storage.segments.count", (Gauge<Integer>) this::getSegmentCount);
+        metrics.register("storage.segments.keys", (Gauge<Integer>) index::size);
+        metrics.register("storage.segments.live", (Gauge<Long>) this::getLiveBytes);
+        if (cache != null) {
+            metrics.register("storage.segments.cache.hits", (Gauge<Long>) () -> cache.stats().hitCount());
+            metrics.register("storage.segments.cache.misses", (Gauge<Long>) () -> cache.stats().missCount());
+        }
+    }
+
+    /**
+     * @param key Key
+     * @return Latest value, or null when the key is not stored. Values may be shared: do not modify them
+     */
+    @Nullable
+    public byte[] get(String key) {
+        Location location = index.get(key);
+        if (location == null || location.valueLength < 0)
+            return null;
+        if (cache == null)
+            return location.value();
+
+        // entries of older records are ignored, so a value read while the key was overwritten is never served
+        Cached cached = cache.getIfPresent(key);
+        if (cached != null && cached.location == location)
+            return cached.value;
+
+        byte[] value = location.value();
+        cache.put(key, new Cached(location, value));
+        return value;
+    }
+
+    public synchronized void put(String key, byte[] value) throws IOException {
+        append(key, value, true);
+    }
+
+    /**
+     * @param key Key
+     * @return False if the key was not stored
+     */
+    public synchronized boolean delete(String key) throws IOException {
+        Location location = index.get(key);
+        if (location == null || location.valueLength < 0)
+            return false;
+        append(key, null, true);
+        return true;
+    }
+
+    /**
+     * Applies the puts and deletes of the batch. After a crash either all of them are found or none
+     *
+     * @param batch Batch to write
+     */
+    public synchronized void write(Batch batch) throws IOException {
+        if (batch.keys.isEmpty())
+            return;
+
+        byte[] count = ByteBuffer.allocate(4).putInt(batch.keys.size()).array();
+        int length = length(BATCH, count);
+        for (int i = 0; i < batch.keys.size(); i++)
+            length += length(batch.keys.get(i), batch.values.get(i));
+
+        // the whole batch goes into one segment, compaction on roll may have used part of the new one
+        if (active.position + length > active.capacity)
+            roll(length, true);
+        if (active.position + length > active.capacity)
+            roll(length, false);
+
+        append(BATCH, count, false);
+        for (int i = 0; i < batch.keys.size(); i++)
+            append(batch.keys.get(i), batch.values.get(i), false);
+    }
+
+    /**
+     * @param prefix Key prefix
+     * @param after  Keys up to and including this one are skipped. Null to start at the prefix
+     * @param limit  Max number of keys returned
+     * @return Stored keys with this prefix, in order
+     */
+    public List<String> keys(String prefix, @Nullable String after, int limit) {
+        String from = after != null && after.compareTo(prefix) > 0 ? after : prefix;
+        boolean inclusive = after == null || after.compareTo(prefix) <= 0;
+
+        List<String> ret = new ArrayList<>();
+        for (Map.Entry<String, Location> entry : index.tailMap(from, inclusive).entrySet()) {
+            if (ret.size() >= limit || !entry.getKey().startsWith(prefix))
+                break;
+            if (entry.getValue().valueLength >= 0)
+                ret.add(entry.getKey());
+        }
+        return ret;
+    }
+
+    /**
+     * @param prefix Key prefix
+     * @return All stored keys with this prefix, in order
+     */
+    public List<String> keys(String prefix) {
+        return keys(prefix, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Deletes every key with these prefixes, in one batch
+     *
+     * @param prefixes Key prefixes
+     * @return Number of keys deleted
+     */
+    public synchronized int deletePrefix(String... prefixes) throws IOException {
+        Batch batch = new Batch();
+        int ret = 0;
+        for (String prefix : prefixes) {
+            for (String key : keys(prefix)) {
+                batch.delete(key);
+                ret++;
+            }
+        }
+        write(batch);
+        return ret;
+    }
+
+    /**
+     * Moves every key with one prefix under another one
+     *
+     * @param from Current key prefix
+     * @param to   New key prefix
+     * @return Number of keys moved
+     */
+    public int movePrefix(String from, String to) throws IOException {
+        return movePrefix(Map.of(from, to));
+    }
+
+    /**
+     * Moves the keys of every prefix under its new one, in one batch
+     *
+     * @param prefixes New key prefix by current one
+     * @return Number of keys moved
+     */
+    public synchronized int movePrefix(Map<String, String> prefixes) throws IOException {
+        Batch batch = new Batch();
+        int ret = 0;
+        for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+            String from = prefix.getKey();
+            for (String key : keys(from)) {
+                batch.put(prefix.getValue() + key.substring(from.length()), get(key));
+                batch.delete(key);
+                ret++;
+            }
+        }
+        write(batch);
+        return ret;
+    }
+
+    /**
+     * Compacts the segments, other than the active one, whose live records take less than {@code compactBelow}
+     * of the file
+     *
+     * @return Number of segments compacted
+     */
+    public synchronized int compact() throws IOException {
+        int ret = 0;
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment == active || segment.live >= segment.capacity * compactBelow)
+                continue;
+            compact(segment);
+            ret++;
+        }
+        return ret;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public synchronized long getLiveBytes() {
+        long ret = 0;
+        for (Segment segment : segments.values())
+            ret += segment.live;
+        return ret;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() throws IOException {
+        close();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments.values())
+            segment.buffer.force();
+    }
+
+    private static int length(String key, @Nullable byte[] value) {
+        return HEADER + key.getBytes(StandardCharsets.UTF_8).length + (value == null ? 0 : value.length);
+    }
+
+    private void append(String key, @Nullable byte[] value, boolean compact) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        int valueLength = value == null ? -1 : value.length;
+        int length = HEADER + k.length + Math.max(valueLength, 0);
+
+        // like a batch, compaction on roll may have used part of the new segment
+        if (active.position + length > active.capacity)
+            roll(length, compact);
+        if (active.position + length > active.capacity)
+            roll(length, false);
+
+        int offset = active.position;
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(offset + 4);
+        buffer.putInt(k.length);
+        buffer.putInt(valueLength);
+        buffer.put(k);
+        if (value != null)
+            buffer.put(value);
+        active.buffer.putInt(offset, crc(active.buffer, offset, length));
+        active.position += length;
+
+        if (!key.equals(BATCH))
+            index(key, new Location(active, offset, k.length, valueLength, length));
+    }
+
+    private void index(String key, Location location) {
+        Location old = index.put(key, location);
+        if (old != null)
+            old.segment.live -= old.length;
+        location.segment.live += location.length;
+    }
+
+    private void roll(int length, boolean compact) throws IOException {
+        long id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        active = open(id, Math.max(segmentSize, length));
+        segments.put(id, active);
+
+        if (compact)
+            compact();
+    }
+
+    private void compact(Segment segment) throws IOException {
+        boolean oldest = segment == segments.firstEntry().getValue();
+
+        int offset = 0;
+        while (offset < segment.position) {
+            Location record = segment.read(offset);
+            String key = record.key();
+            Location current = index.get(key);
+            if (current != null && current.segment == segment && current.offset == offset) {
+                if (record.valueLength < 0 && oldest) {
+                    // no older segment left that this delete has to hide
+                    index.remove(key, current);
+                    segment.live -= current.length;
+                } else {
+                    append(key, record.valueLength < 0 ? null : record.value(), false);
+                }
+            }
+            offset += record.length;
+        }
+
+        // the copies, in the newer segments, are on disk before the file holding the only other copy is gone
+        for (Segment newer : segments.tailMap(segment.id, false).values())
+            newer.buffer.force();
+        segments.remove(segment.id);
+        Files.deleteIfExists(segment.path);
+        compactions.mark();
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(dir)) {
+            list.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).forEach(files::add);
+        }
+
+        TreeMap<Long, Path> sorted = new TreeMap<>();
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            sorted.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), file);
+        }
+
+        for (Map.Entry<Long, Path> entry : sorted.entrySet()) {
+            Segment segment = open(entry.getKey(), (int) Files.size(entry.getValue()));
+            segments.put(segment.id, segment);
+            replay(segment);
+            active = segment;
+        }
+
+        if (active == null) {
+            active = open(1, segmentSize);
+            segments.put(active.id, active);
+        }
+    }
+
+    private void replay(Segment segment) {
+        int offset = 0;
+        List<Location> records = new ArrayList<>();
+        while (read(segment, offset, records)) {
+            for (Location record : records) {
+                index(record.key(), record);
+                offset = record.offset + record.length;
+            }
+            records.clear();
+        }
+        segment.position = offset;
+
+        // zero what a crash left behind, so later appends cannot be mistaken for it
+        if (offset + HEADER <= segment.capacity && segment.buffer.getInt(offset + 4) != 0) {
+            Logger.warning("SegmentStore: %s: incomplete record at %d, truncated", segment.path, offset);
+            for (int i = offset; i < segment.capacity; i++)
+                segment.buffer.put(i, (byte) 0);
+        }
+    }
+
+    // reads the record at offset, or the whole batch starting there. False when there is nothing complete to read
+    private static boolean read(Segment segment, int offset, List<Location> records) {
+        Location record = segment.tryRead(offset);
+        if (record == null)
+            return false;
+        if (!record.key().equals(BATCH)) {
+            records.add(record);
+            return true;
+        }
+
+        int count = ByteBuffer.wrap(record.value()).getInt();
+        int next = offset + record.length;
+        for (int i = 0; i < count; i++) {
+            Location inBatch = segment.tryRead(next);
+            if (inBatch == null) {
+                records.clear();
+                return false;
+            }
+            records.add(inBatch);
+            next += inBatch.length;
+        }
+        // an empty batch is never written: this one is complete, records hold at least one
+        return true;
+    }
+
+    private Segment open(long id, int capacity) throws IOException {
+        Path path = dir.resolve(String.format("%016d%s", id, SUFFIX));
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            if (file.length() < capacity)
+                file.setLength(capacity);
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new Segment(id, path, buffer, capacity);
+        }
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset + 4);
+        slice.limit(offset + length);
+        CRC32 crc = new CRC32();
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Puts and deletes written together with {@link #write(Batch)}
+     */
+    public static class Batch {
+        final List<String> keys = new ArrayList<>();
+        final List<byte[]> values = new ArrayList<>();
+
+        public Batch put(String key, byte[] value) {
+            keys.add(key);
+            values.add(value);
+            return this;
+        }
+
+        public Batch delete(String key) {
+            keys.add(key);
+            values.add(null);
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return keys.isEmpty();
+        }
+    }
+
+    private static class Cached {
+        final Location location;
+        final byte[] value;
+
+        Cached(Location location, byte[] value) {
+            this.location = location;
+            this.value = value;
+        }
+    }
+
+    private static class Segment {
+        final long id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        int position;   // guarded by the store
+        long live;      // bytes of records the index points at, guarded by the store
+
+        Segment(long id, Path path, MappedByteBuffer buffer, int capacity) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+
+        Location read(int offset) {
+            return new Location(this, offset, buffer.getInt(offset + 4), buffer.getInt(offset + 8));
+        }
+
+        // null at the end of the written records, or at a record a crash left incomplete
+        @Nullable
+        Location tryRead(int offset) {
+            if (offset + HEADER > capacity)
+                return null;
+
+            int keyLength = buffer.getInt(offset + 4);
+            int valueLength = buffer.getInt(offset + 8);
+            if (keyLength <= 0 || valueLength < -1)
+                return null;
+
+            long length = (long) HEADER + keyLength + Math.max(valueLength, 0);
+            if (offset + length > capacity)
+                return null;
+            if (buffer.getInt(offset) != crc(buffer, offset, (int) length))
+                return null;
+
+            return new Location(this, offset, keyLength, valueLength);
+        }
+    }
+
+    private static class Location {
+        final Segment segment;
+        final int offset;
+        final int keyLength;
+        final int valueLength;  // -1 for deletes
+        final int length;
+
+        Location(Segment segment, int offset, int keyLength, int valueLength) {
+            this(segment, offset, keyLength, valueLength, HEADER + keyLength + Math.max(valueLength, 0));
+        }
+
+        Location(Segment segment, int offset, int keyLength, int valueLength, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.valueLength = valueLength;
+            this.length = length;
+        }
+
+        String key() {
+            byte[] key = new byte[keyLength];
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(offset + HEADER);
+            buffer.get(key);
+            return new String(key, StandardCharsets.UTF_8);
+        }
+
+        byte[] value() {
+            byte[] value = new byte[valueLength];
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(offset + HEADER + keyLength);
+            buffer.get(value);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.wire.lithium.tools;
+
+import com.wire.xenon.tools.Logger;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates executors backed by virtual threads when the running JVM supports them (Java 21+).
+ * Lithium is compiled for Java 11, so the API is looked up reflectively.
+ */
+public class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return threadFactory("probe-") != null;
+    }
+
+    /**
+     * Executor that starts a new virtual thread for every task
+     *
+     * @param prefix Thread name prefix
+     * @return New executor, null when this JVM has no virtual threads
+     */
+    @Nullable
+    public static ExecutorService newExecutor(String prefix) {
+        ThreadFactory factory = threadFactory(prefix);
+        if (factory != null) {
+            try {
+                Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                return (ExecutorService) method.invoke(null, factory);
+            } catch (Exception e) {
+                Logger.exception("VirtualThreads: unable to create executor: %s", e, e.getMessage());
+            }
+        }
+
+        Logger.warning("VirtualThreads: not supported by this JVM (%s), using platform threads for %s",
+                System.getProperty("java.version"), prefix);
+        return null;
+    }
+
+    @Nullable
+    private static ThreadFactory threadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+CREATE TABLE QueuedEvents (
+    seq        bigserial PRIMARY KEY,
+    eventId    uuid NOT NULL UNIQUE,
+    node       varchar NOT NULL,
+    botId      uuid NOT NULL,
+    payload    json NOT NULL
+);
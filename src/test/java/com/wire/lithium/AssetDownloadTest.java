@@ -0,0 +1,94 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpServer;
+import com.wire.xenon.tools.Util;
+import io.dropwizard.jackson.Jackson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.client.Client;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class AssetDownloadTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Random random = new Random();
+    private HttpServer server;
+    private Client client;
+    private API api;
+
+    private byte[] plain;
+    private byte[] otrKey;
+    private byte[] sha256;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        plain = new byte[300 * 1024 + 3];
+        random.nextBytes(plain);
+        otrKey = new byte[32];
+        random.nextBytes(otrKey);
+        byte[] iv = new byte[16];
+        random.nextBytes(iv);
+        byte[] cipher = Util.encrypt(otrKey, plain, iv);
+        sha256 = MessageDigest.getInstance("SHA-256").digest(cipher);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        String host = "http://localhost:" + server.getAddress().getPort();
+        server.createContext("/bot/assets", exchange -> {
+            exchange.getResponseHeaders().add("Location", host + "/s3/asset");
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        });
+        server.createContext("/s3/asset", exchange -> {
+            exchange.sendResponseHeaders(200, cipher.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(cipher);
+            }
+        });
+        server.start();
+
+        client = new StreamingClientBuilder(new MetricRegistry())
+                .using(new Configuration._JerseyClientConfiguration())
+                .using(executor, Jackson.newObjectMapper())
+                .build("AssetDownloadTest");
+        api = new API(client, "token", host);
+    }
+
+    @AfterEach
+    public void teardown() {
+        client.close();
+        executor.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testDecryptWhileDownloading() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        api.downloadAsset("3-1-key", "token", sha256, otrKey, output);
+
+        Assertions.assertArrayEquals(plain, output.toByteArray());
+        Assertions.assertArrayEquals(plain, Util.decrypt(otrKey, api.downloadAsset("3-1-key", "token")));
+    }
+
+    @Test
+    public void testFileIsDeletedOnFailedSha256() throws Exception {
+        Path file = Files.createTempFile("lithium-asset", ".bin");
+        byte[] wrong = new byte[32];
+
+        Exception e = Assertions.assertThrows(Exception.class,
+                () -> api.downloadAsset("3-1-key", null, wrong, otrKey, file));
+
+        Assertions.assertEquals("Failed sha256 check", e.getMessage());
+        Assertions.assertFalse(Files.exists(file));
+    }
+}
@@ -0,0 +1,241 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.sun.net.httpserver.HttpServer;
+import com.wire.lithium.helpers.Stubs;
+import com.wire.xenon.assets.FileAsset;
+import com.wire.xenon.assets.FileAssetPreview;
+import com.wire.xenon.assets.IAsset;
+import com.wire.xenon.assets.IGeneric;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.models.AssetKey;
+import com.wire.xenon.tools.Util;
+import io.dropwizard.jackson.Jackson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.client.Client;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AssetUploadTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private HttpServer server;
+    private Client client;
+
+    private volatile String contentLength;
+    private volatile String transferEncoding;
+    private volatile byte[] body;
+    private final CountDownLatch uploaded = new CountDownLatch(1);
+
+    @BeforeEach
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/bot/assets", exchange -> {
+            contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+            try (InputStream input = exchange.getRequestBody()) {
+                body = Util.toByteArray(input);
+            }
+            uploaded.countDown();
+
+            byte[] response = "{\"id\":\"3-1-key\",\"token\":\"token\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(201, response.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(response);
+            }
+        });
+        server.start();
+
+        client = new StreamingClientBuilder(new MetricRegistry())
+                .using(new Configuration._JerseyClientConfiguration())
+                .using(executor, Jackson.newObjectMapper())
+                .withProvider(JacksonJsonProvider.class)
+                .build("AssetUploadTest");
+    }
+
+    @AfterEach
+    public void teardown() {
+        client.close();
+        executor.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testUploadIsStreamedWithContentLength() throws Exception {
+        byte[] data = new byte[512 * 1024 + 7];
+        new Random().nextBytes(data);
+
+        API api = new API(client, "token", "http://localhost:" + server.getAddress().getPort());
+        AssetKey assetKey = api.uploadAsset(asset(data));
+
+        Assertions.assertEquals("3-1-key", assetKey.id);
+        Assertions.assertNull(transferEncoding);
+        Assertions.assertEquals(String.valueOf(body.length), contentLength);
+
+        String metadata = "{\"public\": false, \"retention\": \"volatile\"}";
+        String head = "--frontier\r\n" +
+                "Content-Type: application/json; charset=utf-8\r\n" +
+                "Content-Length: " + metadata.length() + "\r\n\r\n" +
+                metadata + "\r\n" +
+                "--frontier\r\n" +
+                "Content-Type: application/octet-stream\r\n" +
+                "Content-Length: " + data.length + "\r\n" +
+                "Content-MD5: " + Util.calcMd5(data) + "\r\n\r\n";
+        String tail = "\r\n--frontier--\r\n";
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(head.getBytes(StandardCharsets.UTF_8));
+        expected.write(data);
+        expected.write(tail.getBytes(StandardCharsets.UTF_8));
+
+        Assertions.assertTrue(Arrays.equals(expected.toByteArray(), body));
+    }
+
+    @Test
+    public void testStreamedEntityCanBeRead() throws Exception {
+        byte[] data = new byte[200 * 1024 + 3];
+        new Random().nextBytes(data);
+
+        StreamingApacheConnector.FixedLengthEntity entity =
+                new StreamingApacheConnector.FixedLengthEntity(data.length, output -> output.write(data));
+        try (InputStream content = entity.getContent()) {
+            Assertions.assertArrayEquals(data, Util.toByteArray(content));
+        }
+
+        StreamingApacheConnector.FixedLengthEntity failing =
+                new StreamingApacheConnector.FixedLengthEntity(data.length, output -> {
+                    output.write(data, 0, 10);
+                    throw new IOException("broken");
+                });
+        try (InputStream content = failing.getContent()) {
+            Assertions.assertThrows(IOException.class, () -> Util.toByteArray(content));
+        }
+    }
+
+    @Test
+    public void testPipelinedSendUploadsWhilePreviewIsInFlight() throws Exception {
+        Path file = Files.createTempFile("report-", ".pdf");
+        try {
+            byte[] data = new byte[64 * 1024 + 3];
+            new Random().nextBytes(data);
+            Files.write(file, data);
+
+            API api = new API(client, "token", "http://localhost:" + server.getAddress().getPort());
+            List<IGeneric> posted = Collections.synchronizedList(new ArrayList<>());
+            BotClient botClient = new BotClient(api, null, null) {
+                @Override
+                protected void postGenericMessage(IGeneric generic) throws Exception {
+                    // preview is delivered only after the upload has reached the backend
+                    if (generic instanceof FileAssetPreview && !uploaded.await(10, TimeUnit.SECONDS))
+                        throw new Exception("Upload did not start while preview was in flight");
+                    posted.add(generic);
+                }
+            };
+
+            UUID messageId = botClient.sendFileAsync(file, "application/pdf", executor).get(10, TimeUnit.SECONDS);
+
+            Assertions.assertEquals(2, posted.size());
+            Assertions.assertTrue(posted.get(0) instanceof FileAssetPreview);
+            FileAsset asset = (FileAsset) posted.get(1);
+            Assertions.assertEquals(messageId, posted.get(0).getMessageId());
+            Assertions.assertEquals(messageId, asset.getMessageId());
+            Assertions.assertEquals("3-1-key", asset.getAssetKey());
+            Assertions.assertEquals("token", asset.getAssetToken());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testCloseWaitsForPipelinedSend() throws Exception {
+        Path file = Files.createTempFile("report-", ".pdf");
+        try {
+            Files.write(file, new byte[1024]);
+
+            API api = new API(client, "token", "http://localhost:" + server.getAddress().getPort());
+            AtomicBoolean closed = new AtomicBoolean();
+            CountDownLatch release = new CountDownLatch(1);
+            List<Boolean> closedWhilePosting = Collections.synchronizedList(new ArrayList<>());
+            BotClient botClient = new BotClient(api, crypto(closed), null) {
+                @Override
+                protected void postGenericMessage(IGeneric generic) throws Exception {
+                    release.await(10, TimeUnit.SECONDS);
+                    closedWhilePosting.add(closed.get());
+                }
+            };
+
+            CompletableFuture<UUID> sent = botClient.sendFileAsync(file, "application/pdf", executor);
+            botClient.close();
+            Assertions.assertFalse(closed.get());
+            Assertions.assertThrows(IllegalStateException.class,
+                    () -> botClient.sendFileAsync(file, "application/pdf", executor));
+
+            release.countDown();
+            sent.get(10, TimeUnit.SECONDS);
+
+            Assertions.assertEquals(List.of(false, false), closedWhilePosting);
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (!closed.get() && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            Assertions.assertTrue(closed.get());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static Crypto crypto(AtomicBoolean closed) {
+        return Stubs.of(Crypto.class,
+                (proxy, method, args) -> {
+                    if (method.getName().equals("close"))
+                        closed.set(true);
+                    return method.getName().equals("isClosed") ? closed.get() : null;
+                });
+    }
+
+    private static IAsset asset(byte[] data) {
+        return new IAsset() {
+            @Override
+            public String getMimeType() {
+                return "application/octet-stream";
+            }
+
+            @Override
+            public String getRetention() {
+                return "volatile";
+            }
+
+            @Override
+            public byte[] getEncryptedData() {
+                return data;
+            }
+
+            @Override
+            public boolean isPublic() {
+                return false;
+            }
+        };
+    }
+}
@@ -0,0 +1,95 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.helpers.Stubs;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.assets.MessageText;
+import com.wire.xenon.exceptions.MissingStateException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BroadcasterTest {
+    private static final int CONCURRENCY = 4;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(16);
+    private final Set<UUID> sent = ConcurrentHashMap.newKeySet();
+    private final Set<UUID> unknown = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    @AfterEach
+    public void teardown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testBroadcast() throws Exception {
+        List<UUID> botIds = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            botIds.add(UUID.randomUUID());
+        unknown.add(botIds.get(10));
+
+        Broadcaster broadcaster = new Broadcaster(new FakeRepo(), executor, CONCURRENCY, new MetricRegistry());
+        Broadcaster.Report report = broadcaster.broadcast(new MessageText("Hello"), botIds);
+
+        Assertions.assertEquals(99, report.getDelivered());
+        Assertions.assertEquals(1, report.getFailed());
+        Assertions.assertEquals(99, sent.size());
+        Assertions.assertTrue(maxRunning.get() <= CONCURRENCY);
+
+        for (int i = 0; i < botIds.size(); i++) {
+            Broadcaster.Result result = report.getResults().get(i);
+            Assertions.assertEquals(botIds.get(i), result.botId);
+            if (i == 10) {
+                Assertions.assertFalse(result.isDelivered());
+                Assertions.assertTrue(result.getError() instanceof MissingStateException);
+                Assertions.assertNull(result.getConversationId());
+            } else {
+                Assertions.assertTrue(result.isDelivered());
+                Assertions.assertEquals(conversationOf(botIds.get(i)), result.getConversationId());
+            }
+        }
+    }
+
+    private static UUID conversationOf(UUID botId) {
+        return new UUID(botId.getLeastSignificantBits(), botId.getMostSignificantBits());
+    }
+
+    private class FakeRepo extends ClientRepo {
+        FakeRepo() {
+            super(null, null, null);
+        }
+
+        @Override
+        public WireClient getClient(UUID botId) throws MissingStateException {
+            if (unknown.contains(botId))
+                throw new MissingStateException(botId);
+
+            return Stubs.of(WireClient.class,
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getConversationId":
+                                return conversationOf(botId);
+                            case "send":
+                                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                                Thread.sleep(2);
+                                running.decrementAndGet();
+                                sent.add(botId);
+                                return null;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.storage.CachingStorageFactory;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.exceptions.MissingStateException;
+import com.wire.xenon.state.State;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+public class CachingStorageFactoryTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final Map<UUID, NewBot> stored = new HashMap<>();
+    private int reads;
+
+    private final CachingStorageFactory sf = new CachingStorageFactory(botId -> new State() {
+        @Override
+        public boolean saveState(NewBot newBot) {
+            stored.put(botId, newBot);
+            return true;
+        }
+
+        @Override
+        public NewBot getState() throws MissingStateException {
+            reads++;
+            NewBot ret = stored.get(botId);
+            if (ret == null)
+                throw new MissingStateException(botId);
+            return ret;
+        }
+
+        @Override
+        public boolean removeState() {
+            return stored.remove(botId) != null;
+        }
+    }, new Configuration.StateCache(), metrics);
+
+    @Test
+    public void testStateIsReadOnce() throws Exception {
+        UUID botId = UUID.randomUUID();
+        stored.put(botId, bot(botId, "token"));
+
+        Assertions.assertEquals("token", sf.create(botId).getState().token);
+        Assertions.assertEquals("token", sf.create(botId).getState().token);
+
+        Assertions.assertEquals(1, reads);
+        Assertions.assertEquals(1L, metrics.getGauges().get("states.cache.hits").getValue());
+        Assertions.assertEquals(1L, metrics.getGauges().get("states.cache.misses").getValue());
+    }
+
+    @Test
+    public void testSaveWritesThrough() throws Exception {
+        UUID botId = UUID.randomUUID();
+
+        Assertions.assertTrue(sf.create(botId).saveState(bot(botId, "first")));
+        Assertions.assertTrue(sf.create(botId).saveState(bot(botId, "second")));
+
+        Assertions.assertEquals("second", stored.get(botId).token);
+        Assertions.assertEquals("second", sf.create(botId).getState().token);
+        Assertions.assertEquals(0, reads);
+    }
+
+    @Test
+    public void testRemoveInvalidates() throws Exception {
+        UUID botId = UUID.randomUUID();
+        State state = sf.create(botId);
+        state.saveState(bot(botId, "token"));
+
+        Assertions.assertTrue(state.removeState());
+        Assertions.assertThrows(MissingStateException.class, () -> sf.create(botId).getState());
+        Assertions.assertThrows(MissingStateException.class, () -> sf.create(botId).getState());
+
+        // missing state is not cached
+        Assertions.assertEquals(2, reads);
+        stored.put(botId, bot(botId, "again"));
+        Assertions.assertEquals("again", sf.create(botId).getState().token);
+    }
+
+    private static NewBot bot(UUID botId, String token) {
+        NewBot ret = new NewBot();
+        ret.id = botId;
+        ret.token = token;
+        return ret;
+    }
+}
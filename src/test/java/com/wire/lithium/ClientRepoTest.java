@@ -0,0 +1,144 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.exceptions.MissingStateException;
+import com.wire.xenon.state.State;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ClientRepoTest {
+    private final ConcurrentHashMap<UUID, NewBot> states = new ConcurrentHashMap<>();
+    private final AtomicInteger reads = new AtomicInteger();
+    private Client client;
+    private MetricRegistry metrics;
+    private ClientRepo repo;
+
+    @BeforeEach
+    public void setup() {
+        client = ClientBuilder.newClient();
+        metrics = new MetricRegistry();
+        repo = new ClientRepo(client, botId -> null, this::state, new Configuration.ClientCache(), metrics);
+    }
+
+    @AfterEach
+    public void teardown() {
+        client.close();
+    }
+
+    @Test
+    public void testStateIsLoadedOnce() throws Exception {
+        UUID botId = newBot();
+
+        WireClient first = repo.getClient(botId);
+        WireClient second = repo.getClient(botId);
+
+        Assertions.assertEquals(1, reads.get());
+        Assertions.assertEquals(botId, first.getId());
+        Assertions.assertEquals(botId, second.getId());
+        Assertions.assertEquals(1L, gauge("clients.cache.hits"));
+        Assertions.assertEquals(1L, gauge("clients.cache.misses"));
+    }
+
+    @Test
+    public void testPurgeInvalidates() throws Exception {
+        UUID botId = newBot();
+
+        repo.getClient(botId);
+        repo.purgeBot(botId);
+
+        Assertions.assertThrows(MissingStateException.class, () -> repo.getClient(botId));
+        Assertions.assertEquals(2, reads.get());
+    }
+
+    @Test
+    public void testReadDuringPurgeIsNotCached() throws Exception {
+        UUID botId = newBot();
+        repo = new ClientRepo(client, id -> null, id -> new State() {
+            private final State state = state(id);
+
+            @Override
+            public boolean saveState(NewBot newBot) throws IOException {
+                return state.saveState(newBot);
+            }
+
+            @Override
+            public NewBot getState() throws IOException {
+                return state.getState();
+            }
+
+            @Override
+            public boolean removeState() throws IOException {
+                // another event loads the bot while its state is being removed
+                Assertions.assertDoesNotThrow(() -> repo.getClient(botId));
+                return state.removeState();
+            }
+        }, new Configuration.ClientCache(), new MetricRegistry());
+
+        repo.purgeBot(botId);
+
+        Assertions.assertThrows(MissingStateException.class, () -> repo.getClient(botId));
+    }
+
+    @Test
+    public void testDisabledCache() throws Exception {
+        Configuration.ClientCache cache = new Configuration.ClientCache();
+        cache.maxSize = 0;
+        repo = new ClientRepo(client, botId -> null, this::state, cache, new MetricRegistry());
+
+        UUID botId = newBot();
+        repo.getClient(botId);
+        repo.getClient(botId);
+
+        Assertions.assertEquals(2, reads.get());
+    }
+
+    private UUID newBot() {
+        NewBot bot = new NewBot();
+        bot.id = UUID.randomUUID();
+        bot.token = "token";
+        bot.conversation = new Conversation();
+        bot.conversation.id = UUID.randomUUID();
+        states.put(bot.id, bot);
+        return bot.id;
+    }
+
+    private long gauge(String name) {
+        return (Long) metrics.getGauges().get(name).getValue();
+    }
+
+    private State state(UUID botId) {
+        return new State() {
+            @Override
+            public boolean saveState(NewBot newBot) {
+                states.put(botId, newBot);
+                return true;
+            }
+
+            @Override
+            public NewBot getState() throws MissingStateException {
+                reads.incrementAndGet();
+                NewBot bot = states.get(botId);
+                if (bot == null)
+                    throw new MissingStateException(botId);
+                return bot;
+            }
+
+            @Override
+            public boolean removeState() {
+                return states.remove(botId) != null;
+            }
+        };
+    }
+}
@@ -0,0 +1,117 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.storage.ClusterInvalidator;
+import org.jdbi.v3.core.Handle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+public class ClusterInvalidatorTest extends DatabaseTestBase {
+    private static final String CHANNEL = "lithium_invalidations_test";
+
+    private final ClusterInvalidator node = invalidator();
+    private final ClusterInvalidator other = invalidator();
+    private final List<String> events = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    public void stop() throws Exception {
+        node.stop();
+        other.stop();
+    }
+
+    @Test
+    public void testEventsArePublishedInOneNotify() throws Exception {
+        try (Handle handle = jdbi.open()) {
+            handle.execute("LISTEN " + CHANNEL);
+            PGConnection connection = handle.getConnection().unwrap(PGConnection.class);
+
+            UUID botId = UUID.randomUUID();
+            node.stateChanged(botId);
+            node.sessionChanged("box", "user_client");
+            node.purged("box");
+            node.start();
+
+            PGNotification[] notifications = connection.getNotifications(5_000);
+            Assertions.assertNotNull(notifications);
+            Assertions.assertEquals(1, notifications.length);
+
+            String[] lines = notifications[0].getParameter().split("\n");
+            Assertions.assertEquals(List.of("state " + botId, "session box user_client", "purge box"),
+                    List.of(lines).subList(1, lines.length));
+        }
+    }
+
+    @Test
+    public void testOtherNodesEventsReachListeners() throws Exception {
+        listen(node);
+        node.start();
+        await(() -> events.contains("missed"));
+
+        UUID botId = UUID.randomUUID();
+        other.stateChanged(botId);
+        other.sessionChanged("box", "user_client");
+        other.purged("box");
+        other.start();
+
+        await(() -> events.size() == 4);
+        Assertions.assertEquals(List.of("missed", "state " + botId, "session box user_client", "purge box"), events);
+    }
+
+    @Test
+    public void testOwnEventsAreIgnored() throws Exception {
+        listen(node);
+        node.start();
+        other.start();
+        await(() -> events.contains("missed"));
+
+        node.purged("box");
+        other.purged("other");
+
+        await(() -> events.contains("purge other"));
+        Assertions.assertFalse(events.contains("purge box"));
+    }
+
+    private static ClusterInvalidator invalidator() {
+        return new ClusterInvalidator(jdbi, CHANNEL, 100, new MetricRegistry());
+    }
+
+    private void listen(ClusterInvalidator invalidator) {
+        invalidator.addListener(new ClusterInvalidator.Listener() {
+            @Override
+            public void stateChanged(UUID botId) {
+                events.add("state " + botId);
+            }
+
+            @Override
+            public void sessionChanged(String id, String sid) {
+                events.add("session " + id + " " + sid);
+            }
+
+            @Override
+            public void purged(String id) {
+                events.add("purge " + id);
+            }
+
+            @Override
+            public void missed() {
+                events.add("missed");
+            }
+        });
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+}
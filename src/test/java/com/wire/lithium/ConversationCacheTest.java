@@ -0,0 +1,148 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.User;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+public class ConversationCacheTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final ConversationCache cache = new ConversationCache(new Configuration.ApiCache(), metrics);
+    private final List<Collection<UUID>> userCalls = new ArrayList<>();
+    private int conversationCalls;
+
+    @Test
+    public void testConversationIsFetchedOnce() {
+        UUID botId = UUID.randomUUID();
+
+        Conversation first = cache.getConversation(botId, this::conversation);
+        Conversation second = cache.getConversation(botId, this::conversation);
+
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(1, conversationCalls);
+        Assertions.assertEquals(1L, metrics.getGauges().get("api.cache.conversations.hits").getValue());
+    }
+
+    @Test
+    public void testOnlyMissingUsersAreFetched() {
+        UUID botId = UUID.randomUUID();
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+
+        cache.getUsers(botId, List.of(alice), this::users);
+        Collection<User> users = cache.getUsers(botId, List.of(alice, bob), this::users);
+
+        Assertions.assertEquals(2, users.size());
+        Assertions.assertEquals(List.of(List.of(alice), List.of(bob)), userCalls);
+    }
+
+    @Test
+    public void testUsersAreCachedPerBot() {
+        UUID alice = UUID.randomUUID();
+
+        cache.getUsers(UUID.randomUUID(), List.of(alice), this::users);
+        cache.getUsers(UUID.randomUUID(), List.of(alice), this::users);
+
+        Assertions.assertEquals(2, userCalls.size());
+    }
+
+    @Test
+    public void testInvalidate() {
+        UUID botId = UUID.randomUUID();
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+
+        cache.getConversation(botId, this::conversation);
+        cache.getUsers(botId, List.of(alice, bob), this::users);
+
+        cache.invalidate(botId, List.of(bob));
+
+        cache.getConversation(botId, this::conversation);
+        cache.getUsers(botId, List.of(alice, bob), this::users);
+
+        Assertions.assertEquals(2, conversationCalls);
+        Assertions.assertEquals(List.of(List.of(alice, bob), List.of(bob)), userCalls);
+    }
+
+    @Test
+    public void testInvalidateBot() {
+        UUID botId = UUID.randomUUID();
+        UUID otherBot = UUID.randomUUID();
+        UUID alice = UUID.randomUUID();
+
+        cache.getUsers(botId, List.of(alice), this::users);
+        cache.getUsers(otherBot, List.of(alice), this::users);
+
+        cache.invalidateBot(botId);
+
+        cache.getUsers(botId, List.of(alice), this::users);
+        cache.getUsers(otherBot, List.of(alice), this::users);
+
+        Assertions.assertEquals(3, userCalls.size());
+    }
+
+    @Test
+    public void testSecondCacheOnSameRegistry() {
+        Assertions.assertDoesNotThrow(() -> new ConversationCache(new Configuration.ApiCache(), metrics));
+    }
+
+    @Test
+    public void testUsersCachedWithoutConversations() {
+        Configuration.ApiCache config = new Configuration.ApiCache();
+        config.maxConversations = 0;
+        ConversationCache cache = new ConversationCache(config, new MetricRegistry());
+        UUID botId = UUID.randomUUID();
+        UUID alice = UUID.randomUUID();
+
+        cache.getConversation(botId, this::conversation);
+        cache.getConversation(botId, this::conversation);
+        cache.getUsers(botId, List.of(alice), this::users);
+        cache.getUsers(botId, List.of(alice), this::users);
+        cache.invalidateBot(botId);
+
+        Assertions.assertEquals(2, conversationCalls);
+        Assertions.assertEquals(1, userCalls.size());
+        Assertions.assertTrue(ConversationCache.isEnabled(config));
+        config.maxUsers = 0;
+        Assertions.assertFalse(ConversationCache.isEnabled(config));
+    }
+
+    @Test
+    public void testUnknownUsersAreNotCached() {
+        UUID botId = UUID.randomUUID();
+        UUID ghost = UUID.randomUUID();
+
+        Assertions.assertTrue(cache.getUsers(botId, List.of(ghost), ids -> {
+            userCalls.add(ids);
+            return Collections.emptyList();
+        }).isEmpty());
+        cache.getUsers(botId, List.of(ghost), this::users);
+
+        Assertions.assertEquals(2, userCalls.size());
+    }
+
+    private Conversation conversation() {
+        conversationCalls++;
+        Conversation conversation = new Conversation();
+        conversation.id = UUID.randomUUID();
+        return conversation;
+    }
+
+    private Collection<User> users(Collection<UUID> ids) {
+        userCalls.add(new ArrayList<>(ids));
+        List<User> ret = new ArrayList<>();
+        for (UUID id : ids) {
+            User user = new User();
+            user.id = id;
+            ret.add(user);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,68 @@
+package com.wire.lithium;
+
+import com.wire.xenon.tools.Util;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+
+public class EncryptedAssetTest {
+    private final Random random = new Random();
+    private byte[] plain;
+    private Path file;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        plain = new byte[200 * 1024 + 5];
+        random.nextBytes(plain);
+        file = Files.createTempFile("plain-", ".bin");
+        Files.write(file, plain);
+    }
+
+    @AfterEach
+    public void cleanup() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void fromFileTest() throws Exception {
+        try (EncryptedAsset encrypted = EncryptedAsset.fromFile(file)) {
+            byte[] first = read(encrypted);
+            byte[] second = read(encrypted);
+
+            Assertions.assertArrayEquals(first, second);
+            check(encrypted, first);
+        }
+        Assertions.assertTrue(Files.exists(file));
+    }
+
+    @Test
+    public void fromStreamTest() throws Exception {
+        EncryptedAsset encrypted = EncryptedAsset.fromStream(new ByteArrayInputStream(plain));
+        check(encrypted, read(encrypted));
+
+        encrypted.close();
+        Assertions.assertThrows(Exception.class, encrypted::openCipherText);
+    }
+
+    private void check(EncryptedAsset encrypted, byte[] cipherText) throws Exception {
+        Assertions.assertEquals(plain.length, encrypted.digest.plainLength);
+        Assertions.assertEquals(cipherText.length, encrypted.digest.length);
+        Assertions.assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(cipherText), encrypted.digest.sha256);
+        Assertions.assertEquals(Util.calcMd5(cipherText), encrypted.digest.md5);
+        Assertions.assertArrayEquals(plain, Util.decrypt(encrypted.otrKey, cipherText));
+    }
+
+    private static byte[] read(EncryptedAsset encrypted) throws Exception {
+        try (InputStream input = encrypted.openCipherText()) {
+            return input.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.sun.net.httpserver.HttpServer;
+import com.wire.lithium.server.cluster.EventForwarder;
+import com.wire.lithium.server.cluster.HashRing;
+import com.wire.xenon.backend.models.Payload;
+import org.glassfish.jersey.client.ClientProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.Response;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class EventForwarderTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private HttpServer server;
+    private Client client;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            if (exchange.getRequestURI().getPath().startsWith("/slow/")) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+
+        client = ClientBuilder.newClient()
+                .register(JacksonJsonProvider.class)
+                .property(ClientProperties.READ_TIMEOUT, 200);
+    }
+
+    @AfterEach
+    public void teardown() {
+        release.countDown();
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testForward() {
+        Response response = forwarder("http://localhost:" + server.getAddress().getPort())
+                .forward(UUID.randomUUID(), UUID.randomUUID(), new Payload());
+
+        Assertions.assertNotNull(response);
+        Assertions.assertEquals(200, response.getStatus());
+        Assertions.assertEquals(0, metrics.meter("cluster.events.fallbacks").getCount());
+    }
+
+    @Test
+    public void testUnreachableOwnerFallsBack() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        Response response = forwarder("http://localhost:" + port)
+                .forward(UUID.randomUUID(), UUID.randomUUID(), new Payload());
+
+        Assertions.assertNull(response);
+        Assertions.assertEquals(1, metrics.meter("cluster.events.fallbacks").getCount());
+    }
+
+    @Test
+    public void testReadTimeoutIsNotHandledHere() {
+        Response response = forwarder("http://localhost:" + server.getAddress().getPort() + "/slow")
+                .forward(UUID.randomUUID(), UUID.randomUUID(), new Payload());
+
+        Assertions.assertNotNull(response);
+        Assertions.assertEquals(503, response.getStatus());
+        Assertions.assertEquals(0, metrics.meter("cluster.events.fallbacks").getCount());
+    }
+
+    private EventForwarder forwarder(String owner) {
+        return new EventForwarder(new HashRing(List.of(owner), 1), "self", client, "token", metrics);
+    }
+}
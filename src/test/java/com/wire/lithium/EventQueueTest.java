@@ -0,0 +1,127 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.server.queue.EventQueue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class EventQueueTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @AfterEach
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOrderPerBot() throws Exception {
+        EventQueue queue = new EventQueue(executor, 1_000, new MetricRegistry());
+        final int bots = 10;
+        final int events = 500;
+        CountDownLatch done = new CountDownLatch(bots * events);
+
+        List<List<Integer>> processed = new ArrayList<>();
+        for (int b = 0; b < bots; b++) {
+            UUID botId = UUID.randomUUID();
+            List<Integer> list = Collections.synchronizedList(new ArrayList<>());
+            processed.add(list);
+            for (int i = 0; i < events; i++) {
+                final int seq = i;
+                Assertions.assertTrue(queue.submit(botId, () -> {
+                    list.add(seq);
+                    done.countDown();
+                }));
+            }
+        }
+
+        Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (List<Integer> list : processed) {
+            for (int i = 0; i < events; i++)
+                Assertions.assertEquals(i, list.get(i));
+        }
+        Assertions.assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        EventQueue queue = new EventQueue(executor, 2, metrics);
+        UUID botId = UUID.randomUUID();
+        CountDownLatch block = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        Assertions.assertTrue(queue.submit(botId, () -> {
+            started.countDown();
+            await(block);
+        }));
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Assertions.assertTrue(queue.submit(botId, () -> {
+        }));
+        Assertions.assertTrue(queue.submit(botId, () -> {
+        }));
+        Assertions.assertFalse(queue.submit(botId, () -> {
+        }));
+        Assertions.assertTrue(queue.submit(UUID.randomUUID(), () -> {
+        }));
+        Assertions.assertEquals(1, metrics.meter("messages.queue.rejected").getCount());
+
+        block.countDown();
+    }
+
+    @Test
+    public void testErrorDoesNotStallBot() throws Exception {
+        EventQueue queue = new EventQueue(executor, 10, new MetricRegistry());
+        UUID botId = UUID.randomUUID();
+        CountDownLatch done = new CountDownLatch(1);
+
+        Assertions.assertTrue(queue.submit(botId, () -> {
+            throw new AssertionError("handler failed");
+        }));
+        // the failed run may not have finished yet: keep submitting until one gets through
+        for (int i = 0; i < 100 && done.getCount() > 0; i++) {
+            Assertions.assertTrue(queue.submit(botId, done::countDown));
+            done.await(50, TimeUnit.MILLISECONDS);
+        }
+        Assertions.assertEquals(0, done.getCount());
+    }
+
+    @Test
+    public void testDrain() throws Exception {
+        EventQueue queue = new EventQueue(executor, 10, new MetricRegistry());
+        UUID botId = UUID.randomUUID();
+        CountDownLatch block = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+
+        Assertions.assertTrue(queue.submit(botId, () -> {
+            await(block);
+            done.countDown();
+        }));
+        Assertions.assertTrue(queue.submit(botId, done::countDown));
+
+        Assertions.assertFalse(queue.drain(50, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(queue.submit(UUID.randomUUID(), () -> {
+        }));
+
+        block.countDown();
+        Assertions.assertTrue(queue.drain(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, done.getCount());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
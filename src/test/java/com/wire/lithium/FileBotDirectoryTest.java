@@ -0,0 +1,60 @@
+package com.wire.lithium;
+
+import com.wire.lithium.prekeys.FileBotDirectory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+public class FileBotDirectoryTest {
+    private Path root;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("bots");
+    }
+
+    @AfterEach
+    public void teardown() throws Exception {
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testPages() throws Exception {
+        List<UUID> bots = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            bots.add(bot());
+        bots.sort(null);
+        Files.createDirectories(root.resolve(UUID.randomUUID().toString())); // pooled box, no state
+        Files.createDirectories(root.resolve("queue"));
+
+        FileBotDirectory directory = new FileBotDirectory(root.toString());
+        Assertions.assertEquals(bots.subList(0, 2), directory.list(null, 2));
+
+        // added during the sweep: seen by the next one
+        UUID late = bot();
+        Assertions.assertEquals(bots.subList(2, 4), directory.list(bots.get(1), 2));
+        Assertions.assertEquals(bots.subList(4, 5), directory.list(bots.get(3), 2));
+        Assertions.assertTrue(directory.list(bots.get(4), 2).isEmpty());
+
+        Assertions.assertTrue(directory.list(null, 10).contains(late));
+    }
+
+    private UUID bot() throws Exception {
+        UUID botId = UUID.randomUUID();
+        Path dir = Files.createDirectories(root.resolve(botId.toString()));
+        Files.write(dir.resolve("state.json"), new byte[]{'{', '}'});
+        return botId;
+    }
+}
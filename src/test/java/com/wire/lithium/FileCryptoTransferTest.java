@@ -0,0 +1,85 @@
+package com.wire.lithium;
+
+import com.wire.lithium.prekeys.FileCryptoTransfer;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.state.FileState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+public class FileCryptoTransferTest {
+    private Path root;
+    private FileCryptoTransfer transfer;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("boxes");
+        transfer = new FileCryptoTransfer(root.toString());
+    }
+
+    @AfterEach
+    public void teardown() throws Exception {
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testTransferIntoBotDirectoryWithState() throws Exception {
+        UUID poolId = UUID.randomUUID();
+        UUID botId = UUID.randomUUID();
+        box(poolId);
+        // BotsResource saves the state before it takes the box from the pool
+        NewBot bot = new NewBot();
+        bot.id = botId;
+        new FileState(root.toString(), botId).saveState(bot);
+
+        transfer.transfer(poolId, botId);
+
+        Path dir = root.resolve(botId.toString());
+        Assertions.assertArrayEquals(new byte[]{1}, Files.readAllBytes(dir.resolve("identities/local")));
+        Assertions.assertArrayEquals(new byte[]{2}, Files.readAllBytes(dir.resolve("prekeys/0")));
+        Assertions.assertEquals(botId, new FileState(root.toString(), botId).getState().id);
+        Assertions.assertFalse(Files.exists(root.resolve(poolId.toString())));
+    }
+
+    @Test
+    public void testTransferToNewDirectory() throws Exception {
+        UUID poolId = UUID.randomUUID();
+        UUID botId = UUID.randomUUID();
+        box(poolId);
+
+        transfer.transfer(poolId, botId);
+
+        Assertions.assertTrue(Files.exists(root.resolve(botId.toString()).resolve("prekeys/0")));
+        Assertions.assertFalse(Files.exists(root.resolve(poolId.toString())));
+    }
+
+    @Test
+    public void testExistingBoxIsNotOverwritten() throws Exception {
+        UUID poolId = UUID.randomUUID();
+        UUID botId = UUID.randomUUID();
+        box(poolId);
+        Files.createDirectories(root.resolve(botId.toString()).resolve("identities"));
+
+        Assertions.assertThrows(IOException.class, () -> transfer.transfer(poolId, botId));
+        Assertions.assertTrue(Files.exists(root.resolve(poolId.toString()).resolve("prekeys/0")));
+    }
+
+    private void box(UUID id) throws IOException {
+        Path dir = root.resolve(id.toString());
+        Files.createDirectories(dir.resolve("identities"));
+        Files.createDirectories(dir.resolve("prekeys"));
+        Files.write(dir.resolve("identities/local"), new byte[]{1});
+        Files.write(dir.resolve("prekeys/0"), new byte[]{2});
+    }
+}
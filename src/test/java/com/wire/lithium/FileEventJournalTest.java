@@ -0,0 +1,105 @@
+package com.wire.lithium;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wire.lithium.server.queue.EventJournal;
+import com.wire.lithium.server.queue.FileEventJournal;
+import com.wire.xenon.backend.models.Payload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class FileEventJournalTest {
+    private Path dir;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("journal");
+    }
+
+    @AfterEach
+    public void teardown() throws Exception {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testPendingSurviveReopenInOrder() throws Exception {
+        FileEventJournal journal = new FileEventJournal(dir);
+        UUID botId = UUID.randomUUID();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+
+        Assertions.assertTrue(journal.append(first, botId, payload("first")));
+        Assertions.assertTrue(journal.append(second, botId, payload("second")));
+        Assertions.assertTrue(journal.append(third, botId, payload("third")));
+        journal.remove(second);
+
+        List<EventJournal.Entry> pending = new FileEventJournal(dir).pending();
+        Assertions.assertEquals(List.of(first, third),
+                pending.stream().map(entry -> entry.eventId).collect(Collectors.toList()));
+        Assertions.assertEquals(botId, pending.get(1).botId);
+        Assertions.assertEquals("third", pending.get(1).payload.type);
+    }
+
+    @Test
+    public void testAppendAfterReopenComesLast() throws Exception {
+        // left by a run whose clock was ahead
+        EventJournal.Entry old = new EventJournal.Entry();
+        old.seq = Long.MAX_VALUE / 2;
+        old.eventId = UUID.randomUUID();
+        old.botId = UUID.randomUUID();
+        old.payload = payload("old");
+        new ObjectMapper().writeValue(dir.resolve(old.eventId + ".json").toFile(), old);
+
+        FileEventJournal journal = new FileEventJournal(dir);
+        UUID next = UUID.randomUUID();
+        journal.append(next, old.botId, payload("next"));
+
+        Assertions.assertEquals(List.of(old.eventId, next),
+                journal.pending().stream().map(entry -> entry.eventId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testDuplicateIsNotAppended() throws Exception {
+        FileEventJournal journal = new FileEventJournal(dir);
+        UUID eventId = UUID.randomUUID();
+
+        Assertions.assertTrue(journal.append(eventId, UUID.randomUUID(), payload("first")));
+        Assertions.assertFalse(journal.append(eventId, UUID.randomUUID(), payload("retry")));
+        Assertions.assertEquals(1, journal.pending().size());
+    }
+
+    @Test
+    public void testTornWriteIsDropped() throws Exception {
+        FileEventJournal journal = new FileEventJournal(dir);
+        journal.append(UUID.randomUUID(), UUID.randomUUID(), payload("complete"));
+        Path torn = dir.resolve(UUID.randomUUID() + ".json");
+        Files.writeString(torn, "{\"seq\":1,\"eventId\":");
+
+        List<EventJournal.Entry> pending = journal.pending();
+
+        Assertions.assertEquals(1, pending.size());
+        Assertions.assertEquals("complete", pending.get(0).payload.type);
+        Assertions.assertFalse(Files.exists(torn));
+    }
+
+    private static Payload payload(String type) {
+        Payload payload = new Payload();
+        payload.type = type;
+        payload.convId = UUID.randomUUID();
+        payload.from = UUID.randomUUID();
+        return payload;
+    }
+}
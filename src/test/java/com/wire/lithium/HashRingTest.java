@@ -0,0 +1,50 @@
+package com.wire.lithium;
+
+import com.wire.lithium.server.cluster.HashRing;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class HashRingTest {
+    private static final List<String> NODES = List.of("http://node-a:8080", "http://node-b:8080", "http://node-c:8080");
+
+    @Test
+    public void testOwnerIsTheSameOnEveryNode() {
+        HashRing ring = new HashRing(NODES, 128);
+        HashRing other = new HashRing(List.of(NODES.get(2), NODES.get(0), NODES.get(1)), 128);
+
+        for (int i = 0; i < 1_000; i++) {
+            UUID botId = UUID.randomUUID();
+            Assertions.assertEquals(ring.owner(botId), other.owner(botId));
+        }
+    }
+
+    @Test
+    public void testBotsSpreadEvenly() {
+        HashRing ring = new HashRing(NODES, 128);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30_000; i++)
+            counts.merge(ring.owner(UUID.randomUUID()), 1, Integer::sum);
+
+        Assertions.assertEquals(3, counts.size());
+        for (int count : counts.values())
+            Assertions.assertTrue(count > 7_000 && count < 13_000, "uneven: " + counts);
+    }
+
+    @Test
+    public void testRemovingNodeOnlyMovesItsBots() {
+        HashRing ring = new HashRing(NODES, 128);
+        HashRing smaller = new HashRing(NODES.subList(0, 2), 128);
+
+        for (int i = 0; i < 1_000; i++) {
+            UUID botId = UUID.randomUUID();
+            String owner = ring.owner(botId);
+            if (!owner.equals(NODES.get(2)))
+                Assertions.assertEquals(owner, smaller.owner(botId));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.sun.net.httpserver.HttpServer;
+import com.wire.xenon.assets.IAsset;
+import com.wire.xenon.models.AssetKey;
+import com.wire.xenon.tools.Util;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.util.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class Http2ConnectorTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private HttpServer server;
+    private Http2ConnectorProvider provider;
+    private Client client;
+    private String host;
+
+    private volatile String contentLength;
+    private volatile String transferEncoding;
+    private volatile byte[] body;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/echo", exchange -> {
+            contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+            try (InputStream input = exchange.getRequestBody()) {
+                body = Util.toByteArray(input);
+            }
+
+            byte[] response = body.length > 0 ? body : "{\"id\":\"3-1-key\",\"token\":\"token\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.getResponseHeaders().add("X-Auth", exchange.getRequestHeaders().getFirst("Authorization"));
+            exchange.sendResponseHeaders(412, response.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(response);
+            }
+        });
+        server.createContext("/bot/assets", exchange -> {
+            contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+            try (InputStream input = exchange.getRequestBody()) {
+                body = Util.toByteArray(input);
+            }
+
+            byte[] response = "{\"id\":\"3-1-key\",\"token\":\"token\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(201, response.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(response);
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            blocked.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        host = "http://localhost:" + server.getAddress().getPort();
+
+        Configuration.Http2 http2 = new Configuration.Http2();
+        http2.enabled = true;
+        http2.maxStreamsPerRoute = 1;
+        Configuration._JerseyClientConfiguration jersey = new Configuration._JerseyClientConfiguration();
+        jersey.setTimeout(Duration.seconds(10));
+
+        provider = new Http2ConnectorProvider(http2, jersey, executor, metrics);
+        client = client(jersey, "Http2ConnectorTest");
+    }
+
+    private Client client(Configuration._JerseyClientConfiguration jersey, String name) {
+        return new StreamingClientBuilder(metrics)
+                .using(jersey)
+                .using(provider)
+                .using(executor, Jackson.newObjectMapper())
+                .withProvider(JacksonJsonProvider.class)
+                .build(name);
+    }
+
+    @AfterEach
+    public void teardown() {
+        release.countDown();
+        client.close();
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testStatusHeadersAndBody() {
+        String json = "{\"hello\":\"world\"}";
+        Response response = client.target(host)
+                .path("echo")
+                .request(MediaType.APPLICATION_JSON)
+                .header("Authorization", "Bearer token")
+                .post(Entity.entity(json, MediaType.APPLICATION_JSON));
+
+        Assertions.assertEquals(412, response.getStatus());
+        Assertions.assertEquals("Bearer token", response.getHeaderString("X-Auth"));
+        Assertions.assertEquals(MediaType.APPLICATION_JSON_TYPE, response.getMediaType());
+        Assertions.assertEquals(json, response.readEntity(String.class));
+        Assertions.assertEquals(String.valueOf(json.length()), contentLength);
+    }
+
+    @Test
+    public void testUploadIsStreamedWithContentLength() throws Exception {
+        byte[] data = new byte[512 * 1024 + 7];
+        new Random().nextBytes(data);
+
+        API api = new API(client, "token", host);
+        AssetKey assetKey = api.uploadAsset(asset(data));
+
+        Assertions.assertEquals("3-1-key", assetKey.id);
+        Assertions.assertNull(transferEncoding);
+        Assertions.assertEquals(String.valueOf(body.length), contentLength);
+        Assertions.assertTrue(body.length > data.length);
+    }
+
+    @Test
+    public void testLeaseTimesOutWhenRouteIsSaturated() throws Exception {
+        Future<Response> first = executor.submit(() -> client.target(host).path("slow").request().get());
+        Assertions.assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        Assertions.assertEquals(1.0, metrics.getGauges().get("http2.localhost:" + server.getAddress().getPort() + ".saturation").getValue());
+        Assertions.assertThrows(ProcessingException.class, () -> client.target(host).path("slow").request().get());
+        Assertions.assertEquals(1, metrics.meter("http2.lease.timeouts").getCount());
+
+        release.countDown();
+        Assertions.assertEquals(204, first.get(10, TimeUnit.SECONDS).getStatus());
+        Assertions.assertEquals(2, metrics.timer("http2.lease").getCount());
+    }
+
+    @Test
+    public void testStreamIsHeldUntilTheBodyIsRead() {
+        Response first = client.target(host).path("bot/assets").request().get();
+        Assertions.assertEquals(201, first.getStatus());
+
+        // the only stream to the host is still carrying the first body
+        Assertions.assertThrows(ProcessingException.class, () -> client.target(host).path("bot/assets").request().get());
+
+        Assertions.assertEquals("{\"id\":\"3-1-key\",\"token\":\"token\"}", first.readEntity(String.class));
+        Response second = client.target(host).path("bot/assets").request().get();
+        Assertions.assertEquals(201, second.getStatus());
+        second.close();
+    }
+
+    @Test
+    public void testClientsShareRoutes() throws Exception {
+        Configuration._JerseyClientConfiguration jersey = new Configuration._JerseyClientConfiguration();
+        jersey.setTimeout(Duration.seconds(10));
+        Client other = client(jersey, "Http2ConnectorTest.other");
+        try {
+            Future<Response> first = executor.submit(() -> client.target(host).path("slow").request().get());
+            Assertions.assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+            // the stream held by the first client counts against the second one as well
+            Assertions.assertThrows(ProcessingException.class, () -> other.target(host).path("slow").request().get());
+
+            release.countDown();
+            Assertions.assertEquals(204, first.get(10, TimeUnit.SECONDS).getStatus());
+        } finally {
+            other.close();
+        }
+    }
+
+    private static IAsset asset(byte[] data) {
+        return new IAsset() {
+            @Override
+            public String getMimeType() {
+                return "application/octet-stream";
+            }
+
+            @Override
+            public String getRetention() {
+                return "volatile";
+            }
+
+            @Override
+            public byte[] getEncryptedData() {
+                return data;
+            }
+
+            @Override
+            public boolean isPublic() {
+                return false;
+            }
+        };
+    }
+}
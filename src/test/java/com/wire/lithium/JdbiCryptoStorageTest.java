@@ -0,0 +1,94 @@
+package com.wire.lithium;
+
+import com.wire.bots.cryptobox.CryptoException;
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.lithium.crypto.JdbiCryptoStorage;
+import com.wire.lithium.helpers.Stubs;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.models.otr.PreKey;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+public class JdbiCryptoStorageTest extends DatabaseTestBase {
+    private final Random random = new Random();
+    private JdbiCryptoStorage storage;
+    private String id;
+
+    @BeforeEach
+    public void setUp() {
+        flyway.migrate();
+        storage = new JdbiCryptoStorage(jdbi);
+        id = "" + random.nextInt();
+    }
+
+    @AfterEach
+    public void clean() {
+        flyway.clean();
+    }
+
+    @Test
+    public void testNewPreKeysAreWrittenWhenTheCallEnds() throws Exception {
+        Crypto crypto = storage.wrap(crypto(false));
+
+        Assertions.assertEquals(50, crypto.newPreKeys(0, 50).size());
+        Assertions.assertEquals(50, storage.fetchPrekeys(id).length);
+    }
+
+    @Test
+    public void testFailedBatchWritesNothing() {
+        Crypto crypto = storage.wrap(crypto(true));
+
+        Assertions.assertThrows(CryptoException.class, () -> crypto.newPreKeys(0, 10));
+        Assertions.assertNull(storage.fetchPrekeys(id));
+
+        // the storage is usable again
+        storage.insertPrekey(id, 1, new byte[]{1});
+        Assertions.assertEquals(1, storage.fetchPrekeys(id).length);
+    }
+
+    @Test
+    public void testPurgeRemovesTheWholeBox() {
+        byte[] data = new byte[1024];
+        random.nextBytes(data);
+        storage.insertIdentity(id, data);
+        storage.insertPrekey(id, 0xFFFF, data);
+        String sid = "" + random.nextInt();
+        storage.fetchSession(id, sid).persist(data);
+
+        storage.purge(id);
+
+        Assertions.assertNull(storage.fetchIdentity(id));
+        Assertions.assertNull(storage.fetchPrekeys(id));
+        IRecord record = storage.fetchSession(id, sid);
+        Assertions.assertNull(record.getData());
+    }
+
+    // box that persists every generated prekey through the storage, like CryptoDb does
+    private Crypto crypto(boolean corrupt) {
+        return Stubs.of(Crypto.class,
+                (proxy, method, args) -> {
+                    if (method.getName().equals("newPreKeys")) {
+                        ArrayList<PreKey> ret = new ArrayList<>();
+                        for (int i = 0; i < (int) args[1]; i++) {
+                            PreKey preKey = new PreKey();
+                            preKey.id = (int) args[0] + i;
+                            byte[] data = new byte[32];
+                            random.nextBytes(data);
+                            // data is NOT NULL: a corrupt box fails the insert
+                            storage.insertPrekey(id, preKey.id, corrupt && i == 0 ? null : data);
+                            ret.add(preKey);
+                        }
+
+                        // nothing is written before the call ends
+                        Assertions.assertNull(storage.fetchPrekeys(id));
+                        return ret;
+                    }
+                    return null;
+                });
+    }
+}
@@ -0,0 +1,140 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.server.queue.LaneDispatcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LaneDispatcherTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOrderPerBot() throws Exception {
+        LaneDispatcher dispatcher = new LaneDispatcher(executor, 4, 10_000, new MetricRegistry());
+        final int bots = 10;
+        final int events = 500;
+        CountDownLatch done = new CountDownLatch(bots * events);
+        AtomicInteger[] running = new AtomicInteger[4];
+        for (int i = 0; i < running.length; i++)
+            running[i] = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+
+        List<List<Integer>> processed = new ArrayList<>();
+        for (int b = 0; b < bots; b++) {
+            UUID botId = UUID.randomUUID();
+            AtomicInteger lane = running[dispatcher.lane(botId)];
+            List<Integer> list = Collections.synchronizedList(new ArrayList<>());
+            processed.add(list);
+            for (int i = 0; i < events; i++) {
+                final int seq = i;
+                Assertions.assertTrue(dispatcher.submit(botId, () -> {
+                    if (lane.incrementAndGet() > 1)
+                        overlaps.incrementAndGet();
+                    list.add(seq);
+                    lane.decrementAndGet();
+                    done.countDown();
+                }));
+            }
+        }
+
+        Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, overlaps.get());
+        for (List<Integer> list : processed) {
+            for (int i = 0; i < events; i++)
+                Assertions.assertEquals(i, list.get(i));
+        }
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        LaneDispatcher dispatcher = new LaneDispatcher(executor, 2, 2, metrics);
+        UUID botId = UUID.randomUUID();
+        int lane = dispatcher.lane(botId);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch block = new CountDownLatch(1);
+
+        Assertions.assertTrue(dispatcher.submit(botId, () -> {
+            started.countDown();
+            try {
+                block.await();
+            } catch (InterruptedException ignored) {
+            }
+        }));
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Assertions.assertTrue(dispatcher.submit(botId, () -> {
+        }));
+        Assertions.assertTrue(dispatcher.submit(botId, () -> {
+        }));
+        Assertions.assertFalse(dispatcher.submit(botId, () -> {
+        }));
+
+        Assertions.assertEquals(2, metrics.getGauges().get("messages.lanes." + lane + ".depth").getValue());
+        Assertions.assertEquals(1, metrics.meter("messages.lanes." + lane + ".rejected").getCount());
+
+        block.countDown();
+    }
+
+    @Test
+    public void testErrorDoesNotStallLane() throws Exception {
+        LaneDispatcher dispatcher = new LaneDispatcher(executor, 1, 10, new MetricRegistry());
+        UUID botId = UUID.randomUUID();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch block = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+
+        Assertions.assertTrue(dispatcher.submit(botId, () -> {
+            started.countDown();
+            try {
+                block.await();
+            } catch (InterruptedException ignored) {
+            }
+            throw new AssertionError("boom");
+        }));
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(dispatcher.submit(botId, done::countDown));
+        block.countDown();
+
+        // queued behind the failed event, and the lane still takes new ones
+        Thread.sleep(100);
+        Assertions.assertTrue(dispatcher.submit(botId, done::countDown));
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRejectedExecutionDoesNotStallLane() throws Exception {
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        MetricRegistry metrics = new MetricRegistry();
+        LaneDispatcher rejecting = new LaneDispatcher(stopped, 1, 10, metrics);
+        UUID botId = UUID.randomUUID();
+
+        Assertions.assertFalse(rejecting.submit(botId, () -> {
+        }));
+        Assertions.assertEquals(0, rejecting.getDepth(0));
+        Assertions.assertEquals(1, metrics.meter("messages.lanes.0.rejected").getCount());
+
+        // same registry: the depth gauge is shared, not registered twice
+        LaneDispatcher dispatcher = new LaneDispatcher(executor, 1, 10, metrics);
+        CountDownLatch done = new CountDownLatch(1);
+        Assertions.assertTrue(dispatcher.submit(botId, done::countDown));
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,80 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.server.queue.LaneDispatcher;
+import com.wire.lithium.server.resources.MessageResource;
+import com.wire.xenon.MessageHandlerBase;
+import com.wire.xenon.backend.models.Payload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.core.Response;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class MessageResourceTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final ExecutorService webhook = Executors.newCachedThreadPool();
+
+    @AfterEach
+    public void teardown() {
+        executor.shutdownNow();
+        webhook.shutdownNow();
+    }
+
+    @Test
+    public void testLanesReturnTheResult() {
+        LaneDispatcher lanes = new LaneDispatcher(executor, 2, 10, new MetricRegistry());
+        Thread caller = Thread.currentThread();
+        MessageResource resource = new MessageResource(new MessageHandlerBase() {
+        }, null, new MessageResource.Options().lanes(lanes)) {
+            @Override
+            protected Response process(UUID botId, UUID eventId, Payload payload) {
+                Assertions.assertNotSame(caller, Thread.currentThread());
+                return Response.status(410).build();
+            }
+        };
+
+        Response response = resource.accept(UUID.randomUUID(), UUID.randomUUID(), new Payload());
+
+        Assertions.assertEquals(410, response.getStatus());
+    }
+
+    @Test
+    public void testLanesRunBotEventsOneAtATime() throws Exception {
+        LaneDispatcher lanes = new LaneDispatcher(executor, 1, 1, new MetricRegistry());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch block = new CountDownLatch(1);
+        MessageResource resource = new MessageResource(new MessageHandlerBase() {
+        }, null, new MessageResource.Options().lanes(lanes)) {
+            @Override
+            protected Response process(UUID botId, UUID eventId, Payload payload) {
+                started.countDown();
+                try {
+                    block.await();
+                } catch (InterruptedException ignored) {
+                }
+                return Response.ok().build();
+            }
+        };
+        UUID botId = UUID.randomUUID();
+
+        Future<Response> first = webhook.submit(() -> resource.accept(botId, UUID.randomUUID(), new Payload()));
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<Response> second = webhook.submit(() -> resource.accept(botId, UUID.randomUUID(), new Payload()));
+        Thread.sleep(100);
+        Assertions.assertFalse(second.isDone());
+
+        // lane holds one pending event
+        Assertions.assertEquals(503, resource.accept(botId, UUID.randomUUID(), new Payload()).getStatus());
+
+        block.countDown();
+        Assertions.assertEquals(200, first.get(5, TimeUnit.SECONDS).getStatus());
+        Assertions.assertEquals(200, second.get(5, TimeUnit.SECONDS).getStatus());
+    }
+}
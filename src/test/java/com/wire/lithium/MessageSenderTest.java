@@ -0,0 +1,225 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.wire.lithium.helpers.Stubs;
+import com.wire.xenon.WireAPI;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.models.otr.Recipients;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+public class MessageSenderTest {
+    private static final byte[] CONTENT = {1, 2, 3};
+
+    private final UUID alice = UUID.randomUUID();
+    private final UUID bob = UUID.randomUUID();
+    private final UUID carol = UUID.randomUUID();
+
+    private final Missing conversation = new Missing();     // devices the backend knows
+    private final Set<String> sessions = new HashSet<>();
+    private final Set<String> withoutPrekeys = new HashSet<>();
+    private final List<Set<String>> preKeyCalls = new ArrayList<>();
+    private final List<Object> posts = new ArrayList<>();   // ignore_missing of every post, "discover" for empty ones
+    private final List<Set<String>> delivered = new ArrayList<>();
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final MessageSender sender = new MessageSender(metrics);
+    private final KnownDevices known = new KnownDevices();
+
+    @Test
+    public void testDevicesWithoutSessionShareOnePrekeysCall() throws Exception {
+        conversation.add(alice, List.of("a1", "a2"));
+        conversation.add(bob, "b1");
+        sessions.add("a1");
+
+        sender.send(api(), crypto(), "bot", known, CONTENT, null);
+
+        Assertions.assertEquals(List.of("discover", false), posts);
+        Assertions.assertEquals(List.of(Set.of("a2", "b1")), preKeyCalls);
+        Assertions.assertEquals(Set.of("a1", "a2", "b1"), delivered.get(0));
+        Assertions.assertEquals(0, metrics.histogram("messages.rounds").getSnapshot().getMax());
+    }
+
+    @Test
+    public void testSharedSenderReportsToTheSharedRegistry() throws Exception {
+        SharedMetricRegistries.remove(MessageSender.METRICS);
+        SharedMetricRegistries.add(MessageSender.METRICS, metrics);
+        try {
+            conversation.add(alice, "a1");
+            sessions.add("a1");
+
+            MessageSender.shared().send(api(), crypto(), "bot", known, CONTENT, null);
+
+            Assertions.assertEquals(1, metrics.histogram("messages.rounds").getCount());
+        } finally {
+            SharedMetricRegistries.remove(MessageSender.METRICS);
+        }
+    }
+
+    @Test
+    public void testOnlyMissingDevicesAreEncryptedAgain() throws Exception {
+        conversation.add(alice, "a1");
+        sessions.add("a1");
+        sender.send(api(), crypto(), "bot", known, CONTENT, null);
+        posts.clear();
+
+        // carol joins with a device the bot has not seen yet
+        conversation.add(carol, "c1");
+        sender.send(api(), crypto(), "bot", known, CONTENT, null);
+
+        Assertions.assertEquals(List.of(false, false), posts);
+        Assertions.assertEquals(List.of(Set.of("c1")), preKeyCalls);
+        Assertions.assertEquals(Set.of("a1", "c1"), delivered.get(1));
+        Assertions.assertEquals(1, metrics.histogram("messages.rounds").getSnapshot().getMax());
+
+        // known devices are up to date: no more rounds
+        posts.clear();
+        sender.send(api(), crypto(), "bot", known, CONTENT, null);
+        Assertions.assertEquals(List.of(false), posts);
+        Assertions.assertEquals(1, preKeyCalls.size());
+    }
+
+    @Test
+    public void testDeviceWithoutPrekeysDoesNotLoop() throws Exception {
+        conversation.add(alice, "a1");
+        sessions.add("a1");
+        sender.send(api(), crypto(), "bot", known, CONTENT, null);
+        posts.clear();
+
+        conversation.add(bob, "b1");
+        withoutPrekeys.add("b1");
+        sender.send(api(), crypto(), "bot", known, CONTENT, null);
+
+        Assertions.assertEquals(List.of(false, true), posts);
+        Assertions.assertEquals(Set.of("a1"), delivered.get(1));
+    }
+
+    @Test
+    public void testWarmUpCreatesSessionsForNewMembers() throws Exception {
+        conversation.add(alice, "a1");
+        conversation.add(carol, List.of("c1", "c2"));
+        sessions.add("a1");
+
+        int created = sender.warmUp(api(), crypto(), "bot", known, List.of(carol));
+
+        Assertions.assertEquals(2, created);
+        Assertions.assertEquals(List.of(Set.of("c1", "c2")), preKeyCalls);
+        Assertions.assertEquals(Set.of("a1", "c1", "c2"), sessions);
+
+        posts.clear();
+        sender.send(api(), crypto(), "bot", known, CONTENT, null);
+        Assertions.assertEquals(List.of(false), posts);
+        Assertions.assertEquals(1, preKeyCalls.size());
+        Assertions.assertEquals(2, metrics.meter("sessions.warmup").getCount());
+    }
+
+    @Test
+    public void testMembersThatLeftAreForgotten() throws Exception {
+        conversation.add(alice, "a1");
+        conversation.add(bob, "b1");
+        sessions.addAll(Set.of("a1", "b1"));
+        sender.send(api(), crypto(), "bot", known, CONTENT, null);
+
+        conversation.remove(bob);
+        known.remove(List.of(bob));
+        sender.send(api(), crypto(), "bot", known, CONTENT, null);
+
+        Assertions.assertEquals(Set.of("a1"), delivered.get(1));
+    }
+
+    private WireAPI api() {
+        return Stubs.of(WireAPI.class,
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "sendMessage": {
+                            OtrMessage msg = (OtrMessage) args[0];
+                            Object[] ignoreMissing = (Object[]) args[1];
+                            Set<String> clients = clients(recipients(msg));
+                            posts.add(ignoreMissing.length == 0 ? "discover" : ignoreMissing[0]);
+
+                            Devices res = new Devices();
+                            conversation.forEach((userId, ids) -> ids.stream()
+                                    .filter(id -> !clients.contains(id))
+                                    .forEach(id -> res.missing.add(userId, id)));
+                            if (ignoreMissing.length == 0 || (!res.missing.isEmpty() && Boolean.FALSE.equals(ignoreMissing[0])))
+                                return res;
+
+                            delivered.add(clients);
+                            return res;
+                        }
+                        case "getPreKeys": {
+                            Missing missing = (Missing) args[0];
+                            PreKeys ret = new PreKeys();
+                            Set<String> asked = new HashSet<>();
+                            missing.forEach((userId, ids) -> {
+                                HashMap<String, PreKey> keys = new HashMap<>();
+                                for (String id : ids) {
+                                    asked.add(id);
+                                    PreKey preKey = new PreKey();
+                                    preKey.key = withoutPrekeys.contains(id) ? null : "key";
+                                    keys.put(id, preKey);
+                                }
+                                ret.put(userId, keys);
+                            });
+                            preKeyCalls.add(asked);
+                            return ret;
+                        }
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private Crypto crypto() {
+        return Stubs.of(Crypto.class,
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("encrypt"))
+                        return null;
+
+                    Recipients ret = new Recipients();
+                    if (args[0] instanceof PreKeys) {
+                        ((PreKeys) args[0]).forEach((userId, keys) -> keys.forEach((id, key) -> {
+                            if (key.key != null) {
+                                sessions.add(id);
+                                ret.add(userId, id, "cipher");
+                            }
+                        }));
+                    } else {
+                        ((Missing) args[0]).forEach((userId, ids) -> ids.stream()
+                                .filter(sessions::contains)
+                                .forEach(id -> ret.add(userId, id, "cipher")));
+                    }
+                    return ret;
+                });
+    }
+
+    private static Recipients recipients(OtrMessage msg) throws Exception {
+        Field field = OtrMessage.class.getDeclaredField("recipients");
+        field.setAccessible(true);
+        return (Recipients) field.get(msg);
+    }
+
+    private static Set<String> clients(Recipients recipients) {
+        Set<String> ret = new HashSet<>();
+        for (UUID userId : recipients.keySet()) {
+            Map<String, String> ciphers = recipients.get(userId);
+            ret.addAll(ciphers.keySet());
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,138 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.helpers.Stubs;
+import com.wire.lithium.prekeys.PreKeyPool;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.models.otr.PreKey;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+public class PreKeyPoolTest {
+    private final Set<UUID> boxes = new HashSet<>();
+    private final Map<UUID, UUID> transferred = new HashMap<>();
+    private boolean failTransfer;
+    private int failGenerations;
+
+    @Test
+    public void testTakeHandsOverPregeneratedBox() {
+        PreKeyPool pool = pool(2);
+        pool.start();
+        Assertions.assertEquals(2, pool.getReady());
+        Assertions.assertEquals(2, boxes.size());
+
+        UUID botId = UUID.randomUUID();
+        PreKeyPool.Keys keys = pool.take(botId);
+
+        Assertions.assertNotNull(keys);
+        Assertions.assertEquals(0xFFFF, keys.lastPreKey.id);
+        Assertions.assertEquals(50, keys.preKeys.size());
+        Assertions.assertEquals(1, transferred.size());
+        Assertions.assertEquals(botId, transferred.values().iterator().next());
+        Assertions.assertTrue(boxes.contains(botId));
+
+        // refilled in the background
+        Assertions.assertEquals(2, pool.getReady());
+
+        pool.stop();
+        Assertions.assertEquals(0, pool.getReady());
+        Assertions.assertEquals(Set.of(botId), boxes);
+    }
+
+    @Test
+    public void testFailedTransferFallsBack() {
+        PreKeyPool pool = pool(1);
+        pool.start();
+        failTransfer = true;
+
+        Assertions.assertNull(pool.take(UUID.randomUUID()));
+        Assertions.assertEquals(1, pool.getReady());
+        Assertions.assertEquals(1, boxes.size());
+    }
+
+    @Test
+    public void testLeftoversPurgedOnStart() {
+        pool(2).start();
+        Set<UUID> crashed = new HashSet<>(boxes);
+
+        // same node after a crash: the same ids, nothing piles up
+        PreKeyPool pool = pool(2);
+        pool.start();
+
+        Assertions.assertEquals(2, pool.getReady());
+        Assertions.assertEquals(crashed, boxes);
+    }
+
+    @Test
+    public void testFailedGenerationIsRetried() {
+        failGenerations = 1;
+        PreKeyPool pool = pool(1);
+        pool.start();
+
+        Assertions.assertEquals(0, failGenerations);
+        Assertions.assertEquals(1, pool.getReady());
+        Assertions.assertEquals(1, boxes.size());
+    }
+
+    @Test
+    public void testEmptyPool() {
+        PreKeyPool pool = new PreKeyPool(this::crypto, this::transfer, task -> {
+        }, "node", 1, 50, new MetricRegistry());
+        pool.start();
+
+        Assertions.assertNull(pool.take(UUID.randomUUID()));
+    }
+
+    private PreKeyPool pool(int size) {
+        return new PreKeyPool(this::crypto, this::transfer, Runnable::run, "node", size, 50, new MetricRegistry());
+    }
+
+    private void transfer(UUID from, UUID to) throws IOException {
+        if (failTransfer)
+            throw new IOException("duplicate key");
+        boxes.remove(from);
+        boxes.add(to);
+        transferred.put(from, to);
+    }
+
+    private Crypto crypto(UUID id) {
+        return Stubs.of(Crypto.class,
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "newLastPreKey":
+                            boxes.add(id);
+                            if (failGenerations > 0) {
+                                failGenerations--;
+                                throw new IOException("storage down");
+                            }
+                            return preKey(0xFFFF);
+                        case "newPreKeys":
+                            List<PreKey> keys = new ArrayList<>();
+                            for (int i = 0; i < (int) args[1]; i++)
+                                keys.add(preKey((int) args[0] + i));
+                            return keys;
+                        case "purge":
+                            boxes.remove(id);
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static PreKey preKey(int id) {
+        PreKey preKey = new PreKey();
+        preKey.id = id;
+        preKey.key = "key" + id;
+        return preKey;
+    }
+}
@@ -0,0 +1,93 @@
+package com.wire.lithium;
+
+import com.wire.lithium.helpers.Stubs;
+import com.wire.lithium.prekeys.PreKeyRefill;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.models.otr.PreKey;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PreKeyRefillTest {
+    private final List<PreKey> uploaded = new ArrayList<>();
+    private int from = -1;
+
+    @Test
+    public void testEnoughPrekeys() throws Exception {
+        int count = new PreKeyRefill(10, 50).refill(client(), ids(20, 40, true));
+
+        Assertions.assertEquals(0, count);
+        Assertions.assertTrue(uploaded.isEmpty());
+    }
+
+    @Test
+    public void testRefillContinuesAfterHighestId() throws Exception {
+        // last prekey does not count
+        int count = new PreKeyRefill(10, 50).refill(client(), ids(45, 49, true));
+
+        Assertions.assertEquals(45, count);
+        Assertions.assertEquals(50, from);
+        Assertions.assertEquals(45, uploaded.size());
+    }
+
+    @Test
+    public void testRefillWrapsBeforeLastPrekey() throws Exception {
+        int count = new PreKeyRefill(10, 50).refill(client(), ids(65530, 65534, false));
+
+        Assertions.assertEquals(45, count);
+        Assertions.assertEquals(0, from);
+    }
+
+    @Test
+    public void testRefillSkipsPrekeysHandedOut() throws Exception {
+        // every prekey was claimed, none was used for a session yet
+        PreKeyRefill refill = new PreKeyRefill(10, 50, botId -> ids(0, 49, false));
+        int count = refill.refill(client(), ids(0, -1, true));
+
+        Assertions.assertEquals(50, count);
+        Assertions.assertEquals(50, from);
+    }
+
+    @Test
+    public void testRefillWrapsIntoFreeIds() throws Exception {
+        PreKeyRefill refill = new PreKeyRefill(10, 50, botId -> ids(0, 9, false));
+        int count = refill.refill(client(), ids(65530, 65534, false));
+
+        Assertions.assertEquals(45, count);
+        Assertions.assertEquals(10, from);
+    }
+
+    private static List<Integer> ids(int first, int last, boolean withLastPrekey) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = first; i <= last; i++)
+            ids.add(i);
+        if (withLastPrekey)
+            ids.add(0xFFFF);
+        return ids;
+    }
+
+    @SuppressWarnings("unchecked")
+    private WireClient client() {
+        return Stubs.of(WireClient.class,
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "newPreKeys":
+                            from = (int) args[0];
+                            ArrayList<PreKey> keys = new ArrayList<>();
+                            for (int i = 0; i < (int) args[1]; i++) {
+                                PreKey preKey = new PreKey();
+                                preKey.id = from + i;
+                                keys.add(preKey);
+                            }
+                            return keys;
+                        case "uploadPreKeys":
+                            uploaded.addAll((List<PreKey>) args[0]);
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,97 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.helpers.Stubs;
+import com.wire.lithium.prekeys.BotDirectory;
+import com.wire.lithium.prekeys.PreKeyRefill;
+import com.wire.lithium.prekeys.PreKeySweeper;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.exceptions.MissingStateException;
+import com.wire.xenon.models.otr.PreKey;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+public class PreKeySweeperTest {
+    private final TreeMap<UUID, Integer> available = new TreeMap<>();    // bot -> prekeys on the backend
+    private final Map<UUID, Integer> uploaded = new ConcurrentHashMap<>();
+    private final List<Integer> pages = new ArrayList<>();
+
+    @Test
+    public void testSweepRefillsLowBots() {
+        for (int i = 0; i < 25; i++)
+            available.put(UUID.randomUUID(), i % 5 == 0 ? 3 : 50);
+        UUID missing = UUID.randomUUID();
+        available.put(missing, -1);
+
+        MetricRegistry metrics = new MetricRegistry();
+        PreKeySweeper sweeper = new PreKeySweeper(new FakeRepo(), directory(), new PreKeyRefill(10, 50),
+                Runnable::run, 10, 1_000, metrics);
+        sweeper.run();
+
+        Assertions.assertEquals(List.of(10, 10, 6), pages);
+        Assertions.assertEquals(5, uploaded.size());
+        uploaded.values().forEach(count -> Assertions.assertEquals(47, count));
+
+        Assertions.assertEquals(25, metrics.histogram("prekeys.available").getCount());
+        Assertions.assertEquals(235, metrics.meter("prekeys.uploaded").getCount());
+        Assertions.assertEquals(1, metrics.meter("prekeys.errors").getCount());
+        Assertions.assertEquals(25, metrics.getGauges().get("prekeys.sweep.bots").getValue());
+        Assertions.assertEquals(5, metrics.getGauges().get("prekeys.sweep.low").getValue());
+        Assertions.assertEquals(1, metrics.timer("prekeys.sweep").getCount());
+    }
+
+    private BotDirectory directory() {
+        return (after, limit) -> {
+            List<UUID> page = (after == null ? available.keySet() : available.tailMap(after, false).keySet())
+                    .stream()
+                    .limit(limit)
+                    .collect(Collectors.toList());
+            pages.add(page.size());
+            return page;
+        };
+    }
+
+    private class FakeRepo extends ClientRepo {
+        FakeRepo() {
+            super(null, null, null);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public WireClient getClient(UUID botId) throws MissingStateException {
+            int count = available.get(botId);
+            if (count < 0)
+                throw new MissingStateException(botId);
+
+            return Stubs.of(WireClient.class,
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getAvailablePrekeys":
+                                ArrayList<Integer> ids = new ArrayList<>();
+                                for (int i = 0; i < count; i++)
+                                    ids.add(i);
+                                ids.add(0xFFFF);
+                                return ids;
+                            case "newPreKeys":
+                                ArrayList<PreKey> keys = new ArrayList<>();
+                                for (int i = 0; i < (int) args[1]; i++)
+                                    keys.add(new PreKey());
+                                return keys;
+                            case "uploadPreKeys":
+                                uploaded.put(botId, ((List<PreKey>) args[0]).size());
+                                return null;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.storage.SegmentState;
+import com.wire.lithium.storage.SegmentStore;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.exceptions.MissingStateException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class SegmentStoreTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testPutGetDelete() throws Exception {
+        SegmentStore store = open(4096);
+
+        store.put("a", bytes("1"));
+        store.put("a", bytes("2"));
+        store.put("b", bytes("3"));
+
+        Assertions.assertEquals("2", string(store.get("a")));
+        Assertions.assertTrue(store.delete("a"));
+        Assertions.assertFalse(store.delete("a"));
+        Assertions.assertNull(store.get("a"));
+        Assertions.assertEquals(List.of("b"), store.keys(""));
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        SegmentStore store = open(256);
+        for (int i = 0; i < 50; i++)
+            store.put("key/" + (i % 10), bytes("value" + i));
+        store.delete("key/3");
+        store.close();
+
+        SegmentStore reopened = open(256);
+        Assertions.assertEquals(9, reopened.keys("key/").size());
+        Assertions.assertEquals("value49", string(reopened.get("key/9")));
+        Assertions.assertNull(reopened.get("key/3"));
+    }
+
+    @Test
+    public void testTornWriteIsDropped() throws Exception {
+        SegmentStore store = open(4096);
+        store.put("a", bytes("1"));
+        store.put("b", bytes("2"));
+        store.close();
+
+        // corrupt the value of the last record, as a crash in the middle of the write would
+        Path segment = segments().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(12 + 1 + 1 + 12 + 1);
+            file.write('x');
+        }
+
+        SegmentStore reopened = open(4096);
+        Assertions.assertEquals("1", string(reopened.get("a")));
+        Assertions.assertNull(reopened.get("b"));
+
+        // appends continue where the valid records end
+        reopened.put("c", bytes("3"));
+        reopened.close();
+        Assertions.assertEquals("3", string(open(4096).get("c")));
+    }
+
+    @Test
+    public void testTornBatchIsDropped() throws Exception {
+        SegmentStore store = open(4096);
+        store.put("x", bytes("1"));
+        store.write(new SegmentStore.Batch()
+                .put("a", bytes("1"))
+                .put("b", bytes("2"))
+                .delete("x"));
+        Assertions.assertEquals(List.of("a", "b"), store.keys(""));
+        store.close();
+
+        // corrupt the value of the second record in the batch: x, batch marker, a, b
+        try (RandomAccessFile file = new RandomAccessFile(segments().get(0).toFile(), "rw")) {
+            file.seek(14 + 22 + 14 + 13);
+            file.write('x');
+        }
+
+        SegmentStore reopened = open(4096);
+        Assertions.assertEquals(List.of("x"), reopened.keys(""));
+        Assertions.assertEquals("1", string(reopened.get("x")));
+    }
+
+    @Test
+    public void testBatchFitsOneSegment() throws Exception {
+        SegmentStore store = open(64);
+        store.put("x", bytes("1"));
+        SegmentStore.Batch batch = new SegmentStore.Batch();
+        for (int i = 0; i < 10; i++)
+            batch.put("k" + i, bytes("v" + i));
+        store.write(batch);
+        store.close();
+
+        Assertions.assertEquals(11, open(64).keys("").size());
+    }
+
+    @Test
+    public void testCacheServesLatestValue() throws Exception {
+        SegmentStore store = open(4096);
+        store.put("a", bytes("1"));
+        Assertions.assertEquals("1", string(store.get("a")));
+        Assertions.assertEquals("1", string(store.get("a")));
+
+        store.put("a", bytes("2"));
+        Assertions.assertEquals("2", string(store.get("a")));
+        store.delete("a");
+        Assertions.assertNull(store.get("a"));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        SegmentStore store = open(256);
+        store.put("gone", bytes("x"));
+        store.delete("gone");
+        for (int i = 0; i < 200; i++)
+            store.put("hot", bytes("value" + i));
+        store.put("cold", bytes("kept"));
+
+        Assertions.assertTrue(store.getSegmentCount() <= 3);
+        Assertions.assertEquals(store.getSegmentCount(), segments().size());
+        Assertions.assertEquals("value199", string(store.get("hot")));
+        Assertions.assertEquals("kept", string(store.get("cold")));
+        store.close();
+
+        SegmentStore reopened = open(256);
+        Assertions.assertEquals(List.of("cold", "hot"), reopened.keys(""));
+        Assertions.assertNull(reopened.get("gone"));
+    }
+
+    @Test
+    public void testPutAfterCompactionFilledNewSegment() throws Exception {
+        SegmentStore store = new SegmentStore(dir, 200, 1.0, 0, new MetricRegistry());
+        byte[] value = new byte[40];
+        for (int i = 0; i < 20; i++)
+            store.put("key/" + i, value);
+        store.close();
+
+        SegmentStore reopened = new SegmentStore(dir, 200, 1.0, 0, new MetricRegistry());
+        Assertions.assertEquals(20, reopened.keys("key/").size());
+    }
+
+    @Test
+    public void testKeysAfter() throws Exception {
+        SegmentStore store = open(4096);
+        for (String key : new String[]{"p/1", "p/2", "p/3", "q/1"})
+            store.put(key, bytes(key));
+
+        Assertions.assertEquals(List.of("p/1", "p/2"), store.keys("p/", null, 2));
+        Assertions.assertEquals(List.of("p/3"), store.keys("p/", "p/2", 2));
+        Assertions.assertEquals(3, store.movePrefix("p/", "r/"));
+        Assertions.assertEquals(List.of("q/1", "r/1", "r/2", "r/3"), store.keys(""));
+
+        Assertions.assertEquals(4, store.movePrefix(Map.of("q/", "s/", "r/", "t/")));
+        Assertions.assertEquals(List.of("s/1", "t/1", "t/2", "t/3"), store.keys(""));
+        Assertions.assertEquals(4, store.deletePrefix("s/", "t/"));
+        Assertions.assertTrue(store.keys("").isEmpty());
+    }
+
+    @Test
+    public void testState() throws Exception {
+        SegmentStore store = open(4096);
+        UUID botId = UUID.randomUUID();
+        SegmentState state = new SegmentState(store, botId);
+
+        NewBot bot = new NewBot();
+        bot.id = botId;
+        bot.token = "token";
+        Assertions.assertTrue(state.saveState(bot));
+        Assertions.assertEquals("token", state.getState().token);
+
+        Assertions.assertTrue(state.removeState());
+        Assertions.assertThrows(MissingStateException.class, state::getState);
+    }
+
+    private SegmentStore open(int segmentSize) throws Exception {
+        return new SegmentStore(dir, segmentSize, 0.5, 1024 * 1024, new MetricRegistry());
+    }
+
+    private List<Path> segments() throws Exception {
+        try (Stream<Path> list = Files.list(dir)) {
+            return list.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] b) {
+        return b == null ? null : new String(b, StandardCharsets.UTF_8);
+    }
+}
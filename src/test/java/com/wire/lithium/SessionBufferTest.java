@@ -0,0 +1,140 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.bots.cryptobox.PreKey;
+import com.wire.lithium.crypto.SessionBuffer;
+import com.wire.lithium.helpers.Stubs;
+import com.wire.xenon.crypto.Crypto;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SessionBufferTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final SessionBuffer buffer = new SessionBuffer(metrics);
+    private final ConcurrentHashMap<String, byte[]> sessions = new ConcurrentHashMap<>();
+    private final List<String> log = new ArrayList<>();
+    private boolean failWrites;
+
+    @Test
+    public void testConcurrentEventsShareOneWrite() throws Exception {
+        sessions.put("bot/sid", new byte[]{0});
+        SessionBuffer.BufferedStorage first = buffer.storage(storage());
+        SessionBuffer.BufferedStorage second = buffer.storage(storage());
+
+        first.fetchSession("bot", "sid").persist(new byte[]{1});
+
+        // second event sees the update before it is written
+        IRecord record = second.fetchSession("bot", "sid");
+        Assertions.assertArrayEquals(new byte[]{1}, record.getData());
+        record.persist(new byte[]{2});
+
+        Assertions.assertEquals(List.of("fetch"), log);
+
+        first.flush();
+        second.flush();
+
+        Assertions.assertEquals(List.of("fetch", "write"), log);
+        Assertions.assertArrayEquals(new byte[]{2}, sessions.get("bot/sid"));
+        Assertions.assertEquals(1, metrics.meter("crypto.sessions.coalesced").getCount());
+
+        // written sessions are read from the storage again
+        buffer.storage(storage()).fetchSession("bot", "sid");
+        Assertions.assertEquals(List.of("fetch", "write", "fetch"), log);
+    }
+
+    @Test
+    public void testFailedFlushStaysPending() throws Exception {
+        SessionBuffer.BufferedStorage storage = buffer.storage(storage());
+        storage.fetchSession("bot", "sid").persist(new byte[]{1});
+
+        failWrites = true;
+        Assertions.assertThrows(IllegalStateException.class, storage::flush);
+        Assertions.assertNull(sessions.get("bot/sid"));
+
+        failWrites = false;
+        storage.flush();
+        Assertions.assertArrayEquals(new byte[]{1}, sessions.get("bot/sid"));
+    }
+
+    @Test
+    public void testCloseFlushes() throws Exception {
+        SessionBuffer.BufferedStorage storage = buffer.storage(storage());
+        List<String> calls = new ArrayList<>();
+        Crypto crypto = Stubs.of(Crypto.class,
+                (proxy, method, args) -> {
+                    calls.add(method.getName());
+                    return null;
+                });
+
+        storage.fetchSession("bot", "sid").persist(new byte[]{1});
+        buffer.wrap(crypto, storage).close();
+
+        Assertions.assertArrayEquals(new byte[]{1}, sessions.get("bot/sid"));
+        Assertions.assertEquals(List.of("close"), calls);
+    }
+
+    @Test
+    public void testUpdateAfterFlushFails() throws Exception {
+        SessionBuffer.BufferedStorage storage = buffer.storage(storage());
+        IRecord record = storage.fetchSession("bot", "sid");
+        record.persist(new byte[]{1});
+        storage.flush();
+
+        Assertions.assertThrows(IllegalStateException.class, () -> record.persist(new byte[]{2}));
+        Assertions.assertArrayEquals(new byte[]{1}, sessions.get("bot/sid"));
+    }
+
+    private IStorage storage() {
+        return new IStorage() {
+            @Override
+            public IRecord fetchSession(String id, String sid) {
+                log.add("fetch");
+                String key = id + "/" + sid;
+                byte[] data = sessions.get(key);
+                return new IRecord() {
+                    @Override
+                    public byte[] getData() {
+                        return data;
+                    }
+
+                    @Override
+                    public void persist(byte[] update) {
+                        if (failWrites)
+                            throw new IllegalStateException("database down");
+                        log.add("write");
+                        sessions.put(key, update);
+                    }
+                };
+            }
+
+            @Override
+            public byte[] fetchIdentity(String id) {
+                return null;
+            }
+
+            @Override
+            public void insertIdentity(String id, byte[] data) {
+            }
+
+            @Override
+            public PreKey[] fetchPrekeys(String id) {
+                return null;
+            }
+
+            @Override
+            public void insertPrekey(String id, int kid, byte[] data) {
+            }
+
+            @Override
+            public void purge(String id) {
+                sessions.clear();
+            }
+        };
+    }
+}
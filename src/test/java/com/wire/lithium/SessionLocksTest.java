@@ -0,0 +1,98 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.crypto.SessionLocks;
+import com.wire.lithium.helpers.Stubs;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.Recipients;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SessionLocksTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final SessionLocks locks = new SessionLocks(16, metrics);
+    private final UUID botId = UUID.randomUUID();
+    private final AtomicInteger inSession = new AtomicInteger();
+    private final AtomicInteger overlaps = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+
+    @Test
+    public void testSessionIsUsedByOneThreadAtATime() throws Exception {
+        UUID userId = UUID.randomUUID();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(() -> {
+                    try (Crypto crypto = locks.wrap(botId, crypto())) {
+                        return crypto.decrypt(userId, "client", "cipher");
+                    }
+                }));
+            }
+            for (Future<String> result : results)
+                Assertions.assertEquals("cipher", result.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assertions.assertEquals(0, overlaps.get());
+        Assertions.assertEquals(200, closed.get());
+        Assertions.assertEquals(200, metrics.timer("crypto.locks.wait").getCount());
+    }
+
+    @Test
+    public void testOverlappingEncryptsDoNotDeadlock() throws Exception {
+        List<UUID> users = new ArrayList<>();
+        for (int i = 0; i < 40; i++)
+            users.add(UUID.randomUUID());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Recipients>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                Missing missing = new Missing();
+                // same sessions, different order for every call
+                for (int u = 0; u < users.size(); u++)
+                    missing.add(users.get((u + i) % users.size()), "client");
+                results.add(executor.submit(() -> locks.wrap(botId, crypto()).encrypt(missing, new byte[0])));
+            }
+            for (Future<Recipients> result : results)
+                result.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assertions.assertEquals(0, overlaps.get());
+    }
+
+    private Crypto crypto() {
+        return Stubs.of(Crypto.class,
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "decrypt":
+                        case "encrypt":
+                            if (inSession.incrementAndGet() > 1)
+                                overlaps.incrementAndGet();
+                            Thread.sleep(1);
+                            inSession.decrementAndGet();
+                            return method.getName().equals("decrypt") ? args[2] : new Recipients();
+                        case "close":
+                            closed.incrementAndGet();
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
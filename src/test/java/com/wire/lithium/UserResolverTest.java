@@ -0,0 +1,95 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.xenon.backend.models.User;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class UserResolverTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final List<Collection<UUID>> calls = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void testConcurrentLookupsShareOneCall() throws Exception {
+        UserResolver resolver = new UserResolver(TimeUnit.SECONDS.toNanos(1), 64, metrics);
+        UUID botId = UUID.randomUUID();
+        UUID shared = UUID.randomUUID();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<Collection<User>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                UUID userId = i % 2 == 0 ? shared : UUID.randomUUID();
+                results.add(CompletableFuture.supplyAsync(() -> resolver.getUsers(botId, List.of(userId), this::users), executor));
+            }
+
+            for (CompletableFuture<Collection<User>> result : results)
+                Assertions.assertEquals(1, result.get(5, TimeUnit.SECONDS).size());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assertions.assertEquals(1, calls.size());
+        Assertions.assertEquals(5, calls.get(0).size());
+        Assertions.assertEquals(3, metrics.meter("users.coalesced").getCount());
+        Assertions.assertEquals(1, metrics.histogram("users.batch.size").getCount());
+    }
+
+    @Test
+    public void testFullBatchIsSentWithoutWaiting() {
+        UserResolver resolver = new UserResolver(TimeUnit.SECONDS.toNanos(30), 2, metrics);
+        List<UUID> ids = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+
+        long start = System.nanoTime();
+        Collection<User> users = resolver.getUsers(UUID.randomUUID(), ids, this::users);
+
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        Assertions.assertEquals(4, users.size());
+        Assertions.assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void testBotsAreNotMixed() {
+        UserResolver resolver = new UserResolver(0, 64, metrics);
+        UUID userId = UUID.randomUUID();
+
+        resolver.getUsers(UUID.randomUUID(), List.of(userId), this::users);
+        resolver.getUsers(UUID.randomUUID(), List.of(userId), this::users);
+
+        Assertions.assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void testErrorReachesEveryCaller() {
+        UserResolver resolver = new UserResolver(0, 64, metrics);
+        UUID botId = UUID.randomUUID();
+
+        Assertions.assertThrows(IllegalStateException.class, () -> resolver.getUsers(botId, List.of(UUID.randomUUID()), ids -> {
+            throw new IllegalStateException("backend down");
+        }));
+
+        // nothing is left in flight
+        Assertions.assertEquals(1, resolver.getUsers(botId, List.of(UUID.randomUUID()), this::users).size());
+    }
+
+    private Collection<User> users(Collection<UUID> ids) {
+        calls.add(new ArrayList<>(ids));
+        List<User> ret = new ArrayList<>();
+        for (UUID id : ids) {
+            User user = new User();
+            user.id = id;
+            ret.add(user);
+        }
+        return ret;
+    }
+}
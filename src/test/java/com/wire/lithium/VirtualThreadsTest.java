@@ -0,0 +1,88 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.server.jetty.VirtualThreadPool;
+import com.wire.lithium.server.jetty.VirtualThreadsServerFactory;
+import com.wire.lithium.tools.VirtualThreads;
+import com.wire.xenon.MessageHandlerBase;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.server.ServerFactory;
+import io.dropwizard.setup.Environment;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class VirtualThreadsTest {
+    @Test
+    public void testTasksRunOnVirtualThreads() throws Exception {
+        Assumptions.assumeTrue(VirtualThreads.isSupported(), "JVM has no virtual threads");
+
+        ExecutorService executor = newServer(true).createExecutor("test", 2);
+        Thread thread = executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        Assertions.assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+    }
+
+    @Test
+    public void testFallbackIsBounded() {
+        Assumptions.assumeFalse(VirtualThreads.isSupported(), "JVM has virtual threads");
+
+        Assertions.assertNull(VirtualThreads.newExecutor("test-"));
+        assertBounded(newServer(true).createExecutor("test", 3), 3);
+    }
+
+    @Test
+    public void testPlatformThreadsWhenDisabled() {
+        assertBounded(newServer(false).createExecutor("test", 3), 3);
+    }
+
+    @Test
+    public void testServerTypeRunsRequestsOnVirtualThreads() throws Exception {
+        ServerFactory factory = Jackson.newObjectMapper().readValue("{\"type\": \"virtual\"}", ServerFactory.class);
+        Assertions.assertTrue(factory instanceof VirtualThreadsServerFactory);
+
+        ThreadPool pool = new VirtualThreadsServerFactory() {
+            ThreadPool pool() {
+                return createThreadPool(new MetricRegistry());
+            }
+        }.pool();
+        if (!VirtualThreads.isSupported()) {
+            Assertions.assertTrue(pool instanceof QueuedThreadPool);
+            return;
+        }
+
+        Assertions.assertTrue(pool instanceof VirtualThreadPool);
+        ((VirtualThreadPool) pool).start();
+        CompletableFuture<Thread> thread = new CompletableFuture<>();
+        pool.execute(() -> thread.complete(Thread.currentThread()));
+        Assertions.assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread.get(5, TimeUnit.SECONDS)));
+        ((VirtualThreadPool) pool).stop();
+    }
+
+    private static void assertBounded(ExecutorService executor, int threads) {
+        Assertions.assertTrue(executor instanceof ThreadPoolExecutor);
+        Assertions.assertEquals(threads, ((ThreadPoolExecutor) executor).getMaximumPoolSize());
+        executor.shutdown();
+    }
+
+    private static Server<Configuration> newServer(boolean virtualThreads) {
+        Server<Configuration> server = new Server<>() {
+            @Override
+            protected MessageHandlerBase createHandler(Configuration config, Environment env) {
+                return null;
+            }
+        };
+        server.config = new Configuration();
+        server.config.virtualThreads = virtualThreads;
+        server.environment = new Environment("test");
+        return server;
+    }
+}
@@ -0,0 +1,15 @@
+package com.wire.lithium.helpers;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+
+public class Stubs {
+    /**
+     * @param type    Interface to stub
+     * @param handler Answers the calls, typically by switching on the method name
+     * @return Instance of the interface whose calls go to the handler
+     */
+    public static <T> T of(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}